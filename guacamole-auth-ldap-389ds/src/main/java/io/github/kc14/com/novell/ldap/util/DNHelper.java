@@ -62,4 +62,19 @@ public abstract class DNHelper {
 		return dn;
 	}
 
+	/**
+	 * Normalizes a DN given as string, so that equal DNs compare equal as strings
+	 * (whitespace around RDNs is dropped and the DN is lower cased).
+	 * <p>
+	 * @param dn The DN to normalize
+	 * @return The normalized DN (or the trimmed and lower cased string if the DN cannot be parsed)
+	 */
+	public static String normalize(String dn) {
+		try {
+			return new DN(dn).toString().toLowerCase();
+		} catch (IllegalArgumentException e) { // Not a parsable DN => compare as is
+			return dn.trim().toLowerCase();
+		}
+	}
+
 }
@@ -23,6 +23,14 @@
 package io.github.kc14.guacamole.auth.ldap389ds;
 
 import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.glyptodon.guacamole.GuacamoleException;
 import org.glyptodon.guacamole.GuacamoleServerException;
@@ -32,15 +40,28 @@ import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.novell.ldap.LDAPAttribute;
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPEntry;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPSearchResults;
 
+import io.github.kc14.guacamole.auth.ldap389ds.cache.CredentialCache;
+import io.github.kc14.guacamole.auth.ldap389ds.cache.KnownUsernameFilter;
+import io.github.kc14.guacamole.auth.ldap389ds.cache.LastKnownGoodStore;
+import io.github.kc14.guacamole.auth.ldap389ds.cache.UnknownUserCache;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionTreeContext;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.EscapingService;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.LDAPConnectionService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.LDAPOperationLimiter;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearch;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearchUser;
 import io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser;
 import io.github.kc14.guacamole.auth.ldap389ds.user.UserContext;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.MacroPreProcessor;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.UserAttributeTokens;
 
 /**
  * Delegatee service providing convenience functions for the LDAP AuthenticationProvider
@@ -49,6 +70,7 @@ import io.github.kc14.guacamole.auth.ldap389ds.user.UserContext;
  * @author Michael Jumper
  * @author Frank KemmerØ
  */
+@Singleton
 public class AuthenticationProviderService {
 
 	/**
@@ -80,40 +102,183 @@ public class AuthenticationProviderService {
     @Inject
     private LDAPSearchUser ldapSearchUser;
 
+    /**
+     * Cache of recently verified credentials.
+     */
+    @Inject
+    private CredentialCache credentialCache;
+
+    /**
+     * Negative cache of usernames reported as nonexistent.
+     */
+    @Inject
+    private UnknownUserCache unknownUserCache;
+
+    /**
+     * Bloom filter of the usernames existing in the directory.
+     */
+    @Inject
+    private KnownUsernameFilter knownUsernameFilter;
+
+    /**
+     * Rate limits and bulkheads of the operations sent to the LDAP server.
+     */
+    @Inject
+    private LDAPOperationLimiter operationLimiter;
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Service for escaping parts of LDAP queries.
+     */
+    @Inject
+    private EscapingService escapingService;
+
+    /**
+     * Last known good connection trees, served while LDAP is unavailable.
+     */
+    @Inject
+    private LastKnownGoodStore lastKnownGood;
+
     public AuthenticatedUser authenticateUser(Credentials credentials) throws GuacamoleException {
         
         if (credentials.getUsername() == null || credentials.getUsername().isEmpty()) return null;
 
-        // Bind default bindDN
-        LDAPConnection ldapConnection = bindDefaultDN();
-        if (ldapConnection == null) {
-            logger.error("No ldap connection => cannot authenticate!");
+        // Reject unknown users without touching LDAP
+        if (unknownUserCache.isUnknown(credentials.getUsername()) || !knownUsernameFilter.mightExist(credentials.getUsername())) {
+            logger.debug("User [{}] is unknown => rejected without LDAP search.", credentials.getUsername());
             return null;
         }
 
-        // Find user given by credentials
+        // The per user limits cover the cache, too, as verifying a password is expensive (scrypt)
+        LDAPOperationLimiter.Permit userPermit = operationLimiter.acquireUser(credentials.getUsername());
+        LDAPOperationLimiter.Permit permit = null;
+        LDAPConnection ldapConnection = null;
+
         try {
-	    	LDAPSearchResults ldapSearchResults = ldapSearchUser.searchUserByCredentials(ldapConnection, credentials);
+            // Answer repeated logins within the time to live from the cache
+            String cachedDN = credentialCache.verify(credentials);
+            if (cachedDN != null) {
+                AuthenticatedUser authenticatedUser = authenticatedUserProvider.get();
+                authenticatedUser.init(credentials, cachedDN);
+                authenticatedUser.setAttributeTokens(credentialCache.getAttributeTokens(credentials.getUsername()));
+                return authenticatedUser;
+            }
+
+            // Wait for a permit of the global limits (rejects if the directory is busy)
+            permit = operationLimiter.acquireGlobal(credentials.getUsername());
 
-            if (ldapSearchResults.hasMore() == false) return null; // No results => not authenticated
+            // Find user given by credentials
+            // Bind as the user given by the DN template, if configured (no search)
+            String dnTemplate = confService.getDirectBindDNTemplate();
+            if (dnTemplate != null) {
+                String userDN = MacroPreProcessor.expandTokens(
+                        Collections.singletonMap("GUAC_USERNAME", escapingService.escapeDN(credentials.getUsername())), dnTemplate);
+                ldapConnection = ldapService.bindUser(userDN, credentials.getPassword());
+                if (ldapConnection == null) { // Bind failed => not authenticated
+                    credentialCache.invalidate(credentials.getUsername());
+                    return null;
+                }
+                AuthenticatedUser authenticatedUser = authenticatedUserProvider.get();
+                authenticatedUser.init(credentials, userDN);
+                readGroupDNs(ldapConnection, authenticatedUser);
+                credentialCache.put(credentials, userDN, authenticatedUser.getAttributeTokens());
+                return authenticatedUser;
+            }
+
+            // Bind default bindDN
+            ldapConnection = bindDefaultDN();
+            if (ldapConnection == null) {
+                logger.error("No ldap connection => cannot authenticate!");
+                return authenticateStale(credentials);
+            }
+
+            // Read the attributes of the user attribute tokens in the same search
+            Collection<String> tokenNames = UserAttributeTokens.getTokenNames();
+	    	LDAPSearchResults ldapSearchResults = ldapSearchUser.searchUserByCredentials(ldapConnection, credentials,
+	    	        UserAttributeTokens.getAttributeNames(tokenNames));
+
+            if (ldapSearchResults.hasMore() == false) { // No results => not authenticated
+                credentialCache.invalidate(credentials.getUsername());
+                return null;
+            }
 
             // Return AuthenticatedUser if search succeeded
+            LDAPEntry userEntry = ldapSearchResults.next();
             AuthenticatedUser authenticatedUser = authenticatedUserProvider.get();
-            authenticatedUser.init(credentials);
+            authenticatedUser.init(credentials, userEntry.getDN());
+            if (!tokenNames.isEmpty()) authenticatedUser.setAttributeTokens(UserAttributeTokens.read(userEntry, tokenNames));
+            credentialCache.put(credentials, userEntry.getDN(), authenticatedUser.getAttributeTokens());
             return authenticatedUser;
         }
         catch (LDAPException e) {
+            if (e.getResultCode() == LDAPException.NO_SUCH_OBJECT) { // No such user => remember and reject
+                logger.info("No user entry found for [" + credentials.getUsername() + "].");
+                credentialCache.invalidate(credentials.getUsername());
+                unknownUserCache.put(credentials.getUsername());
+                return null;
+            }
+            if (e.getResultCode() == LDAPException.CONNECT_ERROR || e.getResultCode() == LDAPException.SERVER_DOWN) {
+                AuthenticatedUser authenticatedUser = authenticateStale(credentials);
+                if (authenticatedUser != null) return authenticatedUser;
+            }
             throw new GuacamoleServerException("Error while searching for user [" + credentials.getUsername() + "].", e);
         }
         catch (MalformedURLException e) {
             throw new GuacamoleServerException("Error while searching for user [" + credentials.getUsername() + "].", e);
         }
         finally { // Always disconnect
-        	ldapService.disconnect(ldapConnection);
+        	if (ldapConnection != null) ldapService.disconnect(ldapConnection);
+        	if (permit != null) permit.release();
+        	userPermit.release();
         }
 
     }
 
+    /**
+     * Verifies the given credentials against the expired entries of the
+     * credential cache kept for degraded mode, while the LDAP server is
+     * unreachable. Direct binds are never verified this way, as a failed
+     * bind does not tell an unreachable server from a wrong password.
+     *
+     * @return
+     *     The authenticated user, or null if not verified.
+     */
+    private AuthenticatedUser authenticateStale(Credentials credentials) throws GuacamoleException {
+        if (!lastKnownGood.isEnabled()) return null;
+        String staleDN = credentialCache.verifyStale(credentials);
+        if (staleDN == null) return null;
+        logger.info("LDAP server unavailable => [{}] authenticated by the credential cache.", credentials.getUsername());
+        lastKnownGood.markDegraded();
+        AuthenticatedUser authenticatedUser = authenticatedUserProvider.get();
+        authenticatedUser.init(credentials, staleDN);
+        authenticatedUser.setAttributeTokens(credentialCache.getAttributeTokens(credentials.getUsername()));
+        return authenticatedUser;
+    }
+
+    /**
+     * Reads the groups of the given user from the attribute given by
+     * ldap-direct-bind-group-attribute, if set, by the connection bound as
+     * the user (the user must be allowed to read it), together with the
+     * attributes of the user attribute tokens.
+     */
+    private void readGroupDNs(LDAPConnection ldapConnection, AuthenticatedUser authenticatedUser) throws GuacamoleException, LDAPException {
+        String groupAttribute = confService.getDirectBindGroupAttribute();
+        if (groupAttribute == null) return;
+        Collection<String> tokenNames = UserAttributeTokens.getTokenNames();
+        LDAPSearchResults ldapSearchResults = LDAPSearch.search(ldapConnection, authenticatedUser.getDN(), LDAPConnection.SCOPE_BASE,
+                "(objectClass=*)", UserAttributeTokens.addAttributes(new String[] { groupAttribute }, UserAttributeTokens.getAttributeNames(tokenNames)));
+        if (!ldapSearchResults.hasMore()) return;
+        LDAPEntry userEntry = ldapSearchResults.next();
+        LDAPAttribute groups = userEntry.getAttribute(groupAttribute);
+        authenticatedUser.setGroupDNs(groups == null ? Collections.<String>emptyList() : Arrays.asList(groups.getStringValueArray()));
+        if (!tokenNames.isEmpty()) authenticatedUser.setAttributeTokens(UserAttributeTokens.read(userEntry, tokenNames));
+    }
+
 	/**
      * Returns a UserContext object initialized with data accessible to the
      * given AuthenticatedUser.
@@ -128,13 +293,114 @@ public class AuthenticationProviderService {
      * @throws GuacamoleException
      *     If the UserContext cannot be created due to an error.
      */
-    public UserContext getUserContext(org.glyptodon.guacamole.net.auth.AuthenticatedUser authenticatedUser)
+    public UserContext getUserContext(final org.glyptodon.guacamole.net.auth.AuthenticatedUser authenticatedUser)
+            throws GuacamoleException {
+
+        if (!lastKnownGood.isEnabled()) return createUserContext(authenticatedUser);
+
+        // Build the user context, within the deadline if configured
+        String username = authenticatedUser.getIdentifier();
+        UserContext userContext;
+        try {
+            int deadline = confService.getDegradedDeadline();
+            if (deadline <= 0) userContext = createLastKnownGoodUserContext(authenticatedUser);
+            else userContext = awaitUserContext(lastKnownGood.submit(new Callable<UserContext>() {
+
+                @Override
+                public UserContext call() throws GuacamoleException {
+                    return createLastKnownGoodUserContext(authenticatedUser);
+                }
+
+            }), deadline, authenticatedUser);
+        }
+        catch (GuacamoleException e) {
+            UserContext staleUserContext = createStaleUserContext(authenticatedUser);
+            if (staleUserContext == null) throw e;
+            logger.warn("Cannot build user context of [{}] => last known good served: {}", username, e.getMessage());
+            return staleUserContext;
+        }
+        if (userContext == null) return createStaleUserContext(authenticatedUser); // No LDAP connection
+        return userContext;
+
+    }
+
+    /**
+     * Returns a UserContext object initialized by querying LDAP, keeping its
+     * tree as last known good.
+     */
+    private UserContext createLastKnownGoodUserContext(org.glyptodon.guacamole.net.auth.AuthenticatedUser authenticatedUser)
+            throws GuacamoleException {
+        UserContext userContext = createUserContext(authenticatedUser);
+        if (userContext != null && userContext.getLastKnownGoodTree() != null)
+            lastKnownGood.put(authenticatedUser.getIdentifier(), userContext.getLastKnownGoodTree());
+        return userContext;
+    }
+
+    /**
+     * Waits for the given build of a user context. If it takes longer than
+     * the deadline and the last known good tree of the user is available, the
+     * build continues in the background and the last known good is returned.
+     */
+    private UserContext awaitUserContext(Future<UserContext> build, int deadline,
+            org.glyptodon.guacamole.net.auth.AuthenticatedUser authenticatedUser) throws GuacamoleException {
+        String username = authenticatedUser.getIdentifier();
+        try {
+            try {
+                return build.get(deadline, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e) {
+                UserContext staleUserContext = createStaleUserContext(authenticatedUser);
+                if (staleUserContext != null) {
+                    logger.warn("User context of [{}] not built within {} ms => last known good served.", username, deadline);
+                    return staleUserContext;
+                }
+                return build.get(); // Nothing to serve instead => keep waiting
+            }
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof GuacamoleException) throw (GuacamoleException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new GuacamoleServerException("Error while building the user context of [" + username + "].", e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuacamoleServerException("Interrupted while building the user context of [" + username + "].", e);
+        }
+    }
+
+    /**
+     * Returns a user context with the last known good tree of the given user
+     * (degraded mode).
+     *
+     * @return
+     *     The user context, or null if there is no last known good tree.
+     */
+    private UserContext createStaleUserContext(org.glyptodon.guacamole.net.auth.AuthenticatedUser authenticatedUser) throws GuacamoleException {
+        ConnectionTreeContext tree = lastKnownGood.getStale(authenticatedUser.getIdentifier());
+        if (tree == null) return null;
+        UserContext userContext = userContextProvider.get();
+        userContext.initDegraded(authenticatedUser, tree);
+        return userContext;
+    }
+
+    /**
+     * Returns a UserContext object initialized by querying LDAP.
+     */
+    private UserContext createUserContext(org.glyptodon.guacamole.net.auth.AuthenticatedUser authenticatedUser)
             throws GuacamoleException {
 
-        LDAPConnection ldapConnection = bindDefaultDN(); // Connect to LDAP with technical user
-        if (ldapConnection == null) return null;
+        LDAPOperationLimiter.Permit permit = operationLimiter.acquire(authenticatedUser.getIdentifier());
+        LDAPConnection ldapConnection = null;
 
         try {
+            // Connect to LDAP with technical user, acting for the user if configured
+            String userDN = getDN(authenticatedUser);
+            if (userDN != null && confService.getProxiedAuthorization())
+                ldapConnection = ldapService.bindDefaultDNFor(userDN);
+            else
+                ldapConnection = bindDefaultDN();
+            if (ldapConnection == null) return null;
+
             // Build user context by querying LDAP
             UserContext userContext = userContextProvider.get();
             userContext.init(authenticatedUser, ldapConnection);
@@ -142,11 +408,20 @@ public class AuthenticationProviderService {
         }
 
         finally { // Always try to disconnect
-        	ldapService.disconnect(ldapConnection);
+        	if (ldapConnection != null) ldapService.disconnect(ldapConnection);
+        	permit.release();
         }
 
     }
 
+    /**
+     * Returns the DN of the given user, if authenticated by this provider.
+     */
+    private static String getDN(org.glyptodon.guacamole.net.auth.AuthenticatedUser authenticatedUser) {
+        if (authenticatedUser instanceof AuthenticatedUser) return ((AuthenticatedUser) authenticatedUser).getDN();
+        return null;
+    }
+
     // Convenience Delegator
     private LDAPConnection bindDefaultDN() throws GuacamoleException {
 		return ldapService.bindDefaultDN();
@@ -29,15 +29,38 @@ import org.glyptodon.guacamole.net.auth.AuthenticationProvider;
 
 import com.google.inject.AbstractModule;
 
+import io.github.kc14.guacamole.auth.ldap389ds.cache.CredentialCache;
+import io.github.kc14.guacamole.auth.ldap389ds.cache.KnownUsernameFilter;
+import io.github.kc14.guacamole.auth.ldap389ds.cache.LastKnownGoodStore;
+import io.github.kc14.guacamole.auth.ldap389ds.cache.UnknownUserCache;
 import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ActiveConnectionRegistry;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConfigGroupMemberIndex;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConfigurationTemplateCache;
 import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionService;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionTreeBuilder;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionTreeCache;
 import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionTreeContext;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.GroupIdRegistry;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.IdentifierService;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ParameterDefaults;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.DirectoryChangeMonitor;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.EscapingService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.LDAPConnectionPool;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.LDAPConnectionService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.LDAPOperationLimiter;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.TLSContextService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.client.DirectoryClient;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.client.DirectoryClientProvider;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.client.JLDAPDirectoryClient;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.client.UnboundIDDirectoryClient;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearch;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearchGuacConfigGroup;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearchUser;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearchUsersGroups;
+import io.github.kc14.guacamole.auth.ldap389ds.metrics.MetricsService;
+import io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser;
+import io.github.kc14.guacamole.auth.ldap389ds.user.UserContext;
 import io.github.kc14.guacamole.auth.ldap389ds.user.UserService;
 
 /**
@@ -87,7 +110,7 @@ public class LDAP389dsAuthenticationProviderModule extends AbstractModule {
         bind(AuthenticationProvider.class).toInstance(authProvider);
         bind(Environment.class).toInstance(environment);
 
-        // Bind LDAP-specific services
+        // Bind LDAP-specific services (all singletons, see @Singleton)
         bind(ConfigurationService.class);
         bind(ConnectionService.class);
         bind(LDAPConnectionService.class);
@@ -97,6 +120,32 @@ public class LDAP389dsAuthenticationProviderModule extends AbstractModule {
         bind(LDAPSearchUser.class);
         bind(LDAPSearchUsersGroups.class);
         bind(LDAPSearchGuacConfigGroup.class);
+        bind(ConfigGroupMemberIndex.class);
+        bind(DirectoryChangeMonitor.class);
+        bind(CredentialCache.class);
+        bind(UnknownUserCache.class);
+        bind(KnownUsernameFilter.class);
+        bind(LDAPOperationLimiter.class);
+        bind(LDAPConnectionPool.class);
+        bind(WarmUpService.class);
+        bind(TLSContextService.class);
+        bind(MetricsService.class);
+        bind(ConfigurationTemplateCache.class);
+        bind(ConnectionTreeCache.class);
+        bind(GroupIdRegistry.class);
+        bind(ActiveConnectionRegistry.class);
+        bind(LastKnownGoodStore.class);
+        bind(JLDAPDirectoryClient.class);
+        bind(UnboundIDDirectoryClient.class);
+        bind(DirectoryClient.class).toProvider(DirectoryClientProvider.class);
+        bind(ParameterDefaults.class);
+        bind(IdentifierService.class);
+        bind(LifecycleService.class);
+        bind(ConnectionTreeBuilder.class);
+
+        // Bind per-login objects (unscoped, a new instance per Provider.get)
+        bind(AuthenticatedUser.class);
+        bind(UserContext.class);
         bind(ConnectionTreeContext.class);
 
     }
@@ -0,0 +1,31 @@
+package io.github.kc14.guacamole.auth.ldap389ds;
+
+import org.glyptodon.guacamole.GuacamoleException;
+
+/**
+ * A singleton service holding resources which live as long as the
+ * authentication provider (connections, executors, registrations). The
+ * LifecycleService starts all of them when the provider is created and stops
+ * them in reverse order when the JVM shuts down.
+ *
+ * @author Frank Kemmer
+ */
+public interface Lifecycle {
+
+    /**
+     * Opens the resources which are needed from the beginning. Resources
+     * opened on first use are left alone. Must be idempotent.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed or a resource cannot be
+     *     opened.
+     */
+    void start() throws GuacamoleException;
+
+    /**
+     * Closes all resources of this service, including those opened on first
+     * use. Must not throw and must be idempotent.
+     */
+    void stop();
+
+}
@@ -0,0 +1,201 @@
+package io.github.kc14.guacamole.auth.ldap389ds;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import io.github.kc14.guacamole.auth.ldap389ds.cache.KnownUsernameFilter;
+import io.github.kc14.guacamole.auth.ldap389ds.cache.LastKnownGoodStore;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConfigGroupMemberIndex;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionTreeBuilder;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.DirectoryChangeMonitor;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.LDAPConnectionPool;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.client.DirectoryClient;
+import io.github.kc14.guacamole.auth.ldap389ds.metrics.MetricsService;
+
+/**
+ * Starts and stops the services holding long-lived resources (see
+ * Lifecycle). Guice 3 has no lifecycle support of its own, so the services
+ * are listed here in dependency order: each one is started after the ones it
+ * uses and stopped before them. The DirectoryClient is closed last.
+ * <p>
+ * guacamole-ext has no shutdown callback for providers, and extensions
+ * cannot register a ServletContextListener, so the services are stopped by
+ * a JVM shutdown hook, which is removed by stop. As long as it is
+ * registered, it keeps this service and the class loader of the extension
+ * loaded, i.e. undeploying the web application without restarting the JVM
+ * leaks the class loader and leaves the services running (see README).
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class LifecycleService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(LifecycleService.class);
+
+    /**
+     * The metrics of this provider (the MBean).
+     */
+    @Inject
+    private MetricsService metricsService;
+
+    /**
+     * Pool of idle LDAP connections.
+     */
+    @Inject
+    private LDAPConnectionPool connectionPool;
+
+    /**
+     * Monitor polling for changed user entries.
+     */
+    @Inject
+    private DirectoryChangeMonitor directoryChangeMonitor;
+
+    /**
+     * Index of the guac config groups by member.
+     */
+    @Inject
+    private ConfigGroupMemberIndex configGroupMemberIndex;
+
+    /**
+     * Bloom filter of the known usernames.
+     */
+    @Inject
+    private KnownUsernameFilter knownUsernameFilter;
+
+    /**
+     * Store of the last known good connection trees.
+     */
+    @Inject
+    private LastKnownGoodStore lastKnownGoodStore;
+
+    /**
+     * Builder grouping the connections of large trees in parallel.
+     */
+    @Inject
+    private ConnectionTreeBuilder connectionTreeBuilder;
+
+    /**
+     * Client for the searches of the config and user base.
+     */
+    @Inject
+    private DirectoryClient directoryClient;
+
+    /**
+     * Whether start was called.
+     */
+    private boolean started;
+
+    /**
+     * Whether stop was called.
+     */
+    private boolean stopped;
+
+    /**
+     * The JVM shutdown hook stopping the services, or null if not registered.
+     */
+    private Thread shutdownHook;
+
+    /**
+     * Stops the services of a LifecycleService when the JVM shuts down.
+     */
+    private static class ShutdownHook extends Thread {
+
+        /**
+         * The services to stop. Referenced strongly, as the running services
+         * keep the class loader loaded anyway and the pooled connections must
+         * still be closed when the JVM exits.
+         */
+        private final LifecycleService lifecycleService;
+
+        ShutdownHook(LifecycleService lifecycleService) {
+            super("ldap389ds-shutdown");
+            this.lifecycleService = lifecycleService;
+        }
+
+        @Override
+        public void run() {
+            lifecycleService.stop();
+        }
+
+    }
+
+    /**
+     * Returns the managed services in start order.
+     */
+    private List<Lifecycle> getServices() {
+        return Arrays.<Lifecycle> asList(metricsService, connectionPool, directoryChangeMonitor, configGroupMemberIndex,
+                knownUsernameFilter, connectionTreeBuilder, lastKnownGoodStore);
+    }
+
+    /**
+     * Starts all managed services and registers the shutdown hook stopping
+     * them. A service which fails to start is logged and still stopped
+     * later, as the provider works without the resources opened at start,
+     * too (they are opened on first use or retried).
+     */
+    public synchronized void start() {
+        if (started || stopped) return;
+        started = true;
+        shutdownHook = new ShutdownHook(this);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        for (Lifecycle service : getServices()) {
+            try {
+                service.start();
+            }
+            catch (GuacamoleException e) {
+                logger.warn("Starting {} failed: {}", service.getClass().getSimpleName(), e.getMessage());
+                logger.debug("Starting the service failed.", e);
+            }
+            catch (RuntimeException e) {
+                logger.error("Unexpected error while starting " + service.getClass().getSimpleName() + ".", e);
+            }
+        }
+    }
+
+    /**
+     * Stops all managed services in reverse start order, closes the
+     * DirectoryClient and removes the shutdown hook. Services which were
+     * never started explicitly are stopped, too, as they may have opened
+     * resources on first use.
+     */
+    public synchronized void stop() {
+        if (stopped) return;
+        stopped = true;
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            }
+            catch (IllegalStateException e) { // The JVM is shutting down, the hook runs anyway
+            }
+        }
+        shutdownHook = null;
+        List<Lifecycle> services = getServices();
+        for (int i = services.size() - 1; i >= 0; i--) {
+            Lifecycle service = services.get(i);
+            try {
+                service.stop();
+            }
+            catch (RuntimeException e) { // Stop the remaining services anyway
+                logger.error("Unexpected error while stopping " + service.getClass().getSimpleName() + ".", e);
+            }
+        }
+        try {
+            directoryClient.close();
+        }
+        catch (RuntimeException e) {
+            logger.error("Unexpected error while closing the directory client.", e);
+        }
+        logger.info("LDAP 389ds authentication provider stopped.");
+    }
+
+}
@@ -0,0 +1,215 @@
+package io.github.kc14.guacamole.auth.ldap389ds;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.net.auth.Connection;
+import org.glyptodon.guacamole.net.auth.Credentials;
+import org.glyptodon.guacamole.protocol.GuacamoleConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPSearchResults;
+
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.config.GroupResolutionMode;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConfigGroupMemberIndex;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionService;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionTreeContext;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.LazyGuacamoleConfiguration;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.LDAPConnectionService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearch;
+import io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.MacroPreProcessor;
+
+/**
+ * Warms up the login path when the authentication provider is created, so
+ * the first real logins do not pay for connection setup, class loading,
+ * JIT compilation and empty caches:
+ * <ul>
+ * <li>the pool of default bindDN connections is filled</li>
+ * <li>the guac config groups are preloaded (into the member index, if used)</li>
+ * <li>connection trees are built and macros expanded for a synthetic user
+ * holding (up to 1000 of) the guac config groups</li>
+ * </ul>
+ * The warm up runs in a background thread, so the deployment of the web
+ * application is not held up; logins meanwhile work as without warm up.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class WarmUpService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(WarmUpService.class);
+
+    /**
+     * The attributes fetched for each guac config group during the warm up.
+     */
+    private static final String[] GUAC_CONFIG_GROUP_ATTRIBUTES = { "cn", "guacConfigProtocol", "guacConfigParameter", "guacConfigBalancing",
+            "guacConfigMaxConnections", "guacConfigMaxConnectionsPerUser" };
+
+    /**
+     * The maximum number of guac config groups of the synthetic user, so
+     * large populations do not make the warm up run for minutes.
+     */
+    private static final int MAX_SYNTHETIC_GROUPS = 1000;
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Service for creating and managing connections to LDAP servers.
+     */
+    @Inject
+    private LDAPConnectionService ldapService;
+
+    /**
+     * Service for retrieving Guacamole connections from the LDAP server.
+     */
+    @Inject
+    private ConnectionService connectionService;
+
+    /**
+     * Index of the guac config groups by member (used in member index mode).
+     */
+    @Inject
+    private ConfigGroupMemberIndex configGroupMemberIndex;
+
+    /**
+     * Provider for AuthenticatedUser objects.
+     */
+    @Inject
+    private Provider<AuthenticatedUser> authenticatedUserProvider;
+
+    /**
+     * Provider for ConnectionTreeContext objects.
+     */
+    @Inject
+    private Provider<ConnectionTreeContext> connectionTreeContextProvider;
+
+    /**
+     * Starts the warm up in a background daemon thread.
+     */
+    public void warmUp() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWarmUp();
+            }
+        }, "ldap389ds-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs the warm up, if enabled by ldap-warm-up. Failures are logged only,
+     * as the provider works without warm up, too.
+     */
+    private void runWarmUp() {
+        try {
+            if (!confService.getWarmUp()) return;
+            long start = System.currentTimeMillis();
+
+            int pooled = ldapService.fillPool();
+            logger.info("Warm up: {} pooled LDAP connections open.", pooled);
+
+            Collection<LDAPEntry> guacConfigGroupEntries = preloadGuacConfigGroups();
+            logger.info("Warm up: {} guac config groups preloaded.", guacConfigGroupEntries.size());
+
+            int iterations = confService.getWarmUpIterations();
+            runSyntheticWorkload(guacConfigGroupEntries, iterations);
+            logger.info("Warm up: {} synthetic connection tree builds done.", iterations);
+
+            logger.info("Warm up finished in {} ms.", System.currentTimeMillis() - start);
+        }
+        catch (GuacamoleException e) {
+            logger.warn("Warm up failed: {}", e.getMessage());
+            logger.debug("Warm up failed.", e);
+        }
+        catch (RuntimeException e) {
+            logger.error("Unexpected error during warm up.", e);
+        }
+    }
+
+    /**
+     * Loads all guac config groups below the config base DN: in member index
+     * mode by loading the index, otherwise by one scan of the config base,
+     * which also primes the caches of the LDAP server.
+     */
+    private Collection<LDAPEntry> preloadGuacConfigGroups() throws GuacamoleException {
+
+        if (confService.getGroupResolutionMode() == GroupResolutionMode.MEMBER_INDEX)
+            return configGroupMemberIndex.getAllGroupEntries();
+
+        LDAPConnection ldapConnection = ldapService.bindDefaultDN();
+        if (ldapConnection == null)
+            throw new GuacamoleServerException("No ldap connection => cannot preload guac config groups.");
+
+        try {
+            List<LDAPEntry> guacConfigGroupEntries = new ArrayList<LDAPEntry>();
+            LDAPSearchResults results = LDAPSearch.search(ldapConnection, confService.getGuacConfigGroupsBaseDN(),
+                    LDAPConnection.SCOPE_SUB, confService.getMemberIndexFilter(), GUAC_CONFIG_GROUP_ATTRIBUTES);
+            while (results.hasMore()) {
+                guacConfigGroupEntries.add(results.next());
+            }
+            return guacConfigGroupEntries;
+        }
+        catch (LDAPException e) {
+            throw new GuacamoleServerException("Error while preloading guac configuration groups.", e);
+        }
+        finally { // Always disconnect
+            ldapService.disconnect(ldapConnection);
+        }
+
+    }
+
+    /**
+     * Builds the connections and the connection tree of a synthetic user
+     * holding (up to MAX_SYNTHETIC_GROUPS of) the given guac config groups
+     * and expands the standard tokens in the parameters, the given number of
+     * times (no LDAP access).
+     */
+    private void runSyntheticWorkload(Collection<LDAPEntry> guacConfigGroupEntries, int iterations) throws GuacamoleException {
+
+        Credentials credentials = new Credentials();
+        credentials.setUsername("warm-up");
+        credentials.setPassword("warm-up");
+        AuthenticatedUser user = authenticatedUserProvider.get();
+        user.init(credentials);
+
+        Collection<LDAPEntry> syntheticGroupEntries = guacConfigGroupEntries;
+        if (guacConfigGroupEntries.size() > MAX_SYNTHETIC_GROUPS)
+            syntheticGroupEntries = new ArrayList<LDAPEntry>(guacConfigGroupEntries).subList(0, MAX_SYNTHETIC_GROUPS);
+
+        for (int i = 0; i < iterations; i++) {
+            Map<String, Connection> connections = connectionService.createConnections(syntheticGroupEntries);
+            MacroPreProcessor.expandStandardTokens(user, connections);
+            for (Connection connection : connections.values()) {
+                GuacamoleConfiguration config = connection.getConfiguration();
+                if (config instanceof LazyGuacamoleConfiguration && !((LazyGuacamoleConfiguration) config).isLoaded())
+                    continue; // Would load the parameters from LDAP
+                for (String name : config.getParameterNames())
+                    config.getParameter(name); // Applies the tokens
+            }
+            connectionTreeContextProvider.get().putConnections(connections);
+        }
+
+    }
+
+}
@@ -0,0 +1,324 @@
+package io.github.kc14.guacamole.auth.ldap389ds.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.net.auth.Credentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import io.github.kc14.com.novell.ldap.util.DNHelper;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.DirectoryChangeListener;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.DirectoryChangeMonitor;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.SCrypt;
+
+/**
+ * Opt-in cache of successfully verified credentials, so that repeated logins
+ * of the same user within a short time (token renewal, reconnecting tabs) are
+ * answered without asking the LDAP server.
+ * <p>
+ * Passwords are never stored: each entry keeps a random salt and the scrypt
+ * hash of the password. An entry is dropped when it expires, when a login
+ * with a different password is attempted, when the LDAP server rejects the
+ * user and when the user entry changes in the directory. If degraded mode is
+ * enabled (ldap-last-known-good-max-age), an expired entry is kept for that
+ * long to verify logins while the LDAP server is unreachable (see
+ * verifyStale).
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class CredentialCache implements DirectoryChangeListener {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(CredentialCache.class);
+
+    /**
+     * The scrypt block size.
+     */
+    private static final int SCRYPT_R = 8;
+
+    /**
+     * The scrypt parallelization.
+     */
+    private static final int SCRYPT_P = 1;
+
+    /**
+     * The length of the salt and of the hash in bytes.
+     */
+    private static final int LENGTH = 32;
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Monitor notifying about changed user entries.
+     */
+    @Inject
+    private DirectoryChangeMonitor directoryChangeMonitor;
+
+    /**
+     * Source of the salts.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * The cached verifications by username.
+     */
+    private final ConcurrentMap<String, CachedCredentials> cache = new ConcurrentHashMap<String, CachedCredentials>();
+
+    /**
+     * Whether this cache is registered with the change monitor.
+     */
+    private boolean listening;
+
+    /**
+     * A successful verification of credentials.
+     */
+    private static class CachedCredentials {
+
+        final byte[] salt;
+        final byte[] hash;
+        final String dn;
+        final Map<String, String> attributeTokens;
+        final long expires;
+
+        CachedCredentials(byte[] salt, byte[] hash, String dn, Map<String, String> attributeTokens, long expires) {
+            this.salt = salt;
+            this.hash = hash;
+            this.dn = dn;
+            this.attributeTokens = attributeTokens;
+            this.expires = expires;
+        }
+
+    }
+
+    /**
+     * Returns whether the credential cache is enabled.
+     *
+     * @return
+     *     true if ldap-credential-cache-ttl is greater than 0.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean isEnabled() throws GuacamoleException {
+        return confService.getCredentialCacheTTL() > 0;
+    }
+
+    /**
+     * Verifies the given credentials against the cache. A cached entry with
+     * a different password is dropped.
+     *
+     * @param credentials
+     *     The credentials to verify.
+     *
+     * @return
+     *     The DN of the user entry, if the credentials were verified
+     *     successfully within the time to live, null otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String verify(Credentials credentials) throws GuacamoleException {
+        if (!isEnabled() || !isCacheable(credentials)) return null;
+        String username = credentials.getUsername();
+        CachedCredentials cached = cache.get(username);
+        if (cached == null) return null;
+        long now = System.currentTimeMillis();
+        if (cached.expires < now) {
+            if (cached.expires + getGracePeriod() < now) cache.remove(username, cached); // Else kept for degraded mode
+            return null;
+        }
+        return verify(credentials, cached);
+    }
+
+    /**
+     * Verifies the given credentials against the cache, accepting entries
+     * expired within ldap-last-known-good-max-age. Used only when the LDAP
+     * server is unreachable (degraded mode).
+     *
+     * @param credentials
+     *     The credentials to verify.
+     *
+     * @return
+     *     The DN of the user entry, if the credentials were verified
+     *     successfully within the time to live plus the grace period, null
+     *     otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String verifyStale(Credentials credentials) throws GuacamoleException {
+        if (!isEnabled() || !isCacheable(credentials)) return null;
+        CachedCredentials cached = cache.get(credentials.getUsername());
+        if (cached == null || cached.expires + getGracePeriod() < System.currentTimeMillis()) return null;
+        return verify(credentials, cached);
+    }
+
+    /**
+     * Verifies the password of the given credentials against the given
+     * entry, dropping the entry on mismatch.
+     */
+    private String verify(Credentials credentials, CachedCredentials cached) throws GuacamoleException {
+        byte[] hash = hash(credentials.getPassword(), cached.salt);
+        if (hash == null || !MessageDigest.isEqual(hash, cached.hash)) {
+            cache.remove(credentials.getUsername(), cached); // Failed attempt => verify against LDAP next time
+            return null;
+        }
+        return cached.dn;
+    }
+
+    /**
+     * Returns how long expired entries are kept for degraded mode in
+     * milliseconds.
+     */
+    private long getGracePeriod() throws GuacamoleException {
+        return confService.getLastKnownGoodMaxAge() * 1000L;
+    }
+
+    /**
+     * Caches a successful verification of the given credentials by the
+     * LDAP server together with the user attribute tokens read at login.
+     *
+     * @param credentials
+     *     The verified credentials.
+     *
+     * @param dn
+     *     The DN of the user entry.
+     *
+     * @param attributeTokens
+     *     The values of the user attribute tokens by name, or null if not
+     *     read.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public void put(Credentials credentials, String dn, Map<String, String> attributeTokens) throws GuacamoleException {
+        int ttl = confService.getCredentialCacheTTL();
+        if (ttl <= 0 || !isCacheable(credentials)) return;
+        startListening();
+        if (cache.size() >= confService.getCredentialCacheSize() && !evictExpired(getGracePeriod())) {
+            logger.debug("Credential cache is full => [{}] not cached.", credentials.getUsername());
+            return;
+        }
+        byte[] salt = new byte[LENGTH];
+        random.nextBytes(salt);
+        byte[] hash = hash(credentials.getPassword(), salt);
+        if (hash == null) return;
+        cache.put(credentials.getUsername(), new CachedCredentials(salt, hash, dn, attributeTokens, System.currentTimeMillis() + ttl * 1000L));
+    }
+
+    /**
+     * Returns the user attribute tokens cached with the verification of the
+     * given user.
+     *
+     * @param username
+     *     The name of the user.
+     *
+     * @return
+     *     The values of the user attribute tokens by name, or null if not
+     *     cached.
+     */
+    public Map<String, String> getAttributeTokens(String username) {
+        CachedCredentials cached = cache.get(username);
+        return cached == null ? null : cached.attributeTokens;
+    }
+
+    /**
+     * Drops the cached verification of the given user (e.g. after a failed
+     * login attempt).
+     *
+     * @param username
+     *     The name of the user.
+     */
+    public void invalidate(String username) {
+        if (username != null) cache.remove(username);
+    }
+
+    @Override
+    public void entryChanged(String dn, String[] usernames) {
+        String normalizedDN = DNHelper.normalize(dn);
+        for (Iterator<Map.Entry<String, CachedCredentials>> iter = cache.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<String, CachedCredentials> entry = iter.next();
+            if (entry.getValue().dn != null && normalizedDN.equals(DNHelper.normalize(entry.getValue().dn))) {
+                logger.debug("User entry [{}] changed => cached credentials dropped.", dn);
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Registers this cache with the change monitor and starts the monitor,
+     * once.
+     */
+    private synchronized void startListening() throws GuacamoleException {
+        if (listening) return;
+        directoryChangeMonitor.addListener(this);
+        directoryChangeMonitor.start();
+        listening = true;
+    }
+
+    /**
+     * Removes all entries expired for longer than the given grace period.
+     *
+     * @return
+     *     true if at least one entry was removed.
+     */
+    private boolean evictExpired(long gracePeriod) {
+        boolean evicted = false;
+        long now = System.currentTimeMillis();
+        for (Iterator<CachedCredentials> iter = cache.values().iterator(); iter.hasNext();) {
+            if (iter.next().expires + gracePeriod < now) {
+                iter.remove();
+                evicted = true;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Only credentials with username and password are cached (never cache
+     * anonymous or unauthenticated binds).
+     */
+    private static boolean isCacheable(Credentials credentials) {
+        return credentials.getUsername() != null && !credentials.getUsername().isEmpty()
+            && credentials.getPassword() != null && !credentials.getPassword().isEmpty();
+    }
+
+    /**
+     * Returns the scrypt hash of the given password, or null if it cannot be
+     * computed (the error is logged).
+     */
+    private byte[] hash(String password, byte[] salt) throws GuacamoleException {
+        try {
+            return SCrypt.scrypt(password.getBytes("UTF-8"), salt, confService.getCredentialCacheScryptCost(), SCRYPT_R, SCRYPT_P, LENGTH);
+        }
+        catch (UnsupportedEncodingException e) {
+            logger.error("Unexpected lack of support for UTF-8: {}", e.getMessage());
+            return null;
+        }
+        catch (GeneralSecurityException e) {
+            logger.error("Unable to hash password for the credential cache: {}", e.getMessage());
+            logger.debug("Hashing of password failed.", e);
+            return null;
+        }
+    }
+
+}
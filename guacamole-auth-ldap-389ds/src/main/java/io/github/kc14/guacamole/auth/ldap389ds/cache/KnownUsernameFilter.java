@@ -0,0 +1,247 @@
+package io.github.kc14.guacamole.auth.ldap389ds.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+
+import io.github.kc14.guacamole.auth.ldap389ds.Lifecycle;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.DirectoryChangeListener;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.DirectoryChangeMonitor;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.LDAPConnectionService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearch;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.BloomFilter;
+
+/**
+ * Optional Bloom filter of all usernames below the user base DN, so that
+ * logins with usernames which definitely do not exist are rejected without
+ * touching LDAP.
+ * <p>
+ * The filter is loaded in the background and reloaded periodically. Until
+ * it is loaded (or if it is disabled) every username might exist. Users
+ * created in between are added when the change monitor reports their entry
+ * (by its username attribute). A load which finds no usernames at all (e.g.
+ * the attribute is hidden by ACIs or the filter matches nothing) is not
+ * used, as it would reject every login: every username might exist then.
+ * The usernames are read with a paged search (see LDAPSearch.searchAll). The
+ * load starts with the provider (or on first use) and ends at stop.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class KnownUsernameFilter implements DirectoryChangeListener, Lifecycle {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(KnownUsernameFilter.class);
+
+    /**
+     * The false positive probability of the Bloom filter.
+     */
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Service for creating and managing connections to LDAP servers.
+     */
+    @Inject
+    private LDAPConnectionService ldapService;
+
+    /**
+     * Monitor notifying about changed user entries.
+     */
+    @Inject
+    private DirectoryChangeMonitor directoryChangeMonitor;
+
+    /**
+     * The current filter, or null if not loaded yet.
+     */
+    private volatile BloomFilter filter;
+
+    /**
+     * Usernames (lower cased) reported by the change monitor since the
+     * search of the current filter began. Published after the filter.
+     */
+    private volatile Set<String> addedSinceLoad = newUsernameSet();
+
+    /**
+     * Usernames (lower cased) reported by the change monitor since the
+     * search of the running load began, or null if no load is running. They
+     * replace addedSinceLoad when the new filter is published, so users
+     * created after the search began are never lost.
+     */
+    private volatile Set<String> addedSinceSearch;
+
+    /**
+     * Executor running the periodic reload, or null if not started yet.
+     */
+    private ScheduledExecutorService loader;
+
+    /**
+     * Whether the filter was stopped.
+     */
+    private boolean stopped;
+
+    /**
+     * Returns whether a user with the given name might exist. Starts loading
+     * the filter in the background on first use, if enabled.
+     *
+     * @param username
+     *     The username to test.
+     *
+     * @return
+     *     false if no such user exists for sure, true otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean mightExist(String username) throws GuacamoleException {
+        Set<String> added = addedSinceLoad; // Read before the filter: an older filter only has fewer names
+        BloomFilter current = filter;
+        if (current == null) {
+            start();
+            return true;
+        }
+        String key = username.toLowerCase();
+        return current.mightContain(key) || added.contains(key);
+    }
+
+    /**
+     * Starts the periodic (re)load of the filter, if enabled and not
+     * already started.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    @Override
+    public synchronized void start() throws GuacamoleException {
+        if (stopped || loader != null) return;
+        int interval = confService.getKnownUsersRefreshInterval();
+        String userBaseDN = confService.getUserBaseDN();
+        if (interval <= 0 || userBaseDN == null || userBaseDN.isEmpty()) return;
+        directoryChangeMonitor.addListener(this);
+        directoryChangeMonitor.start();
+        loader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ldap389ds-known-users-load");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        loader.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                }
+                catch (GuacamoleException e) { // Keep the last filter and retry with the next run
+                    logger.warn("Loading the known usernames failed: {}", e.getMessage());
+                    logger.debug("Loading the known usernames failed.", e);
+                }
+                catch (RuntimeException e) { // Never let the loader die
+                    logger.error("Unexpected error while loading the known usernames.", e);
+                }
+            }
+        }, 0, interval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopped = true;
+        if (loader != null) loader.shutdownNow();
+    }
+
+    /**
+     * Loads the usernames of all user entries below the user base DN into a
+     * new filter. Run by the loader thread only.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private void load() throws GuacamoleException {
+
+        LDAPConnection ldapConnection = ldapService.bindDefaultDN();
+        if (ldapConnection == null) {
+            logger.warn("No ldap connection => cannot load the known usernames.");
+            return;
+        }
+
+        Set<String> searchAdded = newUsernameSet();
+        addedSinceSearch = searchAdded; // Before the search, so no change after its start is missed
+        try {
+            String usernameAttribute = confService.getUsernameAttribute();
+            List<LDAPEntry> entries = LDAPSearch.searchAll(ldapConnection, confService.getUserBaseDN(),
+                    LDAPConnection.SCOPE_SUB, confService.getKnownUsersFilter(), new String[] { usernameAttribute });
+            List<String> usernames = new ArrayList<String>();
+            for (LDAPEntry entry : entries) {
+                LDAPAttribute attribute = entry.getAttribute(usernameAttribute);
+                if (attribute == null) continue;
+                for (String username : attribute.getStringValueArray()) {
+                    usernames.add(username.toLowerCase());
+                }
+            }
+            if (usernames.isEmpty()) {
+                logger.warn("No usernames found below [{}] with filter [{}] => every username might exist (check the filter and the ACIs of [{}]).",
+                        new Object[] { confService.getUserBaseDN(), confService.getKnownUsersFilter(), usernameAttribute });
+                filter = null;
+                return;
+            }
+            BloomFilter loaded = new BloomFilter(usernames.size(), FALSE_POSITIVE_PROBABILITY);
+            for (String username : usernames) {
+                loaded.add(username);
+            }
+            filter = loaded;
+            addedSinceLoad = searchAdded; // After the filter, see mightExist
+            logger.info("Filter of known usernames loaded with {} usernames.", usernames.size());
+        }
+        catch (LDAPException e) {
+            logger.warn("Error while loading the known usernames: {}", e.getMessage());
+            logger.debug("Error while loading the known usernames.", e);
+        }
+        finally { // Always disconnect
+            addedSinceSearch = null;
+            ldapService.disconnect(ldapConnection);
+        }
+
+    }
+
+    @Override
+    public void entryChanged(String dn, String[] usernames) {
+        Set<String> searchAdded = addedSinceSearch; // Read first: once null, addedSinceLoad is the set of the new filter
+        Set<String> loadAdded = addedSinceLoad;
+        for (String username : usernames) {
+            String key = username.toLowerCase();
+            if (searchAdded != null) searchAdded.add(key);
+            loadAdded.add(key);
+        }
+    }
+
+    private static Set<String> newUsernameSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+}
@@ -0,0 +1,231 @@
+package io.github.kc14.guacamole.auth.ldap389ds.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import io.github.kc14.guacamole.auth.ldap389ds.Lifecycle;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionTreeContext;
+import io.github.kc14.guacamole.auth.ldap389ds.metrics.MetricsService;
+
+/**
+ * Bounded store of the last connection tree successfully built for each
+ * user, served when the LDAP server is unreachable or slower than
+ * ldap-degraded-deadline, so an outage of the directory does not lock out
+ * users who logged in recently (degraded mode).
+ * <p>
+ * The stored trees hold no user tokens; the tokens of the current login are
+ * applied when served (see ConnectionTreeContext.putSharedTree). When full,
+ * the least recently used user is evicted. The metric "degraded" is 1 while
+ * stale data is served, i.e. from the first failed build until the next
+ * successful one.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class LastKnownGoodStore implements Lifecycle {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(LastKnownGoodStore.class);
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * The metrics of this provider.
+     */
+    @Inject
+    private MetricsService metrics;
+
+    /**
+     * The last known good trees by username in access order, or null if not
+     * used yet.
+     */
+    private LinkedHashMap<String, StoredTree> trees;
+
+    /**
+     * Whether stale data is currently served.
+     */
+    private volatile boolean degraded;
+
+    /**
+     * Runs the builds of user contexts which have a deadline, or null if not
+     * used yet.
+     */
+    private ExecutorService executor;
+
+    /**
+     * A tree with the time it was stored.
+     */
+    private static class StoredTree {
+
+        final ConnectionTreeContext tree;
+
+        final long stored;
+
+        StoredTree(ConnectionTreeContext tree, long stored) {
+            this.tree = tree;
+            this.stored = stored;
+        }
+
+    }
+
+    /**
+     * Returns whether degraded mode is enabled.
+     *
+     * @return
+     *     true, if ldap-last-known-good-max-age is greater than 0.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean isEnabled() throws GuacamoleException {
+        return confService.getLastKnownGoodMaxAge() > 0;
+    }
+
+    /**
+     * Stores the tree successfully built for the given user and leaves
+     * degraded mode.
+     *
+     * @param username
+     *     The name of the user.
+     *
+     * @param tree
+     *     The tree without user tokens, which must not be modified anymore.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public synchronized void put(String username, ConnectionTreeContext tree) throws GuacamoleException {
+        if (!isEnabled()) return;
+        if (trees == null) {
+            final int maxSize = confService.getLastKnownGoodSize();
+            metrics.gauge("degraded", new MetricsService.Gauge() {
+
+                @Override
+                public Number getValue() {
+                    return degraded ? 1 : 0;
+                }
+
+            });
+            trees = new LinkedHashMap<String, StoredTree>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, StoredTree> eldest) {
+                    return size() > maxSize;
+                }
+
+            };
+        }
+        trees.put(username, new StoredTree(tree, System.currentTimeMillis()));
+        if (degraded) {
+            logger.info("LDAP server answers again => degraded mode left.");
+            degraded = false;
+        }
+    }
+
+    /**
+     * Returns the last known good tree of the given user and enters degraded
+     * mode, if there is one within ldap-last-known-good-max-age.
+     *
+     * @param username
+     *     The name of the user.
+     *
+     * @return
+     *     The tree without user tokens, or null if there is none or it is
+     *     too old.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public synchronized ConnectionTreeContext getStale(String username) throws GuacamoleException {
+        StoredTree stored = trees == null ? null : trees.get(username);
+        if (stored == null) return null;
+        if (stored.stored + confService.getLastKnownGoodMaxAge() * 1000L < System.currentTimeMillis()) {
+            trees.remove(username);
+            return null;
+        }
+        markDegraded();
+        metrics.counter("degradedUserContexts").incrementAndGet();
+        return stored.tree;
+    }
+
+    /**
+     * Enters degraded mode (e.g. when a login is verified by a stale entry
+     * of the credential cache).
+     */
+    public void markDegraded() {
+        if (!degraded) {
+            logger.warn("LDAP server unavailable => serving last known good data (degraded mode).");
+            degraded = true;
+        }
+    }
+
+    /**
+     * Returns whether stale data is currently served.
+     *
+     * @return
+     *     true, while in degraded mode.
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    @Override
+    public void start() {
+        // The executor is created by the first build with a deadline
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * Runs the given build in the background, so the caller can stop waiting
+     * for it after ldap-degraded-deadline. The build keeps running and stores
+     * its result when done.
+     *
+     * @param build
+     *     The build to run.
+     *
+     * @return
+     *     The result of the build.
+     */
+    public synchronized <T> Future<T> submit(Callable<T> build) {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ldap389ds-user-context");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor.submit(build);
+    }
+
+}
@@ -0,0 +1,115 @@
+package io.github.kc14.guacamole.auth.ldap389ds.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.glyptodon.guacamole.GuacamoleException;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.DirectoryChangeListener;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.DirectoryChangeMonitor;
+
+/**
+ * Bounded negative cache of usernames for which the LDAP server reported
+ * that no such user exists, so that repeated logins with unknown usernames
+ * (e.g. during credential stuffing) are rejected without touching LDAP.
+ * <p>
+ * When full, the least recently used username is evicted. A username is
+ * dropped when it expires and when an entry with this username (as value of
+ * ldap-username-attribute) shows up below the user base DN.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class UnknownUserCache implements DirectoryChangeListener {
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Monitor notifying about changed user entries.
+     */
+    @Inject
+    private DirectoryChangeMonitor directoryChangeMonitor;
+
+    /**
+     * The expiry times of the unknown usernames (lower cased) in access order.
+     */
+    private LinkedHashMap<String, Long> unknownUsers;
+
+    /**
+     * Whether this cache is registered with the change monitor.
+     */
+    private boolean listening;
+
+    /**
+     * Returns whether the given username is known to not exist.
+     *
+     * @param username
+     *     The username to test.
+     *
+     * @return
+     *     true if the LDAP server reported within the time to live that
+     *     no such user exists.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public synchronized boolean isUnknown(String username) throws GuacamoleException {
+        if (unknownUsers == null || username == null) return false;
+        String key = username.toLowerCase();
+        Long expires = unknownUsers.get(key);
+        if (expires == null) return false;
+        if (expires < System.currentTimeMillis()) {
+            unknownUsers.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that no such user exists.
+     *
+     * @param username
+     *     The unknown username.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public synchronized void put(String username) throws GuacamoleException {
+        int ttl = confService.getUnknownUserCacheTTL();
+        if (ttl <= 0 || username == null) return;
+        if (unknownUsers == null) {
+            final int maxSize = confService.getUnknownUserCacheSize();
+            unknownUsers = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > maxSize;
+                }
+
+            };
+        }
+        if (!listening) {
+            directoryChangeMonitor.addListener(this);
+            directoryChangeMonitor.start();
+            listening = true;
+        }
+        unknownUsers.put(username.toLowerCase(), System.currentTimeMillis() + ttl * 1000L);
+    }
+
+    @Override
+    public synchronized void entryChanged(String dn, String[] usernames) {
+        if (unknownUsers == null) return;
+        for (String username : usernames) unknownUsers.remove(username.toLowerCase());
+    }
+
+}
@@ -0,0 +1,23 @@
+package io.github.kc14.guacamole.auth.ldap389ds.config;
+
+/**
+ * All possible LDAP client libraries used for the background searches of the
+ * provider (see DirectoryClient).
+ *
+ * @author Frank Kemmer
+ */
+public enum ClientBackend {
+
+    /**
+     * Novell JLDAP, on the connections of LDAPConnectionService (pooled, if
+     * ldap-connection-pool-size is set).
+     */
+    JLDAP,
+
+    /**
+     * The UnboundID LDAP SDK, with its own connection pool of
+     * ldap-connection-pool-size connections.
+     */
+    UNBOUNDID;
+
+}
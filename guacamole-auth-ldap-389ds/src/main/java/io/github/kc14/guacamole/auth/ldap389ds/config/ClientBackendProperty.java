@@ -0,0 +1,31 @@
+package io.github.kc14.guacamole.auth.ldap389ds.config;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.properties.GuacamoleProperty;
+
+/**
+ * A GuacamoleProperty whose value is a ClientBackend. The string values
+ * "jldap" and "unboundid" are each parsed to their corresponding values
+ * within the enum ClientBackend. All other string values result in parse
+ * errors.
+ *
+ * @author Frank Kemmer
+ */
+public abstract class ClientBackendProperty implements GuacamoleProperty<ClientBackend> {
+
+    @Override
+    public ClientBackend parseValue(String clientBackendAsString) throws GuacamoleException {
+
+        if (clientBackendAsString == null) // If no value provided, return null.
+            return null;
+
+        try {
+            return ClientBackend.valueOf(clientBackendAsString.toUpperCase());
+        } catch (IllegalArgumentException e) { // The provided value is not legal
+            throw new GuacamoleServerException("LDAP client backend must be one of [\"jldap\"] or [\"unboundid\"].", e);
+        }
+
+    }
+
+}
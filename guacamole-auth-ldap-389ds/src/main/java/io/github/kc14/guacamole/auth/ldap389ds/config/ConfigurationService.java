@@ -23,6 +23,10 @@
 package io.github.kc14.guacamole.auth.ldap389ds.config;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import org.glyptodon.guacamole.GuacamoleException;
 import org.glyptodon.guacamole.environment.Environment;
@@ -33,6 +37,7 @@ import org.glyptodon.guacamole.environment.Environment;
  * @author Michael Jumper
  * @author Frank Kemmer
  */
+@Singleton
 public class ConfigurationService {
 
     /**
@@ -198,4 +203,780 @@ public class ConfigurationService {
         );
     }
 
+    /**
+     * Returns the strategy used to resolve the guacConfigGroups of a user.
+     * By default, the memberOf attribute of the user entry is searched.
+     * If the guacConfigGroups are read from an LDIF file
+     * (ldap-config-ldif-file), the member index is always used.
+     *
+     * @return
+     *     The group resolution mode. The default is {@code MEMBEROF}.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public GroupResolutionMode getGroupResolutionMode() throws GuacamoleException {
+        if (getConfigLdifFile() != null) return GroupResolutionMode.MEMBER_INDEX;
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_GROUP_RESOLUTION_MODE,
+            GroupResolutionMode.MEMBEROF
+        );
+    }
+
+    /**
+     * Returns the LDAP filter selecting the guacConfigGroups which are put
+     * into the member index.
+     *
+     * @return
+     *     The LDAP filter. The default is {@code (objectClass=guacConfigGroup)}.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getMemberIndexFilter() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_MEMBER_INDEX_FILTER,
+            "(objectClass=guacConfigGroup)"
+        );
+    }
+
+    /**
+     * Returns the interval in seconds between two incremental refreshes of
+     * the member index.
+     *
+     * @return
+     *     The refresh interval in seconds. The default is 60.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getMemberIndexRefreshInterval() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_MEMBER_INDEX_REFRESH_INTERVAL,
+            60
+        );
+    }
+
+    /**
+     * Returns the minimum interval in seconds between two checks of the
+     * member index for deleted guacConfigGroups. Until the next check,
+     * deleted groups (and groups renamed or no longer matching the filter)
+     * stay in the index, and renamed groups are missing.
+     *
+     * @return
+     *     The deletion check interval in seconds. The default is 0, i.e.
+     *     deletions are checked with every refresh.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getMemberIndexDeletionCheckInterval() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_MEMBER_INDEX_DELETION_CHECK_INTERVAL,
+            0
+        );
+    }
+
+    /**
+     * Returns the base DN of the user entries, which is monitored for
+     * changes to invalidate cached user data.
+     *
+     * @return
+     *     The user base DN, or null if not configured.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getUserBaseDN() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_USER_BASE_DN
+        );
+    }
+
+    /**
+     * Returns the interval in seconds between two polls for changed entries
+     * below the user base DN.
+     *
+     * @return
+     *     The poll interval in seconds. The default is 30.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getChangeMonitorInterval() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_CHANGE_MONITOR_INTERVAL,
+            30
+        );
+    }
+
+    /**
+     * Returns the time in seconds a successful verification of credentials
+     * is cached.
+     *
+     * @return
+     *     The time to live in seconds. The default is 0 (cache disabled).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getCredentialCacheTTL() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_CREDENTIAL_CACHE_TTL,
+            0
+        );
+    }
+
+    /**
+     * Returns the maximum number of users in the credential cache.
+     *
+     * @return
+     *     The maximum size of the credential cache. The default is 10000.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getCredentialCacheSize() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_CREDENTIAL_CACHE_SIZE,
+            10000
+        );
+    }
+
+    /**
+     * Returns the scrypt CPU/memory cost N used to hash cached passwords.
+     *
+     * @return
+     *     The scrypt cost, a power of 2. The default is 4096.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getCredentialCacheScryptCost() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_CREDENTIAL_CACHE_SCRYPT_COST,
+            4096
+        );
+    }
+
+    /**
+     * Returns the time in seconds a "no such user" result is cached.
+     *
+     * @return
+     *     The time to live in seconds. The default is 0 (cache disabled).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getUnknownUserCacheTTL() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_UNKNOWN_USER_CACHE_TTL,
+            0
+        );
+    }
+
+    /**
+     * Returns the maximum number of usernames in the negative cache.
+     *
+     * @return
+     *     The maximum size of the negative cache. The default is 10000.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getUnknownUserCacheSize() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_UNKNOWN_USER_CACHE_SIZE,
+            10000
+        );
+    }
+
+    /**
+     * Returns the attribute holding the username of the user entries.
+     *
+     * @return
+     *     The username attribute. The default is {@code uid}.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getUsernameAttribute() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_USERNAME_ATTRIBUTE,
+            "uid"
+        );
+    }
+
+    /**
+     * Returns the LDAP filter selecting the user entries which are loaded
+     * into the filter of known usernames.
+     *
+     * @return
+     *     The LDAP filter. The default is {@code (objectClass=posixAccount)}.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getKnownUsersFilter() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_KNOWN_USERS_FILTER,
+            "(objectClass=posixAccount)"
+        );
+    }
+
+    /**
+     * Returns the interval in seconds between two reloads of the filter of
+     * known usernames.
+     *
+     * @return
+     *     The reload interval in seconds. The default is 0 (filter disabled).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getKnownUsersRefreshInterval() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_KNOWN_USERS_REFRESH_INTERVAL,
+            0
+        );
+    }
+
+    /**
+     * Returns the maximum number of LDAP bound operations per minute in total.
+     *
+     * @return
+     *     The rate limit per minute. The default is 0 (unlimited).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getRateLimit() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_RATE_LIMIT,
+            0
+        );
+    }
+
+    /**
+     * Returns the number of LDAP bound operations which may be started at once before
+     * the rate limit applies.
+     *
+     * @return
+     *     The burst. The default is 1/10 of the rate limit (at least 1).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getRateLimitBurst() throws GuacamoleException {
+        Integer burst = environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_RATE_LIMIT_BURST
+        );
+        return burst != null ? burst : Math.max(1, getRateLimit() / 10);
+    }
+
+    /**
+     * Returns the maximum number of logins per minute for one user. Each
+     * login (authentication and user context creation) costs one token of
+     * the per user rate.
+     *
+     * @return
+     *     The rate limit per minute and user. The default is 0 (unlimited).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getUserRateLimit() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_USER_RATE_LIMIT,
+            0
+        );
+    }
+
+    /**
+     * Returns the maximum number of concurrent LDAP bound operations in total.
+     *
+     * @return
+     *     The maximum number of concurrent operations. The default is 0 (unlimited).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getMaxConcurrentOperations() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_MAX_CONCURRENT_OPERATIONS,
+            0
+        );
+    }
+
+    /**
+     * Returns the maximum number of concurrent LDAP bound operations for one user.
+     *
+     * @return
+     *     The maximum number of concurrent operations per user. The default is 0
+     *     (unlimited).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getUserMaxConcurrentOperations() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_USER_MAX_CONCURRENT_OPERATIONS,
+            0
+        );
+    }
+
+    /**
+     * Returns the maximum time in milliseconds an LDAP bound operation waits for the
+     * rate limit or a free slot.
+     *
+     * @return
+     *     The maximum wait in milliseconds. The default is 5000.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getMaxWait() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_MAX_WAIT,
+            5000
+        );
+    }
+
+    /**
+     * Returns the maximum number of idle connections bound with the default
+     * bindDN, which are kept open for reuse.
+     *
+     * @return
+     *     The pool size. The default is 0 (no pooling).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getConnectionPoolSize() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_CONNECTION_POOL_SIZE,
+            0
+        );
+    }
+
+    /**
+     * Returns whether the login path is warmed up when the authentication
+     * provider is created.
+     *
+     * @return
+     *     true, if the warm up is enabled. The default is false.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean getWarmUp() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_WARM_UP,
+            false
+        );
+    }
+
+    /**
+     * Returns the number of synthetic connection tree builds and macro
+     * expansions run during the warm up.
+     *
+     * @return
+     *     The number of iterations. The default is 200.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getWarmUpIterations() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_WARM_UP_ITERATIONS,
+            200
+        );
+    }
+
+    /**
+     * Returns the TLS protocols enabled for LDAPS and STARTTLS connections.
+     *
+     * @return
+     *     The enabled protocols, or null to use the JRE defaults.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String[] getTLSProtocols() throws GuacamoleException {
+        return split(environment.getProperty(LDAP389dsGuacamoleProperties.LDAP_TLS_PROTOCOLS));
+    }
+
+    /**
+     * Returns the cipher suites enabled for LDAPS and STARTTLS connections,
+     * in the order of preference.
+     *
+     * @return
+     *     The enabled cipher suites, or null to use the JRE defaults.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String[] getTLSCipherSuites() throws GuacamoleException {
+        return split(environment.getProperty(LDAP389dsGuacamoleProperties.LDAP_TLS_CIPHER_SUITES));
+    }
+
+    /**
+     * Returns the maximum number of TLS sessions cached for resumption.
+     *
+     * @return
+     *     The session cache size. The default is 1000 (0 means unlimited).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getTLSSessionCacheSize() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_TLS_SESSION_CACHE_SIZE,
+            1000
+        );
+    }
+
+    /**
+     * Returns the time in seconds a cached TLS session may be resumed.
+     *
+     * @return
+     *     The session timeout in seconds. The default is 3600.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getTLSSessionTimeout() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_TLS_SESSION_TIMEOUT,
+            3600
+        );
+    }
+
+    /**
+     * Splits a comma separated property value into its trimmed, non empty
+     * elements.
+     *
+     * @return
+     *     The elements, or null if the value is null or has no elements.
+     */
+    private static String[] split(String value) {
+        if (value == null) return null;
+        List<String> elements = new ArrayList<String>();
+        for (String element : value.split(",")) {
+            if (!element.trim().isEmpty()) elements.add(element.trim());
+        }
+        return elements.isEmpty() ? null : elements.toArray(new String[elements.size()]);
+    }
+
+    /**
+     * Returns whether the parameters of the connections are loaded lazily,
+     * when a connection is used, instead of at login. Never with proxied
+     * authorization, as the lazy loads run as the default bindDN and would
+     * bypass the ACIs of the user.
+     *
+     * @return
+     *     true, if the parameters are loaded lazily. The default is false.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean getLazyParameters() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_LAZY_PARAMETERS,
+            false
+        ) && !getProxiedAuthorization();
+    }
+
+    /**
+     * Returns the time in seconds the connection tree built for a set of guac
+     * config groups is shared with all users having the same groups.
+     *
+     * @return
+     *     The time to live in seconds. The default is 0 (no sharing).
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getConnectionTreeCacheTTL() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_CONNECTION_TREE_CACHE_TTL,
+            0
+        );
+    }
+
+    /**
+     * Returns the maximum number of distinct sets of guac config groups
+     * whose connection trees are shared.
+     *
+     * @return
+     *     The maximum number of cached connection trees. The default is 1000.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getConnectionTreeCacheSize() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_CONNECTION_TREE_CACHE_SIZE,
+            1000
+        );
+    }
+
+    /**
+     * Returns the maximum number of concurrent connections to one target host,
+     * as configured with guacamole.properties.
+     *
+     * @return
+     *     The maximum number of connections per host, 0 (no limit) by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getMaxConnectionsPerHost() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_MAX_CONNECTIONS_PER_HOST,
+            0
+        );
+    }
+
+    /**
+     * Returns the template of the user DN for authentication by a direct bind,
+     * as configured with guacamole.properties.
+     *
+     * @return
+     *     The template with ${GUAC_USERNAME} for the username, or null if users
+     *     are searched by ldap-url-user-by-credentials.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getDirectBindDNTemplate() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_DIRECT_BIND_DN_TEMPLATE
+        );
+    }
+
+    /**
+     * Returns the attribute holding the groups of a user read after a direct
+     * bind, as configured with guacamole.properties.
+     *
+     * @return
+     *     The name of the attribute, or null if the groups are not read at
+     *     authentication.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getDirectBindGroupAttribute() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_DIRECT_BIND_GROUP_ATTRIBUTE
+        );
+    }
+
+    /**
+     * Returns whether searches for a user use the Proxied Authorization
+     * control, as configured with guacamole.properties.
+     *
+     * @return
+     *     true, if ldap-proxied-authorization is set to true; false by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean getProxiedAuthorization() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_PROXIED_AUTHORIZATION,
+            false
+        );
+    }
+
+    /**
+     * Returns the maximum age of the last known good data served in degraded
+     * mode, as configured with guacamole.properties.
+     *
+     * @return
+     *     The maximum age in seconds, 0 (degraded mode off) by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getLastKnownGoodMaxAge() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_LAST_KNOWN_GOOD_MAX_AGE,
+            0
+        );
+    }
+
+    /**
+     * Returns the maximum number of users in the last known good store, as
+     * configured with guacamole.properties.
+     *
+     * @return
+     *     The maximum number of users, 1000 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getLastKnownGoodSize() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_LAST_KNOWN_GOOD_SIZE,
+            1000
+        );
+    }
+
+    /**
+     * Returns the deadline for building a user context before the last known
+     * good one is served, as configured with guacamole.properties.
+     *
+     * @return
+     *     The deadline in milliseconds, 0 (no deadline) by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDegradedDeadline() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_DEGRADED_DEADLINE,
+            0
+        );
+    }
+
+    /**
+     * Returns the path of the snapshot file of the member index, as configured
+     * with guacamole.properties.
+     *
+     * @return
+     *     The path of the snapshot file, or null if the member index is not
+     *     saved.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getMemberIndexSnapshotFile() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_MEMBER_INDEX_SNAPSHOT_FILE
+        );
+    }
+
+    /**
+     * Returns whether the entries and the memberships of the member index
+     * are kept outside of the Java heap, as configured with
+     * guacamole.properties.
+     *
+     * @return
+     *     true, if they are kept off heap; false (the default), if they are
+     *     kept as LDAPEntry objects and a map.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean getMemberIndexOffHeap() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_MEMBER_INDEX_OFF_HEAP,
+            false
+        );
+    }
+
+    /**
+     * Returns the path of the LDIF file holding the guacConfigGroups, as
+     * configured with guacamole.properties.
+     *
+     * @return
+     *     The path of the LDIF file, or null if the guacConfigGroups are read
+     *     from the LDAP server.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getConfigLdifFile() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_CONFIG_LDIF_FILE
+        );
+    }
+
+    /**
+     * Returns the LDAP client library used for the background searches, as
+     * configured with guacamole.properties.
+     *
+     * @return
+     *     The client backend. The default is {@code JLDAP}.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public ClientBackend getClientBackend() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_CLIENT_BACKEND,
+            ClientBackend.JLDAP
+        );
+    }
+
+    /**
+     * Returns whether guacConfigGroups inherit parameters from their ancestors,
+     * as configured with guacamole.properties.
+     *
+     * @return
+     *     true, if parameters are inherited; false (the default) otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean getParameterInheritance() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_PARAMETER_INHERITANCE,
+            false
+        );
+    }
+
+    /**
+     * Returns the time in seconds the guacConfigDefaults entries are cached, as
+     * configured with guacamole.properties.
+     *
+     * @return
+     *     The time to live in seconds. The default is 60.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getParameterDefaultsTTL() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_PARAMETER_DEFAULTS_TTL,
+            60
+        );
+    }
+
+    /**
+     * Returns the format of the identifiers of connections and connection
+     * groups, as configured with guacamole.properties.
+     *
+     * @return
+     *     The identifier format. The default is {@code DN}.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public IdentifierFormat getIdentifierFormat() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_IDENTIFIER_FORMAT,
+            IdentifierFormat.DN
+        );
+    }
+
+    /**
+     * Returns the number of connections from which the connection tree is
+     * built in parallel, as configured with guacamole.properties.
+     *
+     * @return
+     *     The threshold, 0 if the tree is always built sequentially. The
+     *     default is 5000.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getParallelTreeThreshold() throws GuacamoleException {
+        return environment.getProperty(
+            LDAP389dsGuacamoleProperties.LDAP_PARALLEL_TREE_THRESHOLD,
+            5000
+        );
+    }
+
 }
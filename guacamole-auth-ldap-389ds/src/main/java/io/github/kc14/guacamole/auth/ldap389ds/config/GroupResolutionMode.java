@@ -0,0 +1,26 @@
+package io.github.kc14.guacamole.auth.ldap389ds.config;
+
+/**
+ * All possible strategies to resolve the guacConfigGroups a user is a
+ * member of.
+ *
+ * @author Frank Kemmer
+ */
+public enum GroupResolutionMode {
+
+    /**
+     * The groups are read from the memberOf attribute of the user entry
+     * (see ldap-url-users-groups) and each group is then searched by
+     * ldap-url-guac-config-group. Requires the memberOf plugin.
+     */
+    MEMBEROF,
+
+    /**
+     * The groups are looked up by the DN of the user in an in-memory index,
+     * which maps each value of the member attribute of all guacConfigGroups
+     * below the config base DN to its groups. The index is built by one scan
+     * and refreshed incrementally in the background.
+     */
+    MEMBER_INDEX;
+
+}
@@ -0,0 +1,31 @@
+package io.github.kc14.guacamole.auth.ldap389ds.config;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.properties.GuacamoleProperty;
+
+/**
+ * A GuacamoleProperty whose value is a GroupResolutionMode. The string values
+ * "memberof" and "member-index" are each parsed to their corresponding values
+ * within the enum GroupResolutionMode. All other string values result in parse
+ * errors.
+ *
+ * @author Frank Kemmer
+ */
+public abstract class GroupResolutionModeProperty implements GuacamoleProperty<GroupResolutionMode> {
+
+    @Override
+    public GroupResolutionMode parseValue(String groupResolutionModeAsString) throws GuacamoleException {
+
+        if (groupResolutionModeAsString == null) // If no value provided, return null.
+            return null;
+
+        try {
+            return GroupResolutionMode.valueOf(groupResolutionModeAsString.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) { // The provided value is not legal
+            throw new GuacamoleServerException("Group resolution mode must be one of [\"memberof\"] or [\"member-index\"].", e);
+        }
+
+    }
+
+}
@@ -0,0 +1,26 @@
+package io.github.kc14.guacamole.auth.ldap389ds.config;
+
+/**
+ * All possible formats of the identifiers of connections and connection
+ * groups (see IdentifierService).
+ *
+ * @author Frank Kemmer
+ */
+public enum IdentifierFormat {
+
+    /**
+     * The full DN of the guac config group or folder.
+     */
+    DN,
+
+    /**
+     * The DN relative to the config base DN, i.e. without its suffix.
+     */
+    RELATIVE,
+
+    /**
+     * A hash of 16 hex digits of the normalized DN.
+     */
+    HASH;
+
+}
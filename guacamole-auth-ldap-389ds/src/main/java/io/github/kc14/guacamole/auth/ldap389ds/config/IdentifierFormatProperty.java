@@ -0,0 +1,31 @@
+package io.github.kc14.guacamole.auth.ldap389ds.config;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.properties.GuacamoleProperty;
+
+/**
+ * A GuacamoleProperty whose value is an IdentifierFormat. The string values
+ * "dn", "relative" and "hash" are each parsed to their corresponding values
+ * within the enum IdentifierFormat. All other string values result in parse
+ * errors.
+ *
+ * @author Frank Kemmer
+ */
+public abstract class IdentifierFormatProperty implements GuacamoleProperty<IdentifierFormat> {
+
+    @Override
+    public IdentifierFormat parseValue(String identifierFormatAsString) throws GuacamoleException {
+
+        if (identifierFormatAsString == null) // If no value provided, return null.
+            return null;
+
+        try {
+            return IdentifierFormat.valueOf(identifierFormatAsString.toUpperCase());
+        } catch (IllegalArgumentException e) { // The provided value is not legal
+            throw new GuacamoleServerException("LDAP identifier format must be one of [\"dn\"], [\"relative\"] or [\"hash\"].", e);
+        }
+
+    }
+
+}
@@ -133,4 +133,521 @@ public class LDAP389dsGuacamoleProperties {
 
     };
 
+    /**
+     * How the guacConfigGroups of a user are resolved: "memberof" (default)
+     * searches the memberOf attribute of the user and then each group, while
+     * "member-index" looks the user up in an in-memory index built from the
+     * member attribute of all guacConfigGroups below the config base DN.
+     */
+    public static final GroupResolutionModeProperty LDAP_GROUP_RESOLUTION_MODE = new GroupResolutionModeProperty() {
+
+        @Override
+        public String getName() { return "ldap-group-resolution-mode"; }
+
+    };
+
+    /**
+     * The LDAP filter selecting the guacConfigGroups to put into the member
+     * index (default: (objectClass=guacConfigGroup)).
+     */
+    public static final StringGuacamoleProperty LDAP_MEMBER_INDEX_FILTER = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-member-index-filter"; }
+
+    };
+
+    /**
+     * The interval in seconds between two incremental refreshes of the
+     * member index (default: 60).
+     */
+    public static final IntegerGuacamoleProperty LDAP_MEMBER_INDEX_REFRESH_INTERVAL = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-member-index-refresh-interval"; }
+
+    };
+
+    /**
+     * The minimum interval in seconds between two checks of the member index
+     * for deleted guacConfigGroups, each listing the DNs of all groups below
+     * the config base DN (default: 0, i.e. with every refresh).
+     */
+    public static final IntegerGuacamoleProperty LDAP_MEMBER_INDEX_DELETION_CHECK_INTERVAL = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-member-index-deletion-check-interval"; }
+
+    };
+
+    /**
+     * The base DN of the user entries. Changes below this DN are monitored to
+     * invalidate cached data of the changed users (optional).
+     */
+    public static final StringGuacamoleProperty LDAP_USER_BASE_DN = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-user-base-dn"; }
+
+    };
+
+    /**
+     * The interval in seconds between two polls for changed entries below
+     * the user base DN (default: 30).
+     */
+    public static final IntegerGuacamoleProperty LDAP_CHANGE_MONITOR_INTERVAL = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-change-monitor-interval"; }
+
+    };
+
+    /**
+     * The time in seconds a successful verification of credentials is cached
+     * (default: 0, i.e. the credential cache is disabled).
+     */
+    public static final IntegerGuacamoleProperty LDAP_CREDENTIAL_CACHE_TTL = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-credential-cache-ttl"; }
+
+    };
+
+    /**
+     * The maximum number of users in the credential cache (default: 10000).
+     */
+    public static final IntegerGuacamoleProperty LDAP_CREDENTIAL_CACHE_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-credential-cache-size"; }
+
+    };
+
+    /**
+     * The scrypt CPU/memory cost N used to hash cached passwords, a power of
+     * 2 (default: 4096, i.e. 4 MiB per hash).
+     */
+    public static final IntegerGuacamoleProperty LDAP_CREDENTIAL_CACHE_SCRYPT_COST = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-credential-cache-scrypt-cost"; }
+
+    };
+
+    /**
+     * The time in seconds a "no such user" result is cached, so that further
+     * logins of this user are rejected without asking the LDAP server
+     * (default: 0, i.e. the negative cache is disabled).
+     */
+    public static final IntegerGuacamoleProperty LDAP_UNKNOWN_USER_CACHE_TTL = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-unknown-user-cache-ttl"; }
+
+    };
+
+    /**
+     * The maximum number of usernames in the negative cache (default: 10000).
+     */
+    public static final IntegerGuacamoleProperty LDAP_UNKNOWN_USER_CACHE_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-unknown-user-cache-size"; }
+
+    };
+
+    /**
+     * The attribute holding the username of the user entries (default: uid).
+     */
+    public static final StringGuacamoleProperty LDAP_USERNAME_ATTRIBUTE = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-username-attribute"; }
+
+    };
+
+    /**
+     * The LDAP filter selecting the user entries below the user base DN which
+     * are loaded into the filter of known usernames
+     * (default: (objectClass=posixAccount)).
+     */
+    public static final StringGuacamoleProperty LDAP_KNOWN_USERS_FILTER = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-known-users-filter"; }
+
+    };
+
+    /**
+     * The interval in seconds between two reloads of the filter of known
+     * usernames (default: 0, i.e. the filter is disabled).
+     */
+    public static final IntegerGuacamoleProperty LDAP_KNOWN_USERS_REFRESH_INTERVAL = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-known-users-refresh-interval"; }
+
+    };
+
+    /**
+     * The maximum number of LDAP bound operations (logins and user context
+     * creations) per minute in total (default: 0, i.e. unlimited).
+     */
+    public static final IntegerGuacamoleProperty LDAP_RATE_LIMIT = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-rate-limit"; }
+
+    };
+
+    /**
+     * The number of LDAP bound operations which may be started at once before
+     * the rate limit applies (default: 1/10 of ldap-rate-limit, at least 1).
+     */
+    public static final IntegerGuacamoleProperty LDAP_RATE_LIMIT_BURST = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-rate-limit-burst"; }
+
+    };
+
+    /**
+     * The maximum number of logins per minute for one user (default: 0, i.e.
+     * unlimited). A login costs one token, whether its password is verified
+     * against LDAP or the credential cache, including the creation of its
+     * user context. Bursts of up to 1/10 of the limit (at least 1) are
+     * allowed.
+     */
+    public static final IntegerGuacamoleProperty LDAP_USER_RATE_LIMIT = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-user-rate-limit"; }
+
+    };
+
+    /**
+     * The maximum number of concurrent LDAP bound operations in total
+     * (default: 0, i.e. unlimited).
+     */
+    public static final IntegerGuacamoleProperty LDAP_MAX_CONCURRENT_OPERATIONS = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-max-concurrent-operations"; }
+
+    };
+
+    /**
+     * The maximum number of concurrent LDAP bound operations for one user
+     * (default: 0, i.e. unlimited).
+     */
+    public static final IntegerGuacamoleProperty LDAP_USER_MAX_CONCURRENT_OPERATIONS = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-user-max-concurrent-operations"; }
+
+    };
+
+    /**
+     * The maximum time in milliseconds an LDAP bound operation waits for the
+     * rate limit or a free slot before it is rejected (default: 5000).
+     */
+    public static final IntegerGuacamoleProperty LDAP_MAX_WAIT = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-max-wait"; }
+
+    };
+
+    /**
+     * The maximum number of idle connections bound with the default bindDN,
+     * which are kept open for reuse (default: 0, i.e. no pooling).
+     */
+    public static final IntegerGuacamoleProperty LDAP_CONNECTION_POOL_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-connection-pool-size"; }
+
+    };
+
+    /**
+     * Whether the login path is warmed up when the authentication provider is
+     * created: the connection pool is filled, the guac config groups are
+     * preloaded and a synthetic workload is run (default: false).
+     */
+    public static final BooleanGuacamoleProperty LDAP_WARM_UP = new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-warm-up"; }
+
+    };
+
+    /**
+     * The number of synthetic connection tree builds and macro expansions run
+     * during the warm up (default: 200).
+     */
+    public static final IntegerGuacamoleProperty LDAP_WARM_UP_ITERATIONS = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-warm-up-iterations"; }
+
+    };
+
+    /**
+     * The comma separated list of TLS protocols enabled for LDAPS and STARTTLS
+     * connections, e.g. "TLSv1.2,TLSv1.1" (default: the JRE defaults).
+     */
+    public static final StringGuacamoleProperty LDAP_TLS_PROTOCOLS = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-tls-protocols"; }
+
+    };
+
+    /**
+     * The comma separated list of cipher suites enabled for LDAPS and STARTTLS
+     * connections, in the order of preference (default: the JRE defaults).
+     */
+    public static final StringGuacamoleProperty LDAP_TLS_CIPHER_SUITES = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-tls-cipher-suites"; }
+
+    };
+
+    /**
+     * The maximum number of TLS sessions cached for resumption by the shared
+     * SSL context of the LDAP connections (default: 1000, 0 means unlimited).
+     */
+    public static final IntegerGuacamoleProperty LDAP_TLS_SESSION_CACHE_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-tls-session-cache-size"; }
+
+    };
+
+    /**
+     * The time in seconds a cached TLS session may be resumed (default: 3600).
+     */
+    public static final IntegerGuacamoleProperty LDAP_TLS_SESSION_TIMEOUT = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-tls-session-timeout"; }
+
+    };
+
+    /**
+     * Whether the guacConfigParameter values are loaded lazily: the login only
+     * fetches cn and guacConfigProtocol of the guac config groups, and the
+     * parameters of a connection are loaded when it is used (default: false).
+     * Ignored with ldap-proxied-authorization, as the lazy loads would not run
+     * under the ACIs of the user.
+     */
+    public static final BooleanGuacamoleProperty LDAP_LAZY_PARAMETERS = new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-lazy-parameters"; }
+
+    };
+
+    /**
+     * The time in seconds the connections and the connection tree built for a
+     * set of guac config groups are shared with all users having exactly the
+     * same groups (default: 0, i.e. no sharing).
+     */
+    public static final IntegerGuacamoleProperty LDAP_CONNECTION_TREE_CACHE_TTL = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-connection-tree-cache-ttl"; }
+
+    };
+
+    /**
+     * The maximum number of distinct sets of guac config groups whose
+     * connection trees are shared (default: 1000).
+     */
+    public static final IntegerGuacamoleProperty LDAP_CONNECTION_TREE_CACHE_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-connection-tree-cache-size"; }
+
+    };
+
+    /**
+     * The maximum number of concurrent connections of all users to one target
+     * host (the hostname parameter), 0 for no limit.
+     */
+    public static final IntegerGuacamoleProperty LDAP_MAX_CONNECTIONS_PER_HOST = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-max-connections-per-host"; }
+
+    };
+
+    /**
+     * The template of the DN of a user (e.g.
+     * uid=${GUAC_USERNAME},ou=People,dc=example,dc=com). If set, users are
+     * authenticated by a bind with this DN instead of a search by
+     * ldap-url-user-by-credentials.
+     */
+    public static final StringGuacamoleProperty LDAP_DIRECT_BIND_DN_TEMPLATE = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-direct-bind-dn-template"; }
+
+    };
+
+    /**
+     * The attribute of the user entry holding the groups of the user (e.g.
+     * memberOf), read after a direct bind on the same connection, so the
+     * search by ldap-url-users-groups is not needed.
+     */
+    public static final StringGuacamoleProperty LDAP_DIRECT_BIND_GROUP_ATTRIBUTE = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-direct-bind-group-attribute"; }
+
+    };
+
+    /**
+     * Whether the searches for a user are run on connections of the default
+     * bindDN with the Proxied Authorization control (RFC 4370) for the user,
+     * so the ACIs of the user apply. The bindDN needs the proxy right.
+     * Disables ldap-lazy-parameters.
+     */
+    public static final BooleanGuacamoleProperty LDAP_PROXIED_AUTHORIZATION = new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-proxied-authorization"; }
+
+    };
+
+    /**
+     * The maximum age in seconds of the last known good connection tree of a
+     * user and of a cached credential verification served while the LDAP
+     * server is unreachable or slower than ldap-degraded-deadline, 0 to never
+     * serve stale data.
+     */
+    public static final IntegerGuacamoleProperty LDAP_LAST_KNOWN_GOOD_MAX_AGE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-last-known-good-max-age"; }
+
+    };
+
+    /**
+     * The maximum number of users whose last known good connection tree is
+     * kept.
+     */
+    public static final IntegerGuacamoleProperty LDAP_LAST_KNOWN_GOOD_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-last-known-good-size"; }
+
+    };
+
+    /**
+     * The time in milliseconds after which a user gets the last known good
+     * connection tree, if building it from the LDAP server takes longer, 0 to
+     * wait until the LDAP operations finish or fail.
+     */
+    public static final IntegerGuacamoleProperty LDAP_DEGRADED_DEADLINE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-degraded-deadline"; }
+
+    };
+
+    /**
+     * The file the member index is saved to after each change and loaded from
+     * at startup, so a restarted node serves logins before the config base is
+     * scanned again. Not saved if not set.
+     */
+    public static final StringGuacamoleProperty LDAP_MEMBER_INDEX_SNAPSHOT_FILE = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-member-index-snapshot-file"; }
+
+    };
+
+    /**
+     * Whether the guacConfigGroup entries and the memberships of the member
+     * index are kept in compact stores outside of the Java heap and decoded
+     * only when used, for very large numbers of guacConfigGroups.
+     */
+    public static final BooleanGuacamoleProperty LDAP_MEMBER_INDEX_OFF_HEAP = new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-member-index-off-heap"; }
+
+    };
+
+    /**
+     * A local LDIF file holding the guacConfigGroups, read instead of the config
+     * base of the LDAP server. Implies the member index, which polls the file
+     * for changes.
+     */
+    public static final StringGuacamoleProperty LDAP_CONFIG_LDIF_FILE = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-config-ldif-file"; }
+
+    };
+
+    /**
+     * The LDAP client library used for the background searches (member index,
+     * change monitor, lazy parameters): "jldap" (the default) or "unboundid".
+     */
+    public static final ClientBackendProperty LDAP_CLIENT_BACKEND = new ClientBackendProperty() {
+
+        @Override
+        public String getName() { return "ldap-client-backend"; }
+
+    };
+
+    /**
+     * Whether guacConfigGroups inherit the guacConfigParameter values of their
+     * ancestor entries with the auxiliary object class guacConfigDefaults, up
+     * to the config base DN.
+     */
+    public static final BooleanGuacamoleProperty LDAP_PARAMETER_INHERITANCE = new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-parameter-inheritance"; }
+
+    };
+
+    /**
+     * The time in seconds the guacConfigDefaults entries are cached before they
+     * are read again.
+     */
+    public static final IntegerGuacamoleProperty LDAP_PARAMETER_DEFAULTS_TTL = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-parameter-defaults-ttl"; }
+
+    };
+
+    /**
+     * The format of the identifiers of connections and connection groups sent
+     * to the browser: "dn" (the default), "relative" (to the config base DN) or
+     * "hash".
+     */
+    public static final IdentifierFormatProperty LDAP_IDENTIFIER_FORMAT = new IdentifierFormatProperty() {
+
+        @Override
+        public String getName() { return "ldap-identifier-format"; }
+
+    };
+
+    /**
+     * The number of connections from which the connection tree is built in
+     * parallel. 0 disables the parallel build.
+     */
+    public static final IntegerGuacamoleProperty LDAP_PARALLEL_TREE_THRESHOLD = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "ldap-parallel-tree-threshold"; }
+
+    };
+
 }
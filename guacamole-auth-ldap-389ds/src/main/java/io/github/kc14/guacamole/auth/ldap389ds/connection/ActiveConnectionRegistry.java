@@ -0,0 +1,386 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glyptodon.guacamole.GuacamoleClientTooManyException;
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerBusyException;
+import org.glyptodon.guacamole.net.DelegatingGuacamoleTunnel;
+import org.glyptodon.guacamole.net.GuacamoleTunnel;
+import org.glyptodon.guacamole.net.auth.ActiveConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import io.github.kc14.com.novell.ldap.util.DNHelper;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.metrics.MetricsService;
+
+/**
+ * Process-wide registry of the active connections (open tunnels) of all
+ * users, counted by connection DN, by user and by target host.
+ * <p>
+ * A new connection is admitted only if it stays within the limits of its
+ * guac config group (guacConfigMaxConnections,
+ * guacConfigMaxConnectionsPerUser) and ldap-max-connections-per-host, so an
+ * overloaded backend rejects new sessions instead of degrading the running
+ * ones. The counters are updated by compare-and-set without locks; a counter
+ * dropping to zero is removed, so the maps only hold what is in use.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class ActiveConnectionRegistry {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ActiveConnectionRegistry.class);
+
+    /**
+     * Marks a counter which was removed from its map.
+     */
+    private static final int REMOVED = -1;
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * The number of active connections by normalized connection DN.
+     */
+    private final ConcurrentMap<String, AtomicInteger> connectionCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * The number of active connections by username.
+     */
+    private final ConcurrentMap<String, AtomicInteger> userCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * The number of active connections by username and normalized connection
+     * DN (for guacConfigMaxConnectionsPerUser).
+     */
+    private final ConcurrentMap<String, AtomicInteger> userConnectionCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * The number of active connections by target host.
+     */
+    private final ConcurrentMap<String, AtomicInteger> hostCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * The active connections by identifier (the UUID of the tunnel).
+     */
+    private final ConcurrentMap<String, Record> activeConnections = new ConcurrentHashMap<String, Record>();
+
+    /**
+     * Registers the number of active connections as metric (called by Guice
+     * after construction).
+     */
+    @Inject
+    private void registerMetrics(MetricsService metrics) {
+        metrics.gauge("activeConnections", new MetricsService.Gauge() {
+
+            @Override
+            public Number getValue() {
+                return activeConnections.size();
+            }
+
+        });
+    }
+
+    /**
+     * Increments the counter of the given key, if it stays within the given
+     * maximum.
+     *
+     * @return
+     *     true, if incremented; false, if the maximum is reached.
+     */
+    private static boolean tryIncrement(ConcurrentMap<String, AtomicInteger> counts, String key, int max) {
+        for (;;) {
+            AtomicInteger counter = counts.get(key);
+            if (counter == null) {
+                AtomicInteger newCounter = new AtomicInteger();
+                counter = counts.putIfAbsent(key, newCounter);
+                if (counter == null) counter = newCounter;
+            }
+            int count = counter.get();
+            if (count == REMOVED) continue; // Being removed => retry with a new counter
+            if (max > 0 && count >= max) return false;
+            if (counter.compareAndSet(count, count + 1)) return true;
+        }
+    }
+
+    /**
+     * Decrements the counter of the given key, removing it at zero.
+     */
+    private static void decrement(ConcurrentMap<String, AtomicInteger> counts, String key) {
+        AtomicInteger counter = counts.get(key);
+        if (counter == null) return;
+        if (counter.decrementAndGet() == 0 && counter.compareAndSet(0, REMOVED))
+            counts.remove(key, counter);
+    }
+
+    /**
+     * Returns the count of the given key.
+     */
+    private static int getCount(ConcurrentMap<String, AtomicInteger> counts, String key) {
+        AtomicInteger counter = counts.get(key);
+        int count = counter == null ? 0 : counter.get();
+        return count == REMOVED ? 0 : count;
+    }
+
+    /**
+     * Reserves a slot for a new connection, checking all limits.
+     *
+     * @param connectionDN
+     *     The identifier of the connection (its DN by default, see
+     *     IdentifierService).
+     *
+     * @param username
+     *     The user opening the connection, may be null.
+     *
+     * @param host
+     *     The target host of the connection, may be null.
+     *
+     * @param maxConnections
+     *     The maximum number of active connections of the connection, 0 for
+     *     no limit.
+     *
+     * @param maxConnectionsPerUser
+     *     The maximum number of active connections of one user to the
+     *     connection, 0 for no limit.
+     *
+     * @return
+     *     The admission, which must either be registered with the opened
+     *     tunnel or released.
+     *
+     * @throws GuacamoleException
+     *     GuacamoleServerBusyException if the connection or host is at its
+     *     limit, GuacamoleClientTooManyException if the user is at the limit
+     *     of the connection, or if guacamole.properties cannot be parsed.
+     */
+    public Admission admit(String connectionDN, String username, String host, int maxConnections, int maxConnectionsPerUser) throws GuacamoleException {
+        String normalizedDN = DNHelper.normalize(connectionDN);
+        String userConnectionKey = username == null ? null : username + '\n' + normalizedDN;
+        String hostKey = host == null ? null : host.toLowerCase();
+        int maxConnectionsPerHost = confService.getMaxConnectionsPerHost();
+
+        if (!tryIncrement(connectionCounts, normalizedDN, maxConnections)) {
+            logger.info("Connection [{}] has reached its limit of {} active connections => rejected.", connectionDN, maxConnections);
+            throw new GuacamoleServerBusyException("The connection is busy. Please try again later.");
+        }
+        if (userConnectionKey != null && !tryIncrement(userConnectionCounts, userConnectionKey, maxConnectionsPerUser)) {
+            decrement(connectionCounts, normalizedDN);
+            logger.info("User [{}] has reached the limit of {} active connections to [{}] => rejected.", new Object[] { username, maxConnectionsPerUser, connectionDN });
+            throw new GuacamoleClientTooManyException("Too many active sessions on this connection.");
+        }
+        if (hostKey != null && !tryIncrement(hostCounts, hostKey, maxConnectionsPerHost)) {
+            if (userConnectionKey != null) decrement(userConnectionCounts, userConnectionKey);
+            decrement(connectionCounts, normalizedDN);
+            logger.info("Host [{}] has reached its limit of {} active connections => rejected.", host, maxConnectionsPerHost);
+            throw new GuacamoleServerBusyException("The server is busy. Please try again later.");
+        }
+        if (username != null) tryIncrement(userCounts, username, 0);
+        return new Admission(normalizedDN, connectionDN, username, userConnectionKey, hostKey);
+    }
+
+    /**
+     * Returns the number of active connections of the given connection.
+     *
+     * @param connectionDN
+     *     The identifier of the connection (its DN by default, see
+     *     IdentifierService).
+     *
+     * @return
+     *     The number of open tunnels of the connection, of all users.
+     */
+    public int getActiveConnections(String connectionDN) {
+        return getCount(connectionCounts, DNHelper.normalize(connectionDN));
+    }
+
+    /**
+     * Returns the number of active connections of the given user.
+     *
+     * @param username
+     *     The name of the user.
+     *
+     * @return
+     *     The number of open tunnels of the user.
+     */
+    public int getUserActiveConnections(String username) {
+        return getCount(userCounts, username);
+    }
+
+    /**
+     * Returns the number of active connections to the given host.
+     *
+     * @param host
+     *     The target host.
+     *
+     * @return
+     *     The number of open tunnels to the host, of all users.
+     */
+    public int getHostActiveConnections(String host) {
+        return getCount(hostCounts, host.toLowerCase());
+    }
+
+    /**
+     * Returns the active connections of the given user.
+     *
+     * @param username
+     *     The name of the user.
+     *
+     * @return
+     *     The active connections of the user by identifier.
+     */
+    public Map<String, ActiveConnection> getActiveConnectionsOfUser(String username) {
+        Map<String, ActiveConnection> userActiveConnections = new HashMap<String, ActiveConnection>();
+        for (Record record : activeConnections.values()) {
+            if (username.equals(record.getUsername())) userActiveConnections.put(record.getIdentifier(), record);
+        }
+        return userActiveConnections;
+    }
+
+    /**
+     * A reserved slot for a new connection.
+     */
+    public class Admission {
+
+        private final String normalizedDN;
+
+        private final String connectionDN;
+
+        private final String username;
+
+        private final String userConnectionKey;
+
+        private final String hostKey;
+
+        /**
+         * Whether the slot was released.
+         */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Admission(String normalizedDN, String connectionDN, String username, String userConnectionKey, String hostKey) {
+            this.normalizedDN = normalizedDN;
+            this.connectionDN = connectionDN;
+            this.username = username;
+            this.userConnectionKey = userConnectionKey;
+            this.hostKey = hostKey;
+        }
+
+        /**
+         * Releases the slot (only once).
+         */
+        public void release() {
+            if (!released.compareAndSet(false, true)) return;
+            if (hostKey != null) decrement(hostCounts, hostKey);
+            if (userConnectionKey != null) decrement(userConnectionCounts, userConnectionKey);
+            if (username != null) decrement(userCounts, username);
+            decrement(connectionCounts, normalizedDN);
+        }
+
+        /**
+         * Registers the tunnel opened for this admission.
+         *
+         * @param tunnel
+         *     The opened tunnel.
+         *
+         * @return
+         *     The tunnel to hand out, which releases the slot when closed.
+         */
+        public GuacamoleTunnel register(GuacamoleTunnel tunnel) {
+            final String identifier = tunnel.getUUID().toString();
+            GuacamoleTunnel trackedTunnel = new DelegatingGuacamoleTunnel(tunnel) {
+
+                @Override
+                public void close() throws GuacamoleException {
+                    try {
+                        super.close();
+                    }
+                    finally {
+                        activeConnections.remove(identifier);
+                        release();
+                    }
+                }
+
+            };
+            activeConnections.put(identifier, new Record(identifier, connectionDN, username, trackedTunnel));
+            return trackedTunnel;
+        }
+
+    }
+
+    /**
+     * An active connection as listed by the active connection directory.
+     */
+    private static class Record implements ActiveConnection {
+
+        private String identifier;
+
+        private String connectionIdentifier;
+
+        private Date startDate = new Date();
+
+        private String remoteHost;
+
+        private String username;
+
+        private GuacamoleTunnel tunnel;
+
+        Record(String identifier, String connectionIdentifier, String username, GuacamoleTunnel tunnel) {
+            this.identifier = identifier;
+            this.connectionIdentifier = connectionIdentifier;
+            this.username = username;
+            this.tunnel = tunnel;
+        }
+
+        @Override
+        public String getIdentifier() { return identifier; }
+
+        @Override
+        public void setIdentifier(String identifier) { this.identifier = identifier; }
+
+        @Override
+        public String getConnectionIdentifier() { return connectionIdentifier; }
+
+        @Override
+        public void setConnectionIdentifier(String connectionIdentifier) { this.connectionIdentifier = connectionIdentifier; }
+
+        @Override
+        public Date getStartDate() { return startDate; }
+
+        @Override
+        public void setStartDate(Date startDate) { this.startDate = startDate; }
+
+        @Override
+        public String getRemoteHost() { return remoteHost; }
+
+        @Override
+        public void setRemoteHost(String remoteHost) { this.remoteHost = remoteHost; }
+
+        @Override
+        public String getUsername() { return username; }
+
+        @Override
+        public void setUsername(String username) { this.username = username; }
+
+        @Override
+        public GuacamoleTunnel getTunnel() { return tunnel; }
+
+        @Override
+        public void setTunnel(GuacamoleTunnel tunnel) { this.tunnel = tunnel; }
+
+    }
+
+}
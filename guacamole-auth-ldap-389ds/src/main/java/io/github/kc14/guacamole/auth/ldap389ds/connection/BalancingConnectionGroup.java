@@ -0,0 +1,160 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.glyptodon.guacamole.GuacamoleClientTooManyException;
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleResourceNotFoundException;
+import org.glyptodon.guacamole.GuacamoleServerBusyException;
+import org.glyptodon.guacamole.GuacamoleUpstreamException;
+import org.glyptodon.guacamole.net.GuacamoleTunnel;
+import org.glyptodon.guacamole.net.auth.Connection;
+import org.glyptodon.guacamole.net.auth.ConnectionGroup;
+import org.glyptodon.guacamole.net.auth.Directory;
+import org.glyptodon.guacamole.net.auth.simple.SimpleConnectionGroup;
+import org.glyptodon.guacamole.protocol.GuacamoleClientInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A folder whose balancing connections (guacConfigBalancing) are equivalent
+ * backends (e.g. a farm of terminal servers): connecting to the group
+ * connects to the balancing connection with the least active connections of
+ * all users, see ActiveConnectionRegistry. If that backend cannot be reached
+ * or is at its limit, the next one is tried. Other connections in the folder
+ * stay ordinary children, which are never chosen by the group.
+ * <p>
+ * The connections are looked up in the connection directory of the user, so
+ * the tunnel gets the configuration with the tokens of the user.
+ *
+ * @author Frank Kemmer
+ */
+public class BalancingConnectionGroup extends SimpleConnectionGroup {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(BalancingConnectionGroup.class);
+
+    /**
+     * Orders candidates by their number of active connections.
+     */
+    private static final Comparator<Candidate> LEAST_ACTIVE = new Comparator<Candidate>() {
+
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            return a.activeConnections < b.activeConnections ? -1 : (a.activeConnections == b.activeConnections ? 0 : 1);
+        }
+
+    };
+
+    /**
+     * A balancing connection with its number of active connections read
+     * once, so the order does not change while sorting (the counters are
+     * updated by other sessions meanwhile).
+     */
+    private static class Candidate {
+
+        final Connection connection;
+
+        final int activeConnections;
+
+        Candidate(Connection connection) {
+            this.connection = connection;
+            this.activeConnections = connection.getActiveConnections();
+        }
+
+    }
+
+    /**
+     * The directory the connections of this group are taken from.
+     */
+    private final Directory<Connection> connectionDirectory;
+
+    /**
+     * Creates a balancing group with the name, identifiers, parent and
+     * children of the given folder.
+     *
+     * @param folder
+     *     The folder to convert.
+     *
+     * @param connectionDirectory
+     *     The directory the connections of the group are taken from.
+     *
+     * @throws GuacamoleException
+     *     If the children of the folder cannot be read.
+     */
+    public BalancingConnectionGroup(ConnectionGroup folder, Directory<Connection> connectionDirectory) throws GuacamoleException {
+        super(folder.getName(), folder.getIdentifier(), folder.getConnectionIdentifiers(), folder.getConnectionGroupIdentifiers());
+        setParentIdentifier(folder.getParentIdentifier());
+        setType(ConnectionGroup.Type.BALANCING);
+        this.connectionDirectory = connectionDirectory;
+    }
+
+    /**
+     * Returns the balancing connections of this group.
+     */
+    private List<Connection> getMembers() throws GuacamoleException {
+        List<Connection> members = new ArrayList<Connection>();
+        for (Connection connection : connectionDirectory.getAll(getConnectionIdentifiers())) {
+            if (connection instanceof TrackedConnection && ((TrackedConnection) connection).isBalancing())
+                members.add(connection);
+        }
+        return members;
+    }
+
+    /**
+     * Returns the balancing connections of this group, least active first.
+     */
+    private List<Connection> getCandidates() throws GuacamoleException {
+        List<Connection> members = getMembers();
+        List<Candidate> snapshot = new ArrayList<Candidate>(members.size());
+        for (Connection member : members) snapshot.add(new Candidate(member));
+        Collections.sort(snapshot, LEAST_ACTIVE);
+        List<Connection> candidates = new ArrayList<Connection>(snapshot.size());
+        for (Candidate candidate : snapshot) candidates.add(candidate.connection);
+        return candidates;
+    }
+
+    @Override
+    public GuacamoleTunnel connect(GuacamoleClientInformation info) throws GuacamoleException {
+        List<Connection> candidates = getCandidates();
+        if (candidates.isEmpty())
+            throw new GuacamoleResourceNotFoundException("Balancing connection group [" + getIdentifier() + "] has no balancing connections.");
+
+        GuacamoleException lastError = null;
+        for (Connection candidate : candidates) {
+            try {
+                return candidate.connect(info);
+            }
+            catch (GuacamoleUpstreamException e) { // Backend not reachable => try the next one
+                logger.warn("Connection [{}] of balancing group [{}] failed: {}", new Object[] { candidate.getIdentifier(), getIdentifier(), e.getMessage() });
+                lastError = e;
+            }
+            catch (GuacamoleServerBusyException e) { // Backend at its limit => try the next one
+                lastError = e;
+            }
+            catch (GuacamoleClientTooManyException e) { // User at the limit of the backend => try the next one
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        int activeConnections = 0;
+        try {
+            for (Connection connection : getMembers())
+                activeConnections += connection.getActiveConnections();
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Cannot count the active connections of balancing group [{}].", getIdentifier(), e);
+        }
+        return activeConnections;
+    }
+
+}
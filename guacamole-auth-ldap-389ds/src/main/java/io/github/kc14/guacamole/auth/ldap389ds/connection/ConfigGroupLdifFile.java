@@ -0,0 +1,164 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPSearchResult;
+import com.novell.ldap.util.LDIFReader;
+
+/**
+ * Reads the guacConfigGroup entries from a local LDIF file (content records
+ * as in doc/examples/exampleConfigGroup.ldif), which replaces the scan of
+ * the config base by the member index (see ldap-config-ldif-file).
+ * <p>
+ * The file is parsed record by record by the LDIF reader of JLDAP. Only
+ * entries with the requested object class (guacConfigGroup, or
+ * guacConfigDefaults for parameter inheritance) are returned, reduced to
+ * the given attributes. The "version: 1" line required by the reader may be
+ * omitted.
+ *
+ * @author Frank Kemmer
+ */
+public class ConfigGroupLdifFile {
+
+    /**
+     * The version line prepended if the file has none.
+     */
+    private static final byte[] VERSION_LINE = { 'v', 'e', 'r', 's', 'i', 'o', 'n', ':', ' ', '1', '\n' };
+
+    /**
+     * The maximum number of bytes searched for the version line.
+     */
+    private static final int VERSION_SCAN_LIMIT = 4096;
+
+    private ConfigGroupLdifFile() {
+    }
+
+    /**
+     * Reads the guacConfigGroup entries from the given file.
+     *
+     * @param file
+     *     The LDIF file.
+     *
+     * @param attributes
+     *     The attributes to keep of each entry.
+     *
+     * @return
+     *     The guacConfigGroup entries of the file.
+     *
+     * @throws IOException
+     *     If the file cannot be read or is not valid LDIF.
+     */
+    public static List<LDAPEntry> read(File file, String[] attributes) throws IOException {
+        return read(file, "guacConfigGroup", attributes);
+    }
+
+    /**
+     * Reads the entries with the given object class from the given file.
+     *
+     * @param file
+     *     The LDIF file.
+     *
+     * @param objectClass
+     *     The object class of the entries to return.
+     *
+     * @param attributes
+     *     The attributes to keep of each entry.
+     *
+     * @return
+     *     The entries of the file with the given object class.
+     *
+     * @throws IOException
+     *     If the file cannot be read or is not valid LDIF.
+     */
+    public static List<LDAPEntry> read(File file, String objectClass, String[] attributes) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            LDIFReader reader = new LDIFReader(hasVersionLine(in) ? in : new SequenceInputStream(new ByteArrayInputStream(VERSION_LINE), in));
+            List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+            for (LDAPMessage message = reader.readMessage(); message != null; message = reader.readMessage()) {
+                if (!(message instanceof LDAPSearchResult)) continue; // Change records are ignored
+                LDAPEntry entry = ((LDAPSearchResult) message).getEntry();
+                if (hasObjectClass(entry, objectClass)) entries.add(reduce(entry, attributes));
+            }
+            return entries;
+        }
+        catch (LDAPException e) {
+            throw new IOException("Invalid LDIF in [" + file + "]: " + e.getMessage());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns whether the given stream starts with a version line. Leading
+     * comments and empty lines are skipped, leaving the stream at the start
+     * of the first other line; of that line, at most VERSION_SCAN_LIMIT bytes
+     * are read before the stream is reset (the mark limit).
+     */
+    private static boolean hasVersionLine(InputStream in) throws IOException {
+        boolean comment = false;
+        while (true) {
+            in.mark(VERSION_SCAN_LIMIT);
+            int first = in.read();
+            if (first < 0) return false;
+            if (first == '\n' || first == '\r') {
+                comment = false;
+                continue;
+            }
+            if (first == '#' || (comment && first == ' ')) { // Comment or its continuation
+                comment = true;
+                for (int c = in.read(); c >= 0 && c != '\n'; c = in.read());
+                continue;
+            }
+            StringBuilder line = new StringBuilder().append((char) first);
+            for (int count = 1, c; count < VERSION_SCAN_LIMIT && (c = in.read()) >= 0 && c != '\n'; count++) line.append((char) c);
+            in.reset();
+            return line.toString().trim().toLowerCase().startsWith("version:");
+        }
+    }
+
+    /**
+     * Returns whether the given entry has the given object class.
+     */
+    private static boolean hasObjectClass(LDAPEntry entry, String objectClass) {
+        LDAPAttribute objectClasses = entry.getAttribute("objectClass");
+        if (objectClasses == null) return false;
+        for (String value : objectClasses.getStringValueArray()) {
+            if (objectClass.equalsIgnoreCase(value)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a copy of the given entry with the given attributes only.
+     */
+    private static LDAPEntry reduce(LDAPEntry entry, String[] attributes) {
+        LDAPAttributeSet reduced = new LDAPAttributeSet();
+        for (Iterator<?> iter = entry.getAttributeSet().iterator(); iter.hasNext();) {
+            LDAPAttribute attribute = (LDAPAttribute) iter.next();
+            for (String name : attributes) {
+                if (name.equalsIgnoreCase(attribute.getName())) {
+                    reduced.add(attribute);
+                    break;
+                }
+            }
+        }
+        return new LDAPEntry(entry.getDN(), reduced);
+    }
+
+}
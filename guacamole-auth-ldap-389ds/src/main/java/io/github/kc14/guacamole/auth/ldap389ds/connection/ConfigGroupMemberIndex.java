@@ -0,0 +1,757 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+
+import io.github.kc14.com.novell.ldap.util.DNHelper;
+import io.github.kc14.guacamole.auth.ldap389ds.Lifecycle;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.client.DirectoryClient;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.CompressedBitSet;
+
+/**
+ * In-memory reverse index of all guacConfigGroups below the config base DN,
+ * mapping each (normalized) value of their member attribute to the groups.
+ * <p>
+ * The index is built by one scan of the config base and then refreshed
+ * incrementally in the background: each refresh only fetches the entries
+ * whose modifyTimestamp is not older than the newest one seen so far. The
+ * directory keeps no trace of deleted entries which could be searched the
+ * same way, so deletions are detected by a DN-only listing of the whole
+ * config base, which costs one search result per group. It is done with
+ * every refresh, or at most every ldap-member-index-deletion-check-interval
+ * seconds if set.
+ * <p>
+ * Readers always see an immutable snapshot, which is replaced as a whole
+ * by the refresher (copy on write), so lookups need no locking. The groups
+ * of a member are kept as a CompressedBitSet of dense group IDs. The
+ * entries are stored by ID over the range of the IDs of the indexed groups
+ * only, as the IDs of deleted groups are never reused (they key the cached
+ * connection trees, see ConnectionTreeCache) and are not compacted.
+ * <p>
+ * If ldap-member-index-snapshot-file is set, the entries are saved to that
+ * file after each change (see MemberIndexSnapshotFile). On first use, the
+ * index is loaded from the file instead of scanning the config base and
+ * then validated by an immediate incremental refresh in the background.
+ * <p>
+ * With ldap-member-index-off-heap, the entries and the memberships are kept
+ * encoded outside of the Java heap (see OffHeapEntryStore and
+ * OffHeapMemberIndex) and decoded only for the user logging in. An
+ * incremental refresh then encodes the changed entries only and copies the
+ * unchanged ones from buffer to buffer.
+ * <p>
+ * With ldap-config-ldif-file, the entries are read from that file instead
+ * of the LDAP server (see ConfigGroupLdifFile) and reloaded by the refresher
+ * when its modification time or size changed.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class ConfigGroupMemberIndex implements Lifecycle {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ConfigGroupMemberIndex.class);
+
+    /**
+     * The attributes fetched for each guacConfigGroup put into the index.
+     */
+    private static final String[] INDEX_ATTRIBUTES = { "cn", "guacConfigProtocol", "guacConfigParameter", "guacConfigBalancing",
+            "guacConfigMaxConnections", "guacConfigMaxConnectionsPerUser", "member", "modifyTimestamp" };
+
+    /**
+     * The attributes fetched for each guacConfigGroup put into the index, if
+     * the parameters are loaded lazily.
+     */
+    private static final String[] LAZY_INDEX_ATTRIBUTES = { "cn", "guacConfigProtocol", "guacConfigBalancing",
+            "guacConfigMaxConnections", "guacConfigMaxConnectionsPerUser", "member", "modifyTimestamp" };
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Client for the searches of the config base.
+     */
+    @Inject
+    private DirectoryClient directoryClient;
+
+    /**
+     * Registry of the dense IDs of the guac config groups.
+     */
+    @Inject
+    private GroupIdRegistry groupIdRegistry;
+
+    /**
+     * The current immutable state of the index, or null if not loaded yet.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Executor running the periodic background refresh, or null if not started yet.
+     */
+    private ScheduledExecutorService refresher;
+
+    /**
+     * Whether the index was stopped.
+     */
+    private boolean stopped;
+
+    /**
+     * The modification time of the LDIF file when it was read.
+     */
+    private long ldifLastModified;
+
+    /**
+     * The size of the LDIF file when it was read.
+     */
+    private long ldifLength;
+
+    /**
+     * The time (see System.currentTimeMillis) of the last check for deleted
+     * entries.
+     */
+    private long lastDeletionCheck;
+
+    /**
+     * The changes found by an incremental refresh.
+     */
+    private static class Changes {
+
+        /**
+         * The new or modified entries by normalized DN.
+         */
+        final Map<String, LDAPEntry> changed;
+
+        /**
+         * The normalized DNs of the deleted entries.
+         */
+        final Set<String> deleted;
+
+        Changes(Map<String, LDAPEntry> changed, Set<String> deleted) {
+            this.changed = changed;
+            this.deleted = deleted;
+        }
+
+    }
+
+    /**
+     * Marks the result of an incremental refresh which found no changes.
+     */
+    private static final Changes UNCHANGED = new Changes(Collections.<String, LDAPEntry>emptyMap(), Collections.<String>emptySet());
+
+    /**
+     * Immutable state of the index.
+     */
+    private static class Snapshot {
+
+        /**
+         * The IDs (see GroupIdRegistry) of all indexed guacConfigGroups by
+         * normalized DN.
+         */
+        final Map<String, Integer> groupIds;
+
+        /**
+         * The smallest ID of the indexed groups: the entries are stored by
+         * their ID minus this offset.
+         */
+        final int idOffset;
+
+        /**
+         * All indexed guacConfigGroup entries by their ID (minus idOffset),
+         * or null if kept off heap.
+         */
+        final LDAPEntry[] groupsById;
+
+        /**
+         * All indexed guacConfigGroup entries by their ID (minus idOffset),
+         * or null if kept on heap.
+         */
+        final OffHeapEntryStore offHeapGroups;
+
+        /**
+         * The IDs of the groups by normalized member DN, or null if kept off
+         * heap.
+         */
+        final Map<String, CompressedBitSet> memberships;
+
+        /**
+         * The IDs of the groups by normalized member DN, or null if kept on
+         * heap.
+         */
+        final OffHeapMemberIndex offHeapMemberships;
+
+        /**
+         * The newest modifyTimestamp (generalized time) seen in any indexed entry.
+         */
+        final String watermark;
+
+        Snapshot(Map<String, Integer> groupIds, int idOffset, LDAPEntry[] groupsById, OffHeapEntryStore offHeapGroups,
+                Map<String, CompressedBitSet> memberships, OffHeapMemberIndex offHeapMemberships, String watermark) {
+            this.groupIds = groupIds;
+            this.idOffset = idOffset;
+            this.groupsById = groupsById;
+            this.offHeapGroups = offHeapGroups;
+            this.memberships = memberships;
+            this.offHeapMemberships = offHeapMemberships;
+            this.watermark = watermark;
+        }
+
+        /**
+         * Returns the IDs of the groups of the given member, or null if none.
+         */
+        CompressedBitSet getGroupIds(String normalizedMemberDN) {
+            if (offHeapMemberships != null) return offHeapMemberships.get(normalizedMemberDN);
+            return memberships.get(normalizedMemberDN);
+        }
+
+        /**
+         * Returns the entry with the given ID, or null if not indexed.
+         */
+        LDAPEntry getEntry(int id) {
+            int index = id - idOffset;
+            if (offHeapGroups != null) return offHeapGroups.get(index);
+            return index >= 0 && index < groupsById.length ? groupsById[index] : null;
+        }
+
+        /**
+         * Returns the entry with the given normalized DN, or null if not
+         * indexed.
+         */
+        LDAPEntry getEntry(String normalizedDN) {
+            Integer id = groupIds.get(normalizedDN);
+            return id == null ? null : getEntry(id);
+        }
+
+        /**
+         * Returns all entries, decoded one by one while iterating if kept off
+         * heap.
+         */
+        Collection<LDAPEntry> getEntries() {
+            return new AbstractCollection<LDAPEntry>() {
+
+                @Override
+                public Iterator<LDAPEntry> iterator() {
+                    final Iterator<Integer> ids = groupIds.values().iterator();
+                    return new Iterator<LDAPEntry>() {
+
+                        @Override
+                        public boolean hasNext() {
+                            return ids.hasNext();
+                        }
+
+                        @Override
+                        public LDAPEntry next() {
+                            return getEntry(ids.next());
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return groupIds.size();
+                }
+
+            };
+        }
+
+    }
+
+    /**
+     * Returns the guacConfigGroup entries having the given DN as member.
+     * The index is loaded synchronously on first use and refreshed in the
+     * background afterwards.
+     *
+     * @param memberDN
+     *     The DN of the member (usually the user entry).
+     *
+     * @return
+     *     The guacConfigGroup entries having the given member, may be empty.
+     *
+     * @throws GuacamoleException
+     *     If the index cannot be loaded initially.
+     */
+    public Collection<LDAPEntry> getGroupEntries(String memberDN) throws GuacamoleException {
+        CompressedBitSet groupIds = getGroupIds(memberDN);
+        if (groupIds.isEmpty()) return Collections.<LDAPEntry>emptyList();
+        Snapshot current = getSnapshot();
+        int[] ids = groupIds.toArray();
+        List<LDAPEntry> entries = new ArrayList<LDAPEntry>(ids.length);
+        for (int id : ids) {
+            LDAPEntry entry = current.getEntry(id);
+            if (entry != null) entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the IDs (see GroupIdRegistry) of the guacConfigGroups having
+     * the given DN as member.
+     *
+     * @param memberDN
+     *     The DN of the member (usually the user entry).
+     *
+     * @return
+     *     The IDs of the groups having the given member (immutable), may be
+     *     empty.
+     *
+     * @throws GuacamoleException
+     *     If the index cannot be loaded initially.
+     */
+    public CompressedBitSet getGroupIds(String memberDN) throws GuacamoleException {
+        CompressedBitSet groupIds = getSnapshot().getGroupIds(DNHelper.normalize(memberDN));
+        return groupIds == null ? CompressedBitSet.EMPTY : groupIds;
+    }
+
+    /**
+     * Returns the guacConfigGroup entry with the given DN.
+     *
+     * @param groupDN
+     *     The DN of the guacConfigGroup.
+     *
+     * @return
+     *     The entry, or null if there is no such guacConfigGroup in the index.
+     *
+     * @throws GuacamoleException
+     *     If the index cannot be loaded initially.
+     */
+    public LDAPEntry getGroupEntry(String groupDN) throws GuacamoleException {
+        return getSnapshot().getEntry(DNHelper.normalize(groupDN));
+    }
+
+    /**
+     * Returns all guacConfigGroup entries of the index, loading the index if
+     * this is the first use.
+     *
+     * @return
+     *     All indexed guacConfigGroup entries.
+     *
+     * @throws GuacamoleException
+     *     If the index cannot be loaded initially.
+     */
+    public Collection<LDAPEntry> getAllGroupEntries() throws GuacamoleException {
+        return new ArrayList<LDAPEntry>(getSnapshot().getEntries());
+    }
+
+    /**
+     * Returns the number of guacConfigGroups currently in the index.
+     *
+     * @return
+     *     The number of indexed groups, 0 if the index is not loaded yet.
+     */
+    public int size() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.groupIds.size();
+    }
+
+    @Override
+    public void start() {
+        // The index is loaded on first use (or by the warm up)
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopped = true;
+        if (refresher != null) refresher.shutdownNow();
+    }
+
+    /**
+     * Returns the current snapshot, loading the index and starting the
+     * background refresh if this is the first use.
+     */
+    private Snapshot getSnapshot() throws GuacamoleException {
+        Snapshot current = snapshot;
+        if (current != null) return current;
+        synchronized (this) {
+            if (snapshot == null) {
+                boolean loaded = loadSnapshotFile();
+                if (!loaded) refresh();
+                startRefresher(loaded);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Starts the periodic background refresh of the index.
+     *
+     * @param validate
+     *     Whether to refresh immediately, as the index was loaded from the
+     *     snapshot file (even if the periodic refresh is disabled).
+     */
+    private synchronized void startRefresher(boolean validate) throws GuacamoleException {
+        if (stopped || refresher != null) return;
+        int interval = confService.getMemberIndexRefreshInterval();
+        if (interval <= 0 && !validate) {
+            logger.info("Background refresh of the member index is disabled.");
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ldap389ds-member-index-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                }
+                catch (GuacamoleException e) { // Keep the last snapshot and retry with the next run
+                    logger.warn("Refresh of the member index failed: {}", e.getMessage());
+                    logger.debug("Refresh of the member index failed.", e);
+                }
+                catch (RuntimeException e) { // Never let the refresher die
+                    logger.error("Unexpected error while refreshing the member index.", e);
+                }
+            }
+        };
+        if (interval > 0)
+            refresher.scheduleWithFixedDelay(refresh, validate ? 0 : interval, interval, TimeUnit.SECONDS);
+        else
+            refresher.execute(refresh);
+    }
+
+    /**
+     * Loads the index from the snapshot file, if configured and valid.
+     *
+     * @return
+     *     true, if loaded.
+     */
+    private boolean loadSnapshotFile() throws GuacamoleException {
+        String path = confService.getMemberIndexSnapshotFile();
+        if (path == null || confService.getConfigLdifFile() != null) return false;
+        long start = System.currentTimeMillis();
+        try {
+            List<LDAPEntry> entries = MemberIndexSnapshotFile.read(new File(path), getSnapshotKey());
+            if (entries == null) {
+                logger.info("No valid member index snapshot in [{}] => config base is scanned.", path);
+                return false;
+            }
+            Map<String, LDAPEntry> groups = new HashMap<String, LDAPEntry>(entries.size() * 4 / 3 + 1);
+            for (LDAPEntry entry : entries) groups.put(DNHelper.normalize(entry.getDN()), entry);
+            snapshot = build(groups, groupIdRegistry, confService.getMemberIndexOffHeap());
+            logger.info("Member index loaded with {} guacConfigGroups from [{}] in {} ms, validating in the background.",
+                    new Object[] { groups.size(), path, System.currentTimeMillis() - start });
+            return true;
+        }
+        catch (IOException e) {
+            logger.warn("Cannot read member index snapshot [{}]: {}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Saves the entries of the given snapshot to the snapshot file, if
+     * configured. Failures are logged only, as the snapshot is an
+     * optimization.
+     */
+    private void saveSnapshotFile(Snapshot saved) throws GuacamoleException {
+        String path = confService.getMemberIndexSnapshotFile();
+        if (path == null || confService.getConfigLdifFile() != null) return;
+        try {
+            MemberIndexSnapshotFile.write(new File(path), getSnapshotKey(), saved.getEntries());
+        }
+        catch (IOException e) {
+            logger.warn("Cannot write member index snapshot [{}]: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the key of the snapshot file: entries read with another config
+     * base, filter or attributes are not used.
+     */
+    private String getSnapshotKey() throws GuacamoleException {
+        return confService.getGuacConfigGroupsBaseDN() + '\n' + confService.getMemberIndexFilter() + '\n' + confService.getLazyParameters();
+    }
+
+    /**
+     * Refreshes the index: the first call scans the whole config base,
+     * subsequent calls only fetch the entries changed since the last refresh
+     * and drop the entries which no longer exist.
+     *
+     * @throws GuacamoleException
+     *     If the LDAP server cannot be reached or the search fails.
+     */
+    public synchronized void refresh() throws GuacamoleException {
+
+        String ldifPath = confService.getConfigLdifFile();
+        if (ldifPath != null) {
+            refreshFromLdifFile(new File(ldifPath));
+            return;
+        }
+
+        String baseDN = confService.getGuacConfigGroupsBaseDN();
+        String filter = confService.getMemberIndexFilter();
+        String[] attributes = confService.getLazyParameters() ? LAZY_INDEX_ATTRIBUTES : INDEX_ATTRIBUTES;
+        Snapshot current = snapshot;
+
+        // Incremental refresh, if possible
+        if (current != null && current.watermark != null) {
+            long now = System.currentTimeMillis();
+            boolean checkDeletions = now - lastDeletionCheck >= confService.getMemberIndexDeletionCheckInterval() * 1000L;
+            if (checkDeletions) lastDeletionCheck = now;
+            Changes changes = refreshIncrementally(directoryClient, baseDN, filter, attributes, current, checkDeletions);
+            if (changes == UNCHANGED) return;
+            if (changes != null) {
+                snapshot = update(current, changes, groupIdRegistry, confService.getMemberIndexOffHeap());
+                logger.debug("Member index refreshed, now {} guacConfigGroups.", snapshot.groupIds.size());
+                saveSnapshotFile(snapshot);
+                return;
+            }
+        }
+
+        // Initial load (or no incremental refresh possible) => one scan of the whole config base
+        Map<String, LDAPEntry> groups = new HashMap<String, LDAPEntry>();
+        for (LDAPEntry entry : directoryClient.search(baseDN, LDAPConnection.SCOPE_SUB, filter, attributes)) {
+            groups.put(DNHelper.normalize(entry.getDN()), entry);
+        }
+        snapshot = build(groups, groupIdRegistry, confService.getMemberIndexOffHeap());
+        lastDeletionCheck = System.currentTimeMillis();
+        logger.info("Member index loaded with {} guacConfigGroups.", groups.size());
+        saveSnapshotFile(snapshot);
+
+    }
+
+    /**
+     * Reads the entries from the given LDIF file, if changed since it was
+     * read last.
+     */
+    private void refreshFromLdifFile(File file) throws GuacamoleException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (snapshot != null && lastModified == ldifLastModified && length == ldifLength) return; // Unchanged
+        try {
+            List<LDAPEntry> entries = ConfigGroupLdifFile.read(file, INDEX_ATTRIBUTES);
+            Map<String, LDAPEntry> groups = new HashMap<String, LDAPEntry>(entries.size() * 4 / 3 + 1);
+            for (LDAPEntry entry : entries) groups.put(DNHelper.normalize(entry.getDN()), entry);
+            snapshot = build(groups, groupIdRegistry, confService.getMemberIndexOffHeap());
+            ldifLastModified = lastModified;
+            ldifLength = length;
+            logger.info("Member index loaded with {} guacConfigGroups from [{}].", groups.size(), file);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Error while reading guac configuration groups from [" + file + "].", e);
+        }
+    }
+
+    /**
+     * Fetches the entries changed since the watermark of the given snapshot
+     * and, if requested, lists the DNs of all entries to detect deletions.
+     *
+     * @return
+     *     UNCHANGED, if nothing changed, the changes, or null if the changes
+     *     cannot be applied incrementally (entries showed up which are older
+     *     than the watermark, e.g. by a modrdn into the config base).
+     */
+    private static Changes refreshIncrementally(DirectoryClient directoryClient, String baseDN, String filter, String[] attributes, Snapshot current,
+            boolean checkDeletions) throws GuacamoleException {
+
+        // Fetch changed entries only
+        Map<String, LDAPEntry> changed = new HashMap<String, LDAPEntry>();
+        String changedFilter = "(&" + filter + "(modifyTimestamp>=" + current.watermark + "))";
+        for (LDAPEntry entry : directoryClient.search(baseDN, LDAPConnection.SCOPE_SUB, changedFilter, attributes)) {
+            changed.put(DNHelper.normalize(entry.getDN()), entry);
+        }
+
+        // List the DNs of all entries to detect deletions (else assume none)
+        Set<String> present = new HashSet<String>();
+        if (checkDeletions) {
+            for (LDAPEntry entry : directoryClient.search(baseDN, LDAPConnection.SCOPE_SUB, filter, new String[] { LDAPConnection.NO_ATTRS })) {
+                present.add(DNHelper.normalize(entry.getDN()));
+            }
+        }
+        else {
+            present.addAll(current.groupIds.keySet());
+            present.addAll(changed.keySet());
+        }
+
+        // Compare with the current state (decoding the changed entries only)
+        Set<String> deleted = new HashSet<String>();
+        for (String dn : current.groupIds.keySet()) {
+            if (!present.contains(dn)) deleted.add(dn);
+        }
+        for (String dn : present) {
+            if (!current.groupIds.containsKey(dn) && !changed.containsKey(dn)) return null;
+        }
+        changed.keySet().retainAll(present); // Deleted after the fetch
+        for (Iterator<Map.Entry<String, LDAPEntry>> iter = changed.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<String, LDAPEntry> entry = iter.next();
+            LDAPEntry previous = current.getEntry(entry.getKey());
+            if (previous != null && getModifyTimestamp(previous).equals(getModifyTimestamp(entry.getValue()))) iter.remove(); // Seen already
+        }
+        if (changed.isEmpty() && deleted.isEmpty()) return UNCHANGED;
+        return new Changes(changed, deleted);
+
+    }
+
+    /**
+     * Applies the given changes to the given snapshot. Off heap, only the
+     * changed entries are encoded, the unchanged entries and memberships are
+     * copied from the buffers of the given snapshot.
+     */
+    private static Snapshot update(Snapshot current, Changes changes, GroupIdRegistry groupIdRegistry, boolean offHeap) {
+
+        // On heap (or switched to or from off heap) => rebuild from the entries
+        if (!offHeap || current.offHeapGroups == null) {
+            Map<String, LDAPEntry> groups = new HashMap<String, LDAPEntry>(current.groupIds.size() * 4 / 3 + 1);
+            for (String dn : current.groupIds.keySet()) {
+                if (!changes.deleted.contains(dn) && !changes.changed.containsKey(dn)) groups.put(dn, current.getEntry(dn));
+            }
+            groups.putAll(changes.changed);
+            return build(groups, groupIdRegistry, offHeap);
+        }
+
+        // Off heap => drop the deleted and changed groups from the memberships and add the changed ones
+        Map<String, Integer> groupIds = new HashMap<String, Integer>(current.groupIds);
+        CompressedBitSet.Builder removedGroupIds = new CompressedBitSet.Builder();
+        for (String dn : changes.deleted) removedGroupIds.add(groupIds.remove(dn));
+        List<OffHeapMemberIndex.Membership> added = new ArrayList<OffHeapMemberIndex.Membership>();
+        String watermark = current.watermark;
+        for (Map.Entry<String, LDAPEntry> group : changes.changed.entrySet()) {
+            int groupId = groupIdRegistry.getId(group.getKey());
+            if (groupIds.put(group.getKey(), groupId) != null) removedGroupIds.add(groupId);
+            String modifyTimestamp = getModifyTimestamp(group.getValue());
+            if (modifyTimestamp.compareTo(watermark) > 0) watermark = modifyTimestamp;
+            addMemberships(added, group.getValue(), groupId);
+        }
+        int idOffset = getIdOffset(groupIds);
+        OffHeapEntryStore.Builder entries = new OffHeapEntryStore.Builder(getIdRange(groupIds, idOffset), current.offHeapGroups);
+        for (Map.Entry<String, Integer> group : groupIds.entrySet()) {
+            LDAPEntry entry = changes.changed.get(group.getKey());
+            if (entry != null) entries.add(group.getValue() - idOffset, entry);
+            else entries.copy(group.getValue() - idOffset, group.getValue() - current.idOffset);
+        }
+        OffHeapMemberIndex memberships = OffHeapMemberIndex.merge(current.offHeapMemberships, removedGroupIds.build(), added);
+        return new Snapshot(Collections.unmodifiableMap(groupIds), idOffset, null, entries.build(), null, memberships, watermark);
+
+    }
+
+    /**
+     * Builds an immutable snapshot from the given groups, computing the
+     * member index (as sets of group IDs) and the watermark, and encoding
+     * the entries and memberships off heap if requested.
+     */
+    private static Snapshot build(Map<String, LDAPEntry> groups, GroupIdRegistry groupIdRegistry, boolean offHeap) {
+        Map<String, Integer> groupIds = new HashMap<String, Integer>(groups.size() * 4 / 3 + 1);
+        String watermark = null;
+        for (Map.Entry<String, LDAPEntry> group : groups.entrySet()) {
+            groupIds.put(group.getKey(), groupIdRegistry.getId(group.getKey()));
+            String modifyTimestamp = getModifyTimestamp(group.getValue());
+            if (watermark == null || modifyTimestamp.compareTo(watermark) > 0) watermark = modifyTimestamp;
+        }
+        if (watermark != null && watermark.isEmpty()) watermark = null; // No timestamps => no incremental refresh
+        int idOffset = getIdOffset(groupIds);
+        int idRange = getIdRange(groupIds, idOffset);
+
+        // Off heap => encode the entries and the sorted memberships
+        if (offHeap) {
+            OffHeapEntryStore.Builder entries = new OffHeapEntryStore.Builder(idRange, null);
+            List<OffHeapMemberIndex.Membership> added = new ArrayList<OffHeapMemberIndex.Membership>();
+            for (Map.Entry<String, Integer> group : groupIds.entrySet()) {
+                LDAPEntry entry = groups.get(group.getKey());
+                entries.add(group.getValue() - idOffset, entry);
+                addMemberships(added, entry, group.getValue());
+            }
+            OffHeapMemberIndex memberships = OffHeapMemberIndex.merge(OffHeapMemberIndex.EMPTY, CompressedBitSet.EMPTY, added);
+            return new Snapshot(Collections.unmodifiableMap(groupIds), idOffset, null, entries.build(), null, memberships, watermark);
+        }
+
+        Map<String, CompressedBitSet.Builder> membershipBuilders = new HashMap<String, CompressedBitSet.Builder>();
+        LDAPEntry[] groupsById = new LDAPEntry[idRange];
+        for (Map.Entry<String, Integer> group : groupIds.entrySet()) {
+            LDAPEntry entry = groups.get(group.getKey());
+            groupsById[group.getValue() - idOffset] = entry;
+            LDAPAttribute member = entry.getAttribute("member");
+            if (member == null) continue;
+            for (String memberDN : member.getStringValueArray()) {
+                String normalizedMemberDN = DNHelper.normalize(memberDN);
+                CompressedBitSet.Builder memberGroupIds = membershipBuilders.get(normalizedMemberDN);
+                if (memberGroupIds == null) {
+                    memberGroupIds = new CompressedBitSet.Builder();
+                    membershipBuilders.put(normalizedMemberDN, memberGroupIds);
+                }
+                memberGroupIds.add(group.getValue());
+            }
+        }
+        Map<String, CompressedBitSet> memberships = new HashMap<String, CompressedBitSet>(membershipBuilders.size() * 4 / 3 + 1);
+        for (Map.Entry<String, CompressedBitSet.Builder> member : membershipBuilders.entrySet())
+            memberships.put(member.getKey(), member.getValue().build());
+        return new Snapshot(Collections.unmodifiableMap(groupIds), idOffset, groupsById, null, Collections.unmodifiableMap(memberships), null, watermark);
+    }
+
+    /**
+     * Adds the memberships of the members of the given group.
+     */
+    private static void addMemberships(List<OffHeapMemberIndex.Membership> memberships, LDAPEntry group, int groupId) {
+        LDAPAttribute member = group.getAttribute("member");
+        if (member == null) return;
+        for (String memberDN : member.getStringValueArray()) memberships.add(new OffHeapMemberIndex.Membership(DNHelper.normalize(memberDN), groupId));
+    }
+
+    /**
+     * Returns the smallest of the given IDs, 0 if there are none: the entries
+     * are stored by their ID minus this offset.
+     */
+    private static int getIdOffset(Map<String, Integer> groupIds) {
+        int minId = Integer.MAX_VALUE;
+        for (int groupId : groupIds.values()) minId = Math.min(minId, groupId);
+        return groupIds.isEmpty() ? 0 : minId;
+    }
+
+    /**
+     * Returns the number of IDs from the given offset up to the largest of
+     * the given IDs.
+     */
+    private static int getIdRange(Map<String, Integer> groupIds, int idOffset) {
+        int maxId = idOffset - 1;
+        for (int groupId : groupIds.values()) maxId = Math.max(maxId, groupId);
+        return maxId + 1 - idOffset;
+    }
+
+    /**
+     * Returns the modifyTimestamp of the given entry, or the empty string if unknown.
+     */
+    private static String getModifyTimestamp(LDAPEntry entry) {
+        LDAPAttribute modifyTimestamp = entry.getAttribute("modifyTimestamp");
+        return modifyTimestamp == null ? "" : modifyTimestamp.getStringValue();
+    }
+
+}
@@ -0,0 +1,138 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.kc14.guacamole.auth.ldap389ds.utils.ArrayMap;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.Interner;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.ParameterTemplate;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.UserAttributeTokens;
+
+/**
+ * The immutable base configuration of a guac config group: the protocol and
+ * the precompiled parameter values, shared by all users. The tokens of a user
+ * are applied by TemplatedGuacamoleConfiguration when a parameter is read.
+ * <p>
+ * Parameter names, values and whole parameter sets are interned, so equal
+ * ones (e.g. port=3389 in many groups) exist only once in the heap, and the
+ * parameters are kept in a compact ArrayMap.
+ * <p>
+ * The user attribute tokens referenced by a compiled template are registered
+ * with UserAttributeTokens, so their attributes are read at login.
+ *
+ * @author Frank Kemmer
+ */
+public final class ConfigurationTemplate {
+
+    /**
+     * The template without parameters.
+     */
+    public static final ConfigurationTemplate EMPTY = new ConfigurationTemplate(null, ArrayMap.copyOf(Collections.<String, ParameterTemplate>emptyMap()));
+
+    /**
+     * The canonical protocols and parameter names.
+     */
+    private static final Interner<String> NAMES = new Interner<String>();
+
+    /**
+     * The canonical compiled parameter values.
+     */
+    private static final Interner<ParameterTemplate> VALUES = new Interner<ParameterTemplate>();
+
+    /**
+     * The canonical parameter sets.
+     */
+    private static final Interner<Map<String, ParameterTemplate>> PARAMETER_SETS = new Interner<Map<String, ParameterTemplate>>();
+
+    /**
+     * The protocol, or null if unknown.
+     */
+    private final String protocol;
+
+    /**
+     * The compiled parameter values by name.
+     */
+    private final Map<String, ParameterTemplate> parameters;
+
+    /**
+     * Whether any parameter value references a token.
+     */
+    private final boolean hasTokens;
+
+    private ConfigurationTemplate(String protocol, Map<String, ParameterTemplate> parameters) {
+        this.protocol = protocol;
+        this.parameters = parameters;
+        boolean tokens = false;
+        for (ParameterTemplate parameter : parameters.values()) tokens |= parameter.hasTokens();
+        this.hasTokens = tokens;
+    }
+
+    /**
+     * Compiles the given parameters into a template.
+     *
+     * @param protocol
+     *     The protocol, or null if unknown.
+     *
+     * @param parameters
+     *     The parameter values by name, may contain token references.
+     *
+     * @return
+     *     The compiled template.
+     */
+    public static ConfigurationTemplate compile(String protocol, Map<String, String> parameters) {
+        Map<String, ParameterTemplate> compiled = new HashMap<String, ParameterTemplate>(parameters.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            ParameterTemplate template = VALUES.intern(ParameterTemplate.compile(parameter.getValue()));
+            if (template == null) continue;
+            compiled.put(NAMES.intern(parameter.getKey()), template);
+            for (String tokenName : template.getTokenNames()) UserAttributeTokens.register(tokenName);
+        }
+        return new ConfigurationTemplate(NAMES.intern(protocol), PARAMETER_SETS.intern(ArrayMap.copyOf(compiled)));
+    }
+
+    /**
+     * Returns the protocol.
+     *
+     * @return
+     *     The protocol, or null if unknown.
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Returns the compiled value of the given parameter.
+     *
+     * @param name
+     *     The name of the parameter.
+     *
+     * @return
+     *     The compiled value, or null if the parameter is not set.
+     */
+    public ParameterTemplate getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * Returns the names of all parameters.
+     *
+     * @return
+     *     The unmodifiable set of parameter names.
+     */
+    public Set<String> getParameterNames() {
+        return parameters.keySet();
+    }
+
+    /**
+     * Returns whether any parameter value references a token.
+     *
+     * @return
+     *     true, if tokens have to be applied.
+     */
+    public boolean hasTokens() {
+        return hasTokens;
+    }
+
+}
@@ -0,0 +1,160 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.inject.Singleton;
+
+import io.github.kc14.com.novell.ldap.util.DNHelper;
+
+/**
+ * Cache of the compiled ConfigurationTemplate of each guac config group, so
+ * all users of a guac config group share one immutable template and the
+ * parameter values are only parsed and compiled again when they changed.
+ * The parameter values are compared regardless of the order in which the
+ * directory returns them; if the cache is full, the least recently used
+ * template is evicted.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class ConfigurationTemplateCache {
+
+    /**
+     * The maximum number of cached templates (e.g. exceeded by many deleted
+     * groups over time).
+     */
+    private static final int MAX_TEMPLATES = 100000;
+
+    /**
+     * Orders parameter values (name=value) by name. The sort is stable, so
+     * the order of values of the same parameter is kept, as the last one
+     * wins when compiled.
+     */
+    private static final Comparator<String> BY_NAME = new Comparator<String>() {
+
+        @Override
+        public int compare(String value1, String value2) {
+            return getName(value1).compareTo(getName(value2));
+        }
+
+        private String getName(String value) {
+            int eq = value.indexOf('=');
+            return eq < 0 ? value : value.substring(0, eq);
+        }
+
+    };
+
+    /**
+     * The cached templates by normalized DN of the guac config group (least
+     * recently used are evicted).
+     */
+    private final Map<String, CachedTemplate> templates = new LinkedHashMap<String, CachedTemplate>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedTemplate> eldest) {
+            return size() > MAX_TEMPLATES;
+        }
+
+    };
+
+    /**
+     * A template together with the attribute values it was compiled from.
+     */
+    private static class CachedTemplate {
+
+        final String protocol;
+
+        /**
+         * The parameter values, sorted by name (see sort).
+         */
+        final String[] parameterValues;
+
+        final ConfigurationTemplate template;
+
+        CachedTemplate(String protocol, String[] parameterValues, ConfigurationTemplate template) {
+            this.protocol = protocol;
+            this.parameterValues = parameterValues;
+            this.template = template;
+        }
+
+        boolean isCompiledFrom(String protocol, String[] parameterValues) {
+            return this.protocol.equals(protocol) && Arrays.equals(this.parameterValues, parameterValues);
+        }
+
+    }
+
+    /**
+     * Returns a copy of the given parameter values sorted by name, so equal
+     * parameters returned in a different order compare equal.
+     */
+    private static String[] sort(String[] parameterValues) {
+        String[] sorted = parameterValues.clone();
+        Arrays.sort(sorted, BY_NAME);
+        return sorted;
+    }
+
+    /**
+     * Returns the cached template of the given guac config group, if it was
+     * compiled from the given attribute values.
+     *
+     * @param guacConfigGroupDN
+     *     The DN of the guac config group.
+     *
+     * @param protocol
+     *     The value of guacConfigProtocol.
+     *
+     * @param parameterValues
+     *     The values of guacConfigParameter (name=value), may be empty.
+     *
+     * @return
+     *     The shared template, or null if not cached or the values changed.
+     */
+    public ConfigurationTemplate get(String guacConfigGroupDN, String protocol, String[] parameterValues) {
+        String key = DNHelper.normalize(guacConfigGroupDN);
+        CachedTemplate cached;
+        synchronized (this) {
+            cached = templates.get(key);
+        }
+        if (cached != null && cached.isCompiledFrom(protocol, sort(parameterValues))) return cached.template;
+        return null;
+    }
+
+    /**
+     * Caches the template of the given guac config group.
+     *
+     * @param guacConfigGroupDN
+     *     The DN of the guac config group.
+     *
+     * @param protocol
+     *     The value of guacConfigProtocol.
+     *
+     * @param parameterValues
+     *     The values of guacConfigParameter the template was compiled from.
+     *
+     * @param template
+     *     The compiled template.
+     */
+    public void put(String guacConfigGroupDN, String protocol, String[] parameterValues, ConfigurationTemplate template) {
+        String key = DNHelper.normalize(guacConfigGroupDN);
+        CachedTemplate cached = new CachedTemplate(protocol, sort(parameterValues), template);
+        synchronized (this) {
+            templates.put(key, cached);
+        }
+    }
+
+    /**
+     * Returns the number of cached templates.
+     *
+     * @return
+     *     The number of cached templates.
+     */
+    public synchronized int size() {
+        return templates.size();
+    }
+
+}
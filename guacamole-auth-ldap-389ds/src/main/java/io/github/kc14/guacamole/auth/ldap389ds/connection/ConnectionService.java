@@ -24,22 +24,26 @@ package io.github.kc14.guacamole.auth.ldap389ds.connection;
 
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.glyptodon.guacamole.GuacamoleException;
 import org.glyptodon.guacamole.GuacamoleServerException;
 import org.glyptodon.guacamole.net.auth.AuthenticatedUser;
 import org.glyptodon.guacamole.net.auth.Connection;
-import org.glyptodon.guacamole.net.auth.simple.SimpleConnection;
 import org.glyptodon.guacamole.protocol.GuacamoleConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.novell.ldap.LDAPAttribute;
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPEntry;
@@ -47,9 +51,13 @@ import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPSearchResults;
 
 import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.config.GroupResolutionMode;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.EscapingService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.client.DirectoryClient;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearch;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearchGuacConfigGroup;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearchUsersGroups;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.UserAttributeTokens;
 import net.sourceforge.guacamole.net.auth.ldap389ds.LDAP389dsAuthenticationProvider;
 
 /**
@@ -59,7 +67,8 @@ import net.sourceforge.guacamole.net.auth.ldap389ds.LDAP389dsAuthenticationProvi
  * @author Michael Jumper
  * @author Frank Kemmer
  */
-public class ConnectionService {
+@Singleton
+public class ConnectionService implements LazyGuacamoleConfiguration.ParameterLoader {
 
     /**
      * Logger for this class.
@@ -90,14 +99,63 @@ public class ConnectionService {
     @Inject
     private LDAPSearchGuacConfigGroup ldapSearchGuacConfigGroup;
 
+    /**
+     * Index of the guac config groups by member (used in member index mode).
+     */
+    @Inject
+    private ConfigGroupMemberIndex configGroupMemberIndex;
+
+    /**
+     * Client for loading the parameters of guac config groups lazily.
+     */
+    @Inject
+    private DirectoryClient directoryClient;
+
+    /**
+     * Cache of the shared configuration templates of the guac config groups.
+     */
+    @Inject
+    private ConfigurationTemplateCache configurationTemplateCache;
+
+    /**
+     * The parameters inherited from guacConfigDefaults folders.
+     */
+    @Inject
+    private ParameterDefaults parameterDefaults;
+
+    /**
+     * Service for mapping the DNs of guac config groups to identifiers.
+     */
+    @Inject
+    private IdentifierService identifierService;
+
+    /**
+     * Registry of the active connections of all users.
+     */
+    @Inject
+    private ActiveConnectionRegistry activeConnectionRegistry;
+
+    /**
+     * The attributes of a guac config group fetched at login, if the
+     * parameters are loaded lazily.
+     */
+    private static final String[] GUAC_CONFIG_GROUP_LAZY_ATTRIBUTES = { "cn", "guacConfigProtocol", "guacConfigBalancing",
+            "guacConfigMaxConnections", "guacConfigMaxConnectionsPerUser" };
+
     private static final List<String> GUAC_CONFIG_GROUP_ATTRIBUTES = new ArrayList<String>() {{
         add("cn");
         add("guacConfigProtocol");
         add("guacConfigParameter");
+        add("guacConfigBalancing");
+        add("guacConfigMaxConnections");
+        add("guacConfigMaxConnectionsPerUser");
     }};
 
 	/**
-	 * Search for the authenticated user entry 
+	 * Search for the authenticated user entry, reading the user attribute
+	 * tokens in the same search (see UserAttributeTokens): their attributes
+	 * are removed from the returned entries, unless requested by the LDAP
+	 * URL, so only the attributes holding groups remain
 	 * @param ldapConnection
 	 *     The LDAP connection to use, bind with the default bind DN,
 	 *     i.e. the technical user to query the LDAP directory service
@@ -105,12 +163,23 @@ public class ConnectionService {
 	 *     The authenticated user
 	 * 
 	 * @return
+	 *     The user entries found, or null if there is no such user entry
 	 * @throws GuacamoleException
 	 */
-	protected LDAPSearchResults ldapsearchUsersGroups(LDAPConnection ldapConnection, AuthenticatedUser user) throws GuacamoleException {
+	protected List<LDAPEntry> ldapsearchUsersGroups(LDAPConnection ldapConnection, AuthenticatedUser user) throws GuacamoleException {
         try {
-            LDAPSearchResults userEntryMemberOfSearchResult = ldapSearchUsersGroups.searchUsersGroups(ldapConnection, user);
-            return userEntryMemberOfSearchResult;      
+            Collection<String> tokenNames = UserAttributeTokens.getTokenNames();
+            String[] tokenAttributes = UserAttributeTokens.getAttributeNames(tokenNames);
+            LDAPSearchResults userEntryMemberOfSearchResult = ldapSearchUsersGroups.searchUsersGroups(ldapConnection, user, tokenAttributes);
+            String[] addedAttributes = UserAttributeTokens.getAddedAttributes(ldapSearchUsersGroups.getAttributes(user), tokenAttributes);
+            List<LDAPEntry> userEntries = new ArrayList<LDAPEntry>(1);
+            while (userEntryMemberOfSearchResult.hasMore()) {
+                LDAPEntry userEntry = userEntryMemberOfSearchResult.next();
+                if (userEntries.isEmpty() && tokenNames.size() > 0) setAttributeTokens(user, UserAttributeTokens.read(userEntry, tokenNames));
+                UserAttributeTokens.removeAttributes(userEntry, addedAttributes);
+                userEntries.add(userEntry);
+            }
+            return userEntries;
         }
         catch (LDAPException e) {
         	if (e.getResultCode() == LDAPException.NO_SUCH_OBJECT) {
@@ -139,7 +208,8 @@ public class ConnectionService {
 	 */
 	protected LDAPSearchResults ldapsearchGuacConfigGroup(LDAPConnection ldapConnection, String guacConfigGroup) throws GuacamoleException {
 		try {
-			LDAPSearchResults guacConfigGroupsSearchResult = ldapSearchGuacConfigGroup.ldapsearchGuacConfigGroup(ldapConnection, guacConfigGroup);
+			String[] attributes = confService.getLazyParameters() ? GUAC_CONFIG_GROUP_LAZY_ATTRIBUTES : null;
+			LDAPSearchResults guacConfigGroupsSearchResult = ldapSearchGuacConfigGroup.ldapsearchGuacConfigGroup(ldapConnection, guacConfigGroup, attributes);
 			return guacConfigGroupsSearchResult;
 		} catch (LDAPException e) {
 			throw new GuacamoleServerException("Error while searching for guac configuration group `" + guacConfigGroup + "'.", e);
@@ -180,54 +250,128 @@ public class ConnectionService {
 	}
 	
 	/**
-	 * Iterate over all guac config groups in the given ldap search result and
-	 * process the following attributes in the entry to create a connection config:
+	 * Returns the shared template of the given guac config group, compiling
+	 * it only if it is not cached or its attributes (or inherited parameters) changed
+	 * @param guacConfigGroupDN
+	 *     The DN of the guac config group
+	 * @param protocol
+	 *     The value of the guacConfigProtocol attribute
+	 * @param parameterAttribute
+	 *     The guacConfigParameter attribute, may be null
+	 * @return
+	 *     The shared template
+	 * @throws GuacamoleException
+	 */
+	protected ConfigurationTemplate getConfigurationTemplate(String guacConfigGroupDN, String protocol, LDAPAttribute parameterAttribute) throws GuacamoleException {
+		String[] parameterValues = ParameterDefaults.merge(parameterDefaults.getInheritedParameters(guacConfigGroupDN),
+				parameterAttribute == null ? ParameterDefaults.NO_PARAMETERS : parameterAttribute.getStringValueArray());
+		ConfigurationTemplate template = configurationTemplateCache.get(guacConfigGroupDN, protocol, parameterValues);
+		if (template == null) {
+			GuacamoleConfiguration config = new GuacamoleConfiguration();
+			processGuacConfigGroupParameters(new LDAPAttribute("guacConfigParameter", parameterValues), config);
+			template = ConfigurationTemplate.compile(protocol, config.getParameters());
+			configurationTemplateCache.put(guacConfigGroupDN, protocol, parameterValues, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Process the following attributes in the given guac config group entry to create a connection config:
 	 * 
 	 *    cn: the guac config group name
 	 *    guacConfigProtocol: the protocol, eg. VPN, SSH, etc.
 	 *    guacConfigParameter: more parameters to use for configuration of the guac connection
+	 *    guacConfigBalancing: TRUE, if the parent folder is a balancing connection group
+	 *    guacConfigMaxConnections: the maximum number of active connections of all users
+	 *    guacConfigMaxConnectionsPerUser: the maximum number of active connections of one user
+	 * @param guacConfigGroupEntry
+	 *     The LDAP entry of the guac config group to process
+	 * If the parameters are loaded lazily and the entry has none, the connection
+	 * gets a LazyGuacamoleConfiguration, which loads them when it is used.
+	 * @return
+	 *     The connection configured by the given guac config group or null,
+	 *     if the entry is not a valid guac config group
+	 * @throws GuacamoleException
+	 */
+	protected Connection processGuacConfigGroupLdapEntry(LDAPEntry guacConfigGroupEntry) throws GuacamoleException {
+
+		// Get common name (CN)
+		LDAPAttribute cn = guacConfigGroupEntry.getAttribute("cn");
+		if (cn == null) {
+			logger.warn("guacConfigGroup is missing a cn (unexpected, entry ignored).");
+			return null;
+		}
+
+		// Get associated protocol
+		LDAPAttribute protocol = guacConfigGroupEntry.getAttribute("guacConfigProtocol");
+		if (protocol == null) {
+			logger.warn("guacConfigGroup \"{}\" is missing the " + "required \"guacConfigProtocol\" attribute (entry ingnored).", cn.getStringValue());
+			return null;
+		}
+
+		// Get parameters, if any
+		LDAPAttribute parameterAttribute = guacConfigGroupEntry.getAttribute("guacConfigParameter");
+
+		GuacamoleConfiguration config;
+		if (parameterAttribute == null && confService.getLazyParameters()) { // Load parameters when used
+			config = new LazyGuacamoleConfiguration(protocol.getStringValue(), guacConfigGroupEntry.getDN(), this);
+		}
+		else { // Share one template per guac config group, tokens are applied when used
+			config = new TemplatedGuacamoleConfiguration(getConfigurationTemplate(guacConfigGroupEntry.getDN(), protocol.getStringValue(), parameterAttribute));
+		}
+
+		// Member of the balancing connection group of its folder?
+		LDAPAttribute balancing = guacConfigGroupEntry.getAttribute("guacConfigBalancing");
+
+		// Store connection using CN as name && DN (or its compact form) as identifier
+		String name = cn.getStringValue();
+		String identifier = identifierService.toIdentifier(guacConfigGroupEntry.getDN());
+		Connection connection = new TrackedConnection(name, identifier, config, activeConnectionRegistry,
+				balancing != null && "TRUE".equalsIgnoreCase(balancing.getStringValue()),
+				getLimit(guacConfigGroupEntry, "guacConfigMaxConnections"),
+				getLimit(guacConfigGroupEntry, "guacConfigMaxConnectionsPerUser"),
+				null);
+		connection.setParentIdentifier(LDAP389dsAuthenticationProvider.ROOT_CONNECTION_GROUP); // May be overridden when creating connection groups
+		return connection;
+	}
+
+	/**
+	 * Returns the limit in the given attribute of a guac config group entry
+	 * @param guacConfigGroupEntry
+	 *     The LDAP entry of the guac config group
+	 * @param attributeName
+	 *     The name of the attribute holding the limit
+	 * @return
+	 *     The limit, 0 (no limit) if not set or invalid
+	 */
+	protected int getLimit(LDAPEntry guacConfigGroupEntry, String attributeName) {
+		LDAPAttribute attribute = guacConfigGroupEntry.getAttribute(attributeName);
+		if (attribute == null) return 0;
+		try {
+			return Math.max(0, Integer.parseInt(attribute.getStringValue().trim()));
+		}
+		catch (NumberFormatException e) {
+			logger.warn("Invalid {} [{}] in guac config group [{}] => no limit.", new Object[] { attributeName, attribute.getStringValue(), guacConfigGroupEntry.getDN() });
+			return 0;
+		}
+	}
+
+	/**
+	 * Iterate over all guac config groups in the given ldap search result and
+	 * create a connection for each of them (see processGuacConfigGroupLdapEntry)
 	 * @param guacConfigGroupsSearchResult
 	 *     The LDAP search result containing the guac config group entries to process
 	 * @return
 	 *     The connections configured by the given guac config groups 
 	 * @throws GuacamoleServerException
 	 */
-	protected Map<String, Connection> processGuacConfigGroupLdapEntries(LDAPSearchResults guacConfigGroupsSearchResult) throws GuacamoleServerException {
+	protected Map<String, Connection> processGuacConfigGroupLdapEntries(LDAPSearchResults guacConfigGroupsSearchResult) throws GuacamoleException {
 		// Produce connections for each readable configuration
 		Map<String, Connection> connections = new HashMap<String, Connection>();
 		try {
 			while (guacConfigGroupsSearchResult.hasMore()) { // Should be only one group as we query one by one for each group name given in memberOf
-
-				LDAPEntry guacConfigGroupEntry = guacConfigGroupsSearchResult.next();
-
-				// Get common name (CN)
-				LDAPAttribute cn = guacConfigGroupEntry.getAttribute("cn");
-				if (cn == null) {
-					logger.warn("guacConfigGroup is missing a cn (unexpected, entry ignored).");
-					continue;
-				}
-
-				// Get associated protocol
-				LDAPAttribute protocol = guacConfigGroupEntry.getAttribute("guacConfigProtocol");
-				if (protocol == null) {
-					logger.warn("guacConfigGroup \"{}\" is missing the " + "required \"guacConfigProtocol\" attribute (entry ingnored).", cn.getStringValue());
-					continue;
-				}
-
-				// Set protocol
-				GuacamoleConfiguration config = new GuacamoleConfiguration();
-				config.setProtocol(protocol.getStringValue());
-
-				// Get parameters, if any
-				LDAPAttribute parameterAttribute = guacConfigGroupEntry.getAttribute("guacConfigParameter");
-				processGuacConfigGroupParameters(parameterAttribute, config);
-
-				// Store connection using CN as name && DN as identifier
-				String name = cn.getStringValue();
-				String identifier = guacConfigGroupEntry.getDN();
-				Connection connection = new SimpleConnection(name, identifier, config);
-				connection.setParentIdentifier(LDAP389dsAuthenticationProvider.ROOT_CONNECTION_GROUP); // May be overridden when creating connection groups
-				connections.put(connection.getIdentifier(), connection);
+				Connection connection = processGuacConfigGroupLdapEntry(guacConfigGroupsSearchResult.next());
+				if (connection != null) connections.put(connection.getIdentifier(), connection);
 			}
 			
 			return connections; // Return map of all connections
@@ -237,6 +381,133 @@ public class ConnectionService {
 		}
 
 	}
+
+	/**
+	 * Create a connection for each of the given guac config group entries
+	 * (see processGuacConfigGroupLdapEntry)
+	 * @param guacConfigGroupEntries
+	 *     The LDAP entries of the guac config groups to process
+	 * @return
+	 *     The connections configured by the given guac config groups
+	 * @throws GuacamoleException
+	 */
+	public Map<String, Connection> createConnections(Collection<LDAPEntry> guacConfigGroupEntries) throws GuacamoleException {
+		Map<String, Connection> connections = new HashMap<String, Connection>();
+		for (LDAPEntry guacConfigGroupEntry : guacConfigGroupEntries) {
+			Connection connection = processGuacConfigGroupLdapEntry(guacConfigGroupEntry);
+			if (connection != null) connections.put(connection.getIdentifier(), connection);
+		}
+		return connections;
+	}
+
+	/**
+	 * Create the connections for the guac config groups the given user is
+	 * a member of by a lookup in the member index (no memberOf search and
+	 * no search for each group).
+	 * <p>
+	 * The DN of the user is taken from the authenticated user, if it was
+	 * authenticated by this provider, otherwise it is taken from the entry
+	 * returned by the search for the user's groups.
+	 * @param ldapConnection
+	 *     The LDAP connection to use, bind with the default bind DN,
+	 *     i.e. the technical user to query the LDAP directory service
+	 * @param user
+	 *     The authenticated user
+	 * @return
+	 *     The connections for the guac config groups having the user as member
+	 * @throws GuacamoleException
+	 */
+	protected Map<String, Connection> getConnectionsByMemberIndex(LDAPConnection ldapConnection, AuthenticatedUser user) throws GuacamoleException {
+		String userDN = getUserDN(ldapConnection, user);
+		if (userDN == null) {
+			logger.info("No user entry found for [" + user.getCredentials().getUsername() + "] => no connections.");
+			return new HashMap<String, Connection>();
+		}
+		return createConnections(configGroupMemberIndex.getGroupEntries(userDN));
+	}
+
+	/**
+	 * Returns the DNs of the groups of the given user read at authentication
+	 * (see ldap-direct-bind-group-attribute)
+	 * @param user
+	 *     The authenticated user
+	 * @return
+	 *     The DNs of the groups, or null if not read (e.g. authenticated by
+	 *     another provider or from the credential cache)
+	 */
+	protected Collection<String> getGroupDNsReadAtAuthentication(AuthenticatedUser user) {
+		if (user instanceof io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser)
+			return ((io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser) user).getGroupDNs();
+		return null;
+	}
+
+	/**
+	 * Returns the DN of the LDAP entry of the given user
+	 * @param ldapConnection
+	 *     The LDAP connection to use, bind with the default bind DN,
+	 *     i.e. the technical user to query the LDAP directory service
+	 * @param user
+	 *     The authenticated user
+	 * @return
+	 *     The DN of the user entry or null, if no entry was found
+	 * @throws GuacamoleException
+	 */
+	protected String getUserDN(LDAPConnection ldapConnection, AuthenticatedUser user) throws GuacamoleException {
+		if (user instanceof io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser) {
+			String userDN = ((io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser) user).getDN();
+			if (userDN != null) return userDN;
+		}
+		List<LDAPEntry> userEntries = ldapsearchUsersGroups(ldapConnection, user);
+		if (userEntries == null || userEntries.isEmpty()) return null;
+		return userEntries.get(0).getDN();
+	}
+
+	/**
+	 * Reads the user attribute tokens of the given user not read at login
+	 * (e.g. tokens of templates compiled since), so the token filter of the
+	 * user gets all tokens the connections of the user reference. Needs no
+	 * LDAP search if all were read at login (see UserAttributeTokens).
+	 * @param ldapConnection
+	 *     The LDAP connection to use, bind with the default bind DN,
+	 *     i.e. the technical user to query the LDAP directory service
+	 * @param user
+	 *     The authenticated user
+	 * @throws GuacamoleException
+	 */
+	public void readAttributeTokens(LDAPConnection ldapConnection, AuthenticatedUser user) throws GuacamoleException {
+		if (!(user instanceof io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser)) return;
+		io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser ldapUser = (io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser) user;
+		if (ldapUser.getDN() == null) return;
+
+		Map<String, String> tokens = ldapUser.getAttributeTokens();
+		List<String> missingTokenNames = new ArrayList<String>();
+		for (String tokenName : UserAttributeTokens.getTokenNames()) {
+			if (tokens == null || !tokens.containsKey(tokenName)) missingTokenNames.add(tokenName);
+		}
+		if (missingTokenNames.isEmpty()) return;
+
+		try {
+			LDAPSearchResults results = LDAPSearch.search(ldapConnection, ldapUser.getDN(), LDAPConnection.SCOPE_BASE,
+					"(objectClass=*)", UserAttributeTokens.getAttributeNames(missingTokenNames));
+			if (!results.hasMore()) return;
+			Map<String, String> allTokens = tokens == null ? new HashMap<String, String>() : new HashMap<String, String>(tokens);
+			allTokens.putAll(UserAttributeTokens.read(results.next(), missingTokenNames));
+			ldapUser.setAttributeTokens(allTokens);
+			logger.debug("{} user attribute tokens of [{}] read after login.", missingTokenNames.size(), user.getIdentifier());
+		}
+		catch (LDAPException e) {
+			throw new GuacamoleServerException("Error while reading the attributes of user [" + user.getIdentifier() + "].", e);
+		}
+	}
+
+	/**
+	 * Stores the given user attribute tokens with the given user, if it was
+	 * authenticated by this provider
+	 */
+	private void setAttributeTokens(AuthenticatedUser user, Map<String, String> tokens) {
+		if (user instanceof io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser)
+			((io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser) user).setAttributeTokens(tokens);
+	}
     
 	/**
 	 * Create the connections from the given guac config groups
@@ -282,43 +553,130 @@ public class ConnectionService {
      */
     public Map<String, Connection> getConnections(LDAPConnection ldapConnection, AuthenticatedUser user) throws GuacamoleException {
 
-        try {
-        	
-        	LDAPSearchResults usersGroupsSearchResult = ldapsearchUsersGroups(ldapConnection, user);
+        // Resolve groups by the member index instead of memberOf, if configured
+        if (confService.getGroupResolutionMode() == GroupResolutionMode.MEMBER_INDEX)
+            return getConnectionsByMemberIndex(ldapConnection, user);
 
-            Map<String, Connection> connections = new HashMap<String, Connection>();
-            
-            String username = user.getCredentials().getUsername();
+        // Use the groups read at authentication, if any
+        Collection<String> groupDNs = getGroupDNsReadAtAuthentication(user);
+        if (groupDNs != null)
+            return getConnections(ldapConnection, user, groupDNs.toArray(new String[groupDNs.size()]));
 
-            if (usersGroupsSearchResult == null) {
-            	logger.info("No groups for user [" + username + "] found => no connections.");
-            	return connections;
-            }
-            
-            // Get groups of user given by credentials (we take the values of all returned attributes as groups)
-            while (usersGroupsSearchResult.hasMore()) {
-                LDAPEntry userEntry = usersGroupsSearchResult.next();
-
-                // Get groups by extracting the values of all attributes in the given entry
-                for (@SuppressWarnings("unchecked") Iterator<LDAPAttribute> attrIter = userEntry.getAttributeSet().iterator(); attrIter.hasNext();) {
-                    LDAPAttribute attr = attrIter.next();
-                    String[] groups = attr.getStringValueArray();
-                    if (groups.length > 0) {
-                        connections.putAll(getConnections(ldapConnection, user, groups));
-                    }
-                    else {
-                        logger.info("The user `" + username +  "' has no values in the attribute: [" + attr.getName() + "]");
-                    }
-                }
-            }
-            
-            return connections;
+        List<LDAPEntry> userEntries = ldapsearchUsersGroups(ldapConnection, user);
 
+        Map<String, Connection> connections = new HashMap<String, Connection>();
+        
+        String username = user.getCredentials().getUsername();
+
+        if (userEntries == null) {
+        	logger.info("No groups for user [" + username + "] found => no connections.");
+        	return connections;
         }
-        catch (LDAPException e) {
-            throw new GuacamoleServerException("Error while iterating guac configuration groups.", e);
+        
+        // Get groups of user given by credentials (we take the values of all returned attributes as groups)
+        for (LDAPEntry userEntry : userEntries) {
+
+            // Get groups by extracting the values of all attributes in the given entry
+            for (@SuppressWarnings("unchecked") Iterator<LDAPAttribute> attrIter = userEntry.getAttributeSet().iterator(); attrIter.hasNext();) {
+                LDAPAttribute attr = attrIter.next();
+                String[] groups = attr.getStringValueArray();
+                if (groups.length > 0) {
+                    connections.putAll(getConnections(ldapConnection, user, groups));
+                }
+                else {
+                    logger.info("The user `" + username +  "' has no values in the attribute: [" + attr.getName() + "]");
+                }
+            }
         }
+        
+        return connections;
 
     }
 
+	/**
+	 * Load the parameters of the guac config group with the given DN
+	 * (used by LazyGuacamoleConfiguration)
+	 * @param guacConfigGroupDN
+	 *     The DN of the guac config group entry
+	 * @return
+	 *     The parameters by name
+	 * @throws GuacamoleException
+	 */
+	@Override
+	public Map<String, String> loadParameters(String guacConfigGroupDN) throws GuacamoleException {
+		List<LDAPEntry> results = directoryClient.search(guacConfigGroupDN, LDAPConnection.SCOPE_BASE,
+				"(objectClass=*)", new String[] { "guacConfigParameter" });
+		GuacamoleConfiguration config = new GuacamoleConfiguration();
+		processGuacConfigGroupParameters(new LDAPAttribute("guacConfigParameter", parameterDefaults.getInheritedParameters(guacConfigGroupDN)), config);
+		if (!results.isEmpty()) processGuacConfigGroupParameters(results.get(0).getAttribute("guacConfigParameter"), config);
+		logger.debug("Parameters of guac config group [{}] loaded.", guacConfigGroupDN);
+		return new HashMap<String, String>(config.getParameters());
+	}
+
+	/**
+	 * Returns the DNs of the guac config groups of the given user, i.e. the
+	 * values of all attributes returned by the search for the user's groups,
+	 * or the groups having the user as member in member index mode
+	 * @param ldapConnection
+	 *     The LDAP connection to use, bind with the default bind DN,
+	 *     i.e. the technical user to query the LDAP directory service
+	 * @param user
+	 *     The authenticated user
+	 * @return
+	 *     The DNs of the guac config groups, may be empty
+	 * @throws GuacamoleException
+	 */
+	public Collection<String> getGuacConfigGroupDNs(LDAPConnection ldapConnection, AuthenticatedUser user) throws GuacamoleException {
+		Set<String> guacConfigGroupDNs = new LinkedHashSet<String>();
+
+		if (confService.getGroupResolutionMode() == GroupResolutionMode.MEMBER_INDEX) {
+			String userDN = getUserDN(ldapConnection, user);
+			if (userDN != null) {
+				for (LDAPEntry guacConfigGroupEntry : configGroupMemberIndex.getGroupEntries(userDN))
+					guacConfigGroupDNs.add(guacConfigGroupEntry.getDN());
+			}
+			return guacConfigGroupDNs;
+		}
+
+		Collection<String> groupDNs = getGroupDNsReadAtAuthentication(user);
+		if (groupDNs != null) {
+			guacConfigGroupDNs.addAll(groupDNs);
+			return guacConfigGroupDNs;
+		}
+
+		List<LDAPEntry> userEntries = ldapsearchUsersGroups(ldapConnection, user);
+		if (userEntries == null) return guacConfigGroupDNs;
+		for (LDAPEntry userEntry : userEntries) {
+			for (@SuppressWarnings("unchecked") Iterator<LDAPAttribute> attrIter = userEntry.getAttributeSet().iterator(); attrIter.hasNext();) {
+				guacConfigGroupDNs.addAll(Arrays.asList(attrIter.next().getStringValueArray()));
+			}
+		}
+		return guacConfigGroupDNs;
+	}
+
+	/**
+	 * Create the connections of the guac config groups with the given DNs
+	 * @param ldapConnection
+	 *     The LDAP connection to use, bind with the default bind DN,
+	 *     i.e. the technical user to query the LDAP directory service
+	 * @param user
+	 *     The authenticated user
+	 * @param guacConfigGroupDNs
+	 *     The DNs of the guac config groups (see getGuacConfigGroupDNs)
+	 * @return
+	 *     The connections for the given guac config groups
+	 * @throws GuacamoleException
+	 */
+	public Map<String, Connection> getConnections(LDAPConnection ldapConnection, AuthenticatedUser user, Collection<String> guacConfigGroupDNs) throws GuacamoleException {
+		if (confService.getGroupResolutionMode() == GroupResolutionMode.MEMBER_INDEX) {
+			List<LDAPEntry> guacConfigGroupEntries = new ArrayList<LDAPEntry>(guacConfigGroupDNs.size());
+			for (String guacConfigGroupDN : guacConfigGroupDNs) {
+				LDAPEntry guacConfigGroupEntry = configGroupMemberIndex.getGroupEntry(guacConfigGroupDN);
+				if (guacConfigGroupEntry != null) guacConfigGroupEntries.add(guacConfigGroupEntry);
+			}
+			return createConnections(guacConfigGroupEntries);
+		}
+		return getConnections(ldapConnection, user, guacConfigGroupDNs.toArray(new String[guacConfigGroupDNs.size()]));
+	}
+
 }
@@ -0,0 +1,227 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.net.auth.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.novell.ldap.util.DN;
+
+import io.github.kc14.guacamole.auth.ldap389ds.Lifecycle;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+
+/**
+ * Groups the connections of large connection trees by folder in parallel
+ * (see ldap-parallel-tree-threshold), so ConnectionTreeContext walks the
+ * path of each folder once instead of once per connection.
+ * <p>
+ * The connections are split into one chunk per task, each task groups its
+ * chunk by the DN of the folder, and the groups of all tasks are merged in
+ * task order. The folders themselves are created sequentially afterwards,
+ * as the directory of folders is not thread-safe. Below the threshold, on a
+ * single processor or after stop, the tree is built sequentially.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class ConnectionTreeBuilder implements Lifecycle {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ConnectionTreeBuilder.class);
+
+    /**
+     * The number of tasks per processor, so a slow task does not hold up the
+     * merge.
+     */
+    private static final int TASKS_PER_THREAD = 2;
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Service for mapping the identifiers of connections to DNs.
+     */
+    @Inject
+    private IdentifierService identifierService;
+
+    /**
+     * The number of threads grouping connections.
+     */
+    private final int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Runs the grouping tasks, or null if not used yet.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Whether the builder was stopped.
+     */
+    private boolean stopped;
+
+    /**
+     * The connections of one folder.
+     */
+    static class Folder {
+
+        /**
+         * The DN of the folder (the parsed DN is kept, as the string form of
+         * a DN does not always parse to the same RDNs).
+         */
+        final DN dn;
+
+        /**
+         * The connections in the folder.
+         */
+        final List<Connection> connections = new ArrayList<Connection>();
+
+        Folder(DN dn) {
+            this.dn = dn;
+        }
+
+    }
+
+    /**
+     * Returns the given connections grouped by the DN of their folder, if
+     * there are enough of them to group them in parallel.
+     *
+     * @param connections
+     *     The connections of a tree.
+     *
+     * @return
+     *     The folders with their connections, in the order of the
+     *     connections, or null if the tree is to be built sequentially.
+     *
+     * @throws GuacamoleException
+     *     If the DN of a connection cannot be determined, or if
+     *     guacamole.properties cannot be parsed.
+     */
+    Collection<Folder> groupByFolder(Collection<Connection> connections) throws GuacamoleException {
+        int threshold = confService.getParallelTreeThreshold();
+        if (threshold <= 0 || connections.size() < threshold || threads < 2) return null;
+        ExecutorService current = getExecutor();
+        if (current == null) return null;
+
+        long start = System.currentTimeMillis();
+        List<Connection> all = new ArrayList<Connection>(connections);
+        int tasks = threads * TASKS_PER_THREAD;
+        int chunkSize = (all.size() + tasks - 1) / tasks;
+        List<Future<Map<String, Folder>>> results = new ArrayList<Future<Map<String, Folder>>>(tasks);
+        try {
+            for (int from = 0; from < all.size(); from += chunkSize)
+                results.add(current.submit(new GroupTask(all.subList(from, Math.min(from + chunkSize, all.size())))));
+        }
+        catch (RejectedExecutionException e) { // Stopped meanwhile
+            cancel(results);
+            return null;
+        }
+
+        Map<String, Folder> folders = new LinkedHashMap<String, Folder>();
+        try {
+            for (Future<Map<String, Folder>> result : results) {
+                for (Map.Entry<String, Folder> group : result.get().entrySet()) {
+                    Folder folder = folders.get(group.getKey());
+                    if (folder == null) folders.put(group.getKey(), group.getValue());
+                    else folder.connections.addAll(group.getValue().connections);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            cancel(results);
+            Thread.currentThread().interrupt();
+            throw new GuacamoleServerException("Interrupted while building the connection tree.", e);
+        }
+        catch (ExecutionException e) {
+            cancel(results);
+            if (e.getCause() instanceof GuacamoleException) throw (GuacamoleException) e.getCause();
+            throw new GuacamoleServerException("Error while building the connection tree.", e.getCause());
+        }
+        logger.debug("{} connections grouped into {} folders by {} tasks in {} ms.",
+                new Object[] { all.size(), folders.size(), results.size(), System.currentTimeMillis() - start });
+        return folders.values();
+    }
+
+    /**
+     * Groups one chunk of connections by the DN of their folder.
+     */
+    private class GroupTask implements Callable<Map<String, Folder>> {
+
+        private final List<Connection> chunk;
+
+        GroupTask(List<Connection> chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public Map<String, Folder> call() throws GuacamoleException {
+            Map<String, Folder> folders = new LinkedHashMap<String, Folder>();
+            for (Connection connection : chunk) {
+                DN folderDN = new DN(identifierService.toDN(connection.getIdentifier())).getParent();
+                String key = folderDN.toString();
+                Folder folder = folders.get(key);
+                if (folder == null) {
+                    folder = new Folder(folderDN);
+                    folders.put(key, folder);
+                }
+                folder.connections.add(connection);
+            }
+            return folders;
+        }
+
+    }
+
+    private static void cancel(List<? extends Future<?>> results) {
+        for (Future<?> result : results) result.cancel(true);
+    }
+
+    /**
+     * Returns the executor, creating it on first use, or null if stopped.
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (stopped) return null;
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ldap389ds-tree-build");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public void start() {
+        // The executor is created by the first parallel build
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopped = true;
+        if (executor != null) executor.shutdownNow();
+    }
+
+}
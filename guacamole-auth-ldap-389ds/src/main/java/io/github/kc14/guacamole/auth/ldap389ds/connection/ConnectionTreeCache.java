@@ -0,0 +1,170 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.glyptodon.guacamole.GuacamoleException;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import io.github.kc14.com.novell.ldap.util.DNHelper;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.config.GroupResolutionMode;
+import io.github.kc14.guacamole.auth.ldap389ds.metrics.MetricsService;
+
+/**
+ * Cache of the connections and connection trees built for a set of guac
+ * config groups, shared by all users having exactly the same groups (e.g.
+ * all members of a department).
+ * <p>
+ * With the member index, the key is the set of the dense IDs of the indexed
+ * groups (see GroupIdRegistry) as CompressedBitSet. Otherwise it is the
+ * sorted list of the normalized group DNs, as the registry only knows the
+ * indexed groups. Either way the key identifies the group set exactly (no
+ * digest), so two different group sets can never share a tree. The
+ * cached trees hold the connections without any user tokens; each user gets
+ * its own view by ConnectionTreeContext.putSharedTree. When full, the least
+ * recently used tree is evicted.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class ConnectionTreeCache {
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * The metrics of this provider.
+     */
+    @Inject
+    private MetricsService metrics;
+
+    /**
+     * Registry of the dense IDs of the guac config groups.
+     */
+    @Inject
+    private GroupIdRegistry groupIdRegistry;
+
+    /**
+     * The cached trees by group set in access order, or null if not used yet.
+     */
+    private LinkedHashMap<Object, CachedTree> trees;
+
+    /**
+     * A shared tree with its expiry time.
+     */
+    private static class CachedTree {
+
+        final ConnectionTreeContext tree;
+
+        final long expires;
+
+        CachedTree(ConnectionTreeContext tree, long expires) {
+            this.tree = tree;
+            this.expires = expires;
+        }
+
+    }
+
+    /**
+     * Returns whether connection trees are shared.
+     *
+     * @return
+     *     true, if ldap-connection-tree-cache-ttl is greater than 0.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean isEnabled() throws GuacamoleException {
+        return confService.getConnectionTreeCacheTTL() > 0;
+    }
+
+    /**
+     * Returns the canonical key of the given group set. With the member
+     * index, it is the set of the IDs of the groups: DNs which are not
+     * indexed are ignored, as they have no connections, and no IDs are
+     * assigned for them. Otherwise it is the sorted list of the normalized
+     * DNs.
+     *
+     * @param guacConfigGroupDNs
+     *     The DNs of the guac config groups.
+     *
+     * @return
+     *     The key of the group set.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public Object getKey(Collection<String> guacConfigGroupDNs) throws GuacamoleException {
+        if (confService.getGroupResolutionMode() == GroupResolutionMode.MEMBER_INDEX)
+            return groupIdRegistry.findIds(guacConfigGroupDNs);
+        List<String> key = new ArrayList<String>(guacConfigGroupDNs.size());
+        for (String guacConfigGroupDN : guacConfigGroupDNs) key.add(DNHelper.normalize(guacConfigGroupDN));
+        Collections.sort(key);
+        for (int i = key.size() - 1; i > 0; i--) { // Drop duplicates
+            if (key.get(i).equals(key.get(i - 1))) key.remove(i);
+        }
+        return Collections.unmodifiableList(key);
+    }
+
+    /**
+     * Returns the shared tree of the given group set.
+     *
+     * @param key
+     *     The key of the group set (see getKey).
+     *
+     * @return
+     *     The shared tree, or null if not cached or expired.
+     */
+    public synchronized ConnectionTreeContext get(Object key) {
+        CachedTree cached = trees == null ? null : trees.get(key);
+        if (cached != null && cached.expires < System.currentTimeMillis()) {
+            trees.remove(key);
+            cached = null;
+        }
+        metrics.counter(cached == null ? "connectionTreeCacheMisses" : "connectionTreeCacheHits").incrementAndGet();
+        return cached == null ? null : cached.tree;
+    }
+
+    /**
+     * Shares the given tree with all users having the given group set.
+     *
+     * @param key
+     *     The key of the group set (see getKey).
+     *
+     * @param tree
+     *     The tree of the connections of the group set, without user tokens,
+     *     which must not be modified anymore.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public synchronized void put(Object key, ConnectionTreeContext tree) throws GuacamoleException {
+        int ttl = confService.getConnectionTreeCacheTTL();
+        if (ttl <= 0) return;
+        if (trees == null) {
+            final int maxSize = confService.getConnectionTreeCacheSize();
+            trees = new LinkedHashMap<Object, CachedTree>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, CachedTree> eldest) {
+                    return size() > maxSize;
+                }
+
+            };
+        }
+        trees.put(key, new CachedTree(tree, System.currentTimeMillis() + ttl * 1000L));
+    }
+
+}
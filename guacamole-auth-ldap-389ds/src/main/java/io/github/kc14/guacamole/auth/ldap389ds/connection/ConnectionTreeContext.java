@@ -2,8 +2,13 @@ package io.github.kc14.guacamole.auth.ldap389ds.connection;
 
 import static io.github.kc14.com.novell.ldap.util.DNHelper.getRDNs;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import org.glyptodon.guacamole.GuacamoleException;
@@ -13,6 +18,7 @@ import org.glyptodon.guacamole.net.auth.Directory;
 import org.glyptodon.guacamole.net.auth.simple.SimpleConnectionGroup;
 import org.glyptodon.guacamole.net.auth.simple.SimpleConnectionGroupDirectory;
 import org.glyptodon.guacamole.net.auth.simple.SimpleDirectory;
+import org.glyptodon.guacamole.token.TokenFilter;
 
 import com.google.inject.Inject;
 import com.novell.ldap.util.DN;
@@ -29,6 +35,18 @@ public class ConnectionTreeContext {
     @Inject
     private ConfigurationService confService;
 
+    /**
+     * Service for mapping the DNs of folders to identifiers and back.
+     */
+    @Inject
+    private IdentifierService identifierService;
+
+    /**
+     * Builder grouping the connections of large trees in parallel.
+     */
+    @Inject
+    private ConnectionTreeBuilder connectionTreeBuilder;
+
     /**
      * Directory containing all Connection objects accessible to the user
      * associated with this UserContext.
@@ -41,8 +59,19 @@ public class ConnectionTreeContext {
      */
     private Directory<ConnectionGroup> folderMap;
 
+    /**
+     * All connections put into this tree by identifier.
+     */
+    private Map<String, Connection> connections;
+
+    /**
+     * The identifiers of the folders which are balancing connection groups.
+     */
+    private Set<String> balancingFolderIdentifiers = Collections.emptySet();
+
 	public void putConnections(Map<String, Connection> connections) throws GuacamoleException {
         // Create a simple read-only <i>connection</i> directory from all connections
+        this.connections = connections;
         connectionMap = new SimpleDirectory<Connection>(connections);
 
         // Create a simple read-only <i>connection group</i> directory with an empty root group
@@ -52,14 +81,65 @@ public class ConnectionTreeContext {
     	DN configBaseDN = new DN(confService.getGuacConfigGroupsBaseDN());
     	putFolders(folderMap, configBaseDN);
 
-        // Build tree of connection groups from the DNs (= identifier) of the connections
+        // Build tree of connection groups from the DNs of the connections (see IdentifierService),
+        // for large trees from the connections grouped by folder in parallel (see ConnectionTreeBuilder)
+		Collection<ConnectionTreeBuilder.Folder> connectionsByFolder = connectionTreeBuilder.groupByFolder(connections.values());
+		if (connectionsByFolder == null) {
+			for (Connection connection : connections.values()) {
+				putConnection (folderMap, connection);
+			}
+		}
+		else {
+			for (ConnectionTreeBuilder.Folder connectionsOfFolder : connectionsByFolder) {
+				ConnectionGroup folder = putFolders(folderMap, connectionsOfFolder.dn);
+				for (Connection connection : connectionsOfFolder.connections) {
+					putConnection(folder, connection);
+				}
+			}
+		}
+
+		// Turn the folders of balancing connections into balancing connection groups
+		Set<String> balancingFolderIdentifiers = new HashSet<String>();
 		for (Connection connection : connections.values()) {
-			putConnection (folderMap, connection);
+			if (connection instanceof TrackedConnection && ((TrackedConnection) connection).isBalancing())
+				balancingFolderIdentifiers.add(connection.getParentIdentifier());
+		}
+		for (String balancingFolderIdentifier : balancingFolderIdentifiers) {
+			folderMap.putConnectionGroup(new BalancingConnectionGroup(folderMap.get(balancingFolderIdentifier), connectionMap));
 		}
+		this.balancingFolderIdentifiers = balancingFolderIdentifiers;
 
         this.folderMap = folderMap;
 	}
 
+    /**
+     * Use the tree of the given shared context, which holds the connections
+     * without user tokens, as the tree of one user: the folders are shared
+     * as they are, the connections are wrapped with the tokens of the user
+     * when requested (see UserConnectionDirectory). Only balancing connection
+     * groups are copied, so they connect with the connections of the user.
+     *
+     * @param sharedTree - the shared tree, which must not be modified
+     * @param tokenFilter - the filter holding the tokens of the user
+     * @param username - the name of the user
+     * @throws GuacamoleException
+     */
+	public void putSharedTree(ConnectionTreeContext sharedTree, TokenFilter tokenFilter, String username) throws GuacamoleException {
+		this.connections = sharedTree.connections;
+		this.connectionMap = new UserConnectionDirectory(sharedTree.connections, tokenFilter, username);
+		this.balancingFolderIdentifiers = sharedTree.balancingFolderIdentifiers;
+		if (balancingFolderIdentifiers.isEmpty()) {
+			this.folderMap = sharedTree.folderMap;
+			return;
+		}
+		List<ConnectionGroup> folders = new ArrayList<ConnectionGroup>(sharedTree.folderMap.getAll(sharedTree.folderMap.getIdentifiers()));
+		for (int i = 0; i < folders.size(); i++) {
+			if (balancingFolderIdentifiers.contains(folders.get(i).getIdentifier()))
+				folders.set(i, new BalancingConnectionGroup(folders.get(i), connectionMap));
+		}
+		this.folderMap = new SimpleConnectionGroupDirectory(folders);
+	}
+
 	static private SimpleConnectionGroupDirectory createfolderMap() throws GuacamoleException {
 		return new SimpleConnectionGroupDirectory(Collections.singleton(createRootFolder()));
 	}
@@ -100,7 +180,7 @@ public class ConnectionTreeContext {
      * @param connection - the connection to insert into the tree of connection groups
      * @throws GuacamoleException
      */
-    private static void putConnection(SimpleConnectionGroupDirectory folderMap, Connection connection) throws GuacamoleException {
+    private void putConnection(SimpleConnectionGroupDirectory folderMap, Connection connection) throws GuacamoleException {
     	// Preconditions
     	assert folderMap != null : "Pre: Connection Group Directory exits!";
     	assert folderMap.get(LDAP389dsAuthenticationProvider.ROOT_CONNECTION_GROUP) != null : "Pre: Connection Group Directory Contains Group with id `ROOT'";	
@@ -137,13 +217,13 @@ public class ConnectionTreeContext {
 	 * @return
 	 * @throws GuacamoleException
 	 */
-	private static ConnectionGroup putConnectionFolders(SimpleConnectionGroupDirectory folderMap, Connection connection) throws GuacamoleException {
-    	DN connectionDN = new DN(connection.getIdentifier());
+	private ConnectionGroup putConnectionFolders(SimpleConnectionGroupDirectory folderMap, Connection connection) throws GuacamoleException {
+    	DN connectionDN = new DN(identifierService.toDN(connection.getIdentifier()));
     	DN folderDN = connectionDN.getParent(); // Group is baseDN
     	return putFolders(folderMap, folderDN);
 	}
 
-	private static ConnectionGroup putFolders(SimpleConnectionGroupDirectory folderMap, DN folderDN) throws GuacamoleException {
+	private ConnectionGroup putFolders(SimpleConnectionGroupDirectory folderMap, DN folderDN) throws GuacamoleException {
 		Vector<RDN> folderRDNs = getRDNs(folderDN);
     	Collections.reverse(folderRDNs); // Start with root rdn
     	ConnectionGroup folder = folderMap.get(LDAP389dsAuthenticationProvider.ROOT_CONNECTION_GROUP); // Put into ROOT
@@ -151,7 +231,7 @@ public class ConnectionTreeContext {
     	for (RDN currentFolderRDN : folderRDNs) {
     		currentFolderDN.addRDN(currentFolderRDN);
     		String childFolderName = currentFolderRDN.toString();
-    		String childFolderIdentifier = currentFolderDN.toString();
+    		String childFolderIdentifier = identifierService.toIdentifier(currentFolderDN.toString());
     		folder = putFolder (folderMap, folder, childFolderName, childFolderIdentifier);
     	}
     	return folder;
@@ -182,7 +262,7 @@ public class ConnectionTreeContext {
 
     public ConnectionGroup getRootFolder() throws GuacamoleException {
     	DN configBaseDN = new DN(confService.getGuacConfigGroupsBaseDN());
-        return getFolderMap().get(configBaseDN.toString()); // Return config base as root
+        return getFolderMap().get(identifierService.toIdentifier(configBaseDN.toString())); // Return config base as root
         // return getFolderMap().get(LDAP389dsAuthenticationProvider.ROOT_CONNECTION_GROUP);
     }
 
@@ -0,0 +1,125 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.inject.Singleton;
+
+import io.github.kc14.com.novell.ldap.util.DNHelper;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.CompressedBitSet;
+
+/**
+ * Registry assigning every guac config group of the member index a dense
+ * int ID (0, 1, 2, ...) by its normalized DN, so sets of groups can be kept
+ * as CompressedBitSets and compared, joined and looked up by bitwise
+ * operations instead of hashing DN strings.
+ * <p>
+ * IDs are assigned only when the member index is built (see
+ * ConfigGroupMemberIndex), never for DNs supplied otherwise, so the
+ * registry grows with the groups ever indexed only. IDs are never reused,
+ * so an ID stays valid for the lifetime of the provider. Lookups of known
+ * DNs need no locking.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class GroupIdRegistry {
+
+    /**
+     * The IDs by normalized DN.
+     */
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * The normalized DNs by ID.
+     */
+    private final List<String> dns = new ArrayList<String>();
+
+    /**
+     * Returns the ID of the given DN, assigning the next free ID if the DN
+     * is not known yet. Used by the build of the member index only, other
+     * callers use findId.
+     *
+     * @param dn
+     *     The DN of a guac config group.
+     *
+     * @return
+     *     The ID of the DN.
+     */
+    public int getId(String dn) {
+        String normalizedDN = DNHelper.normalize(dn);
+        Integer id = ids.get(normalizedDN);
+        if (id != null) return id;
+        synchronized (dns) {
+            id = ids.get(normalizedDN);
+            if (id != null) return id;
+            id = dns.size();
+            dns.add(normalizedDN);
+            ids.put(normalizedDN, id);
+            return id;
+        }
+    }
+
+    /**
+     * Returns the ID of the given DN, if known.
+     *
+     * @param dn
+     *     The DN of a guac config group.
+     *
+     * @return
+     *     The ID of the DN, or -1 if not known.
+     */
+    public int findId(String dn) {
+        Integer id = ids.get(DNHelper.normalize(dn));
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the normalized DN of the given ID.
+     *
+     * @param id
+     *     An ID assigned by this registry.
+     *
+     * @return
+     *     The normalized DN.
+     */
+    public String getDN(int id) {
+        synchronized (dns) {
+            return dns.get(id);
+        }
+    }
+
+    /**
+     * Returns the set of the IDs of the given DNs, ignoring unknown DNs.
+     *
+     * @param dns
+     *     The DNs of guac config groups.
+     *
+     * @return
+     *     The set of the IDs of the known DNs.
+     */
+    public CompressedBitSet findIds(Collection<String> dns) {
+        CompressedBitSet.Builder set = new CompressedBitSet.Builder();
+        for (String dn : dns) {
+            int id = findId(dn);
+            if (id >= 0) set.add(id);
+        }
+        return set.build();
+    }
+
+    /**
+     * Returns the number of assigned IDs (the next free ID).
+     *
+     * @return
+     *     The number of assigned IDs.
+     */
+    public int size() {
+        synchronized (dns) {
+            return dns.size();
+        }
+    }
+
+}
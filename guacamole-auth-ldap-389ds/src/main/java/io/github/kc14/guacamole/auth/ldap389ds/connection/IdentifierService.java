@@ -0,0 +1,177 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleResourceNotFoundException;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.novell.ldap.util.DN;
+
+import io.github.kc14.com.novell.ldap.util.DNHelper;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.config.IdentifierFormat;
+
+/**
+ * Maps the DNs of guac config groups and folders to the identifiers of their
+ * connections and connection groups and back (see ldap-identifier-format).
+ * The identifiers are part of the connection tree and of every permission
+ * set sent to the browser, so the shorter formats save the repeated config
+ * base suffix of each DN:
+ * <ul>
+ * <li>DN: the DN as is (the default).
+ * <li>RELATIVE: the DN without the config base suffix. The config base and
+ * the folders above it keep their full DN.
+ * <li>HASH: 16 hex digits of the SHA-1 of the normalized DN, resolved back
+ * by a table of the DNs seen so far.
+ * </ul>
+ * All formats are stable across restarts and nodes.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class IdentifierService {
+
+    /**
+     * The charset of the hashed DNs.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The hex digits of hash identifiers.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The number of bytes of the SHA-1 used for hash identifiers.
+     */
+    private static final int HASH_BYTES = 8;
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * The DNs by hash identifier.
+     */
+    private final ConcurrentMap<String, String> dnsByHash = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Returns the identifier of the guac config group or folder with the
+     * given DN.
+     *
+     * @param dn
+     *     The DN.
+     *
+     * @return
+     *     The identifier in the configured format.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String toIdentifier(String dn) throws GuacamoleException {
+        IdentifierFormat format = confService.getIdentifierFormat();
+        switch (format) {
+            case RELATIVE:
+                String relative = getRelativeDN(dn);
+                if (relative == null || isFullDN(relative)) return dn; // Not below the config base, or ambiguous
+                return relative;
+            case HASH:
+                String hash = hash(DNHelper.normalize(dn));
+                dnsByHash.putIfAbsent(hash, dn);
+                return hash;
+            default:
+                return dn;
+        }
+    }
+
+    /**
+     * Returns the DN of the guac config group or folder with the given
+     * identifier.
+     *
+     * @param identifier
+     *     The identifier in the configured format.
+     *
+     * @return
+     *     The DN.
+     *
+     * @throws GuacamoleException
+     *     If the identifier is a hash not produced by this service, or if
+     *     guacamole.properties cannot be parsed.
+     */
+    public String toDN(String identifier) throws GuacamoleException {
+        IdentifierFormat format = confService.getIdentifierFormat();
+        switch (format) {
+            case RELATIVE:
+                if (isFullDN(identifier)) return identifier;
+                return identifier + "," + confService.getGuacConfigGroupsBaseDN();
+            case HASH:
+                String dn = dnsByHash.get(identifier);
+                if (dn == null) throw new GuacamoleResourceNotFoundException("Unknown identifier [" + identifier + "].");
+                return dn;
+            default:
+                return identifier;
+        }
+    }
+
+    /**
+     * Returns the RDNs of the given DN below the config base DN, or null if
+     * the DN is not below the config base DN.
+     */
+    private String getRelativeDN(String dn) throws GuacamoleException {
+        DN baseDN = new DN(confService.getGuacConfigGroupsBaseDN());
+        try {
+            DN fullDN = new DN(dn);
+            if (!DNHelper.isDescendantOf(fullDN, baseDN)) return null;
+            String[] rdns = fullDN.explodeDN(false);
+            StringBuilder relative = new StringBuilder();
+            for (int i = 0; i < rdns.length - baseDN.countRDNs(); i++) {
+                if (i > 0) relative.append(',');
+                relative.append(rdns[i]);
+            }
+            return relative.toString();
+        }
+        catch (IllegalArgumentException e) { // Not a parsable DN => not below the config base
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the given relative identifier would be taken for a
+     * full DN, i.e. it is the config base DN, one of its ancestors or one of
+     * its descendants.
+     */
+    private boolean isFullDN(String identifier) throws GuacamoleException {
+        String normalizedBaseDN = DNHelper.normalize(confService.getGuacConfigGroupsBaseDN());
+        String normalizedIdentifier = DNHelper.normalize(identifier);
+        return normalizedBaseDN.equals(normalizedIdentifier) || normalizedBaseDN.endsWith("," + normalizedIdentifier)
+                || normalizedIdentifier.endsWith("," + normalizedBaseDN);
+    }
+
+    /**
+     * Returns the hash identifier of the given normalized DN.
+     */
+    private static String hash(String normalizedDN) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(normalizedDN.getBytes(UTF8));
+        }
+        catch (NoSuchAlgorithmException e) { // SHA-1 is required of every JRE
+            throw new IllegalStateException(e);
+        }
+        char[] hex = new char[HASH_BYTES * 2];
+        for (int i = 0; i < HASH_BYTES; i++) {
+            hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+}
@@ -0,0 +1,132 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.Map;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A GuacamoleConfiguration whose protocol is known at login, but whose
+ * parameters are only loaded from the guac config group entry when they are
+ * accessed for the first time, i.e. usually when the user connects.
+ * <p>
+ * The tokens of the user are applied as by TemplatedGuacamoleConfiguration.
+ * TrackedConnection loads the parameters (see load) before connecting, so a
+ * failed load fails the connection. Other reads of a configuration which
+ * cannot be loaded see no parameters; loading is retried on the next
+ * access. The LDAP search runs without holding any lock.
+ *
+ * @author Frank Kemmer
+ */
+public class LazyGuacamoleConfiguration extends TemplatedGuacamoleConfiguration {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(LazyGuacamoleConfiguration.class);
+
+    /**
+     * Loads the parameters of a guac config group.
+     */
+    public interface ParameterLoader {
+
+        /**
+         * Loads the parameters of the guac config group with the given DN.
+         *
+         * @param guacConfigGroupDN
+         *     The DN of the guac config group entry.
+         *
+         * @return
+         *     The parameters by name, may be empty.
+         *
+         * @throws GuacamoleException
+         *     If the parameters cannot be loaded.
+         */
+        Map<String, String> loadParameters(String guacConfigGroupDN) throws GuacamoleException;
+
+    }
+
+    /**
+     * The DN of the guac config group entry holding the parameters.
+     */
+    private final String guacConfigGroupDN;
+
+    /**
+     * The loader of the parameters.
+     */
+    private final transient ParameterLoader loader;
+
+    /**
+     * The loaded template, or null if not loaded yet.
+     */
+    private transient volatile ConfigurationTemplate template;
+
+    /**
+     * Creates a configuration with the given protocol, whose parameters are
+     * loaded on first access.
+     *
+     * @param protocol
+     *     The protocol of the configuration.
+     *
+     * @param guacConfigGroupDN
+     *     The DN of the guac config group entry holding the parameters.
+     *
+     * @param loader
+     *     The loader of the parameters.
+     */
+    public LazyGuacamoleConfiguration(String protocol, String guacConfigGroupDN, ParameterLoader loader) {
+        super(protocol);
+        this.guacConfigGroupDN = guacConfigGroupDN;
+        this.loader = loader;
+    }
+
+    /**
+     * Returns whether the parameters are loaded already.
+     *
+     * @return
+     *     true, if the parameters are loaded.
+     */
+    public boolean isLoaded() {
+        return template != null;
+    }
+
+    /**
+     * Loads the parameters, if not loaded yet. Concurrent loads may both
+     * search; they compile equal templates and the last one is kept.
+     *
+     * @throws GuacamoleException
+     *     If the parameters cannot be loaded.
+     */
+    @Override
+    public void load() throws GuacamoleException {
+        if (template != null) return;
+        try {
+            Map<String, String> parameters = loader.loadParameters(guacConfigGroupDN);
+            template = ConfigurationTemplate.compile(getProtocol(), parameters);
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to load the parameters of guac config group [{}]: {}", guacConfigGroupDN, e.getMessage());
+            logger.debug("Loading the parameters of a guac config group failed.", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the template, loading the parameters if not loaded yet, or an
+     * empty template if they cannot be loaded.
+     */
+    @Override
+    protected ConfigurationTemplate getTemplate() {
+        try {
+            load();
+        }
+        catch (GuacamoleException e) { // Logged by load, retried on the next access
+            return ConfigurationTemplate.EMPTY;
+        }
+        return template;
+    }
+
+}
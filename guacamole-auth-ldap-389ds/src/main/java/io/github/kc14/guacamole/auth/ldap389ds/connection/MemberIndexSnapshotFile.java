@@ -0,0 +1,215 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+
+/**
+ * Versioned binary file holding the guacConfigGroup entries of the member
+ * index, so a restarted node can serve logins from the last known state
+ * while the index is validated against the directory in the background.
+ * <p>
+ * Layout (big endian): magic "GCGI", format version, CRC32 and length of the
+ * body; the body holds the key (config base DN, filter, lazy flag) and the
+ * entries, each as DN and attributes with their values. Strings are stored
+ * as length and UTF-8 bytes. The file is memory mapped for reading and
+ * replaced atomically (write to a temporary file, then rename) when saved.
+ * A file with another magic, version or key, or with a wrong checksum, is
+ * ignored.
+ *
+ * @author Frank Kemmer
+ */
+public class MemberIndexSnapshotFile {
+
+    /**
+     * The magic number at the start of the file ("GCGI").
+     */
+    private static final int MAGIC = 0x47434749;
+
+    /**
+     * The version of the format, to be incremented on each change.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the header (magic, version, CRC32, length of the body).
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    /**
+     * The charset of all strings.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private MemberIndexSnapshotFile() {
+    }
+
+    /**
+     * Saves the given entries to the given file, replacing it atomically.
+     *
+     * @param file
+     *     The file to write.
+     *
+     * @param key
+     *     The key identifying the configuration the entries were read with.
+     *
+     * @param entries
+     *     The entries to save.
+     *
+     * @throws IOException
+     *     If the file cannot be written.
+     */
+    public static void write(File file, String key, Collection<LDAPEntry> entries) throws IOException {
+
+        // Body
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        writeString(body, key);
+        body.writeInt(entries.size());
+        for (LDAPEntry entry : entries) {
+            writeString(body, entry.getDN());
+            LDAPAttributeSet attributes = entry.getAttributeSet();
+            body.writeInt(attributes.size());
+            for (Iterator<?> iter = attributes.iterator(); iter.hasNext();) {
+                LDAPAttribute attribute = (LDAPAttribute) iter.next();
+                writeString(body, attribute.getName());
+                String[] values = attribute.getStringValueArray();
+                body.writeInt(values.length);
+                for (String value : values) writeString(body, value);
+            }
+        }
+        body.flush();
+        byte[] bodyArray = bodyBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bodyArray);
+
+        // Header and body into a temporary file, then rename
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(crc.getValue());
+                out.writeInt(bodyArray.length);
+                out.write(bodyArray);
+                out.flush();
+            }
+            finally {
+                out.close();
+            }
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) // Rename fails on some platforms if the file exists
+                throw new IOException("Cannot rename [" + temp + "] to [" + file + "].");
+        }
+        finally {
+            if (temp.exists()) temp.delete();
+        }
+
+    }
+
+    /**
+     * Reads the entries from the given file.
+     *
+     * @param file
+     *     The file to read.
+     *
+     * @param key
+     *     The key identifying the current configuration.
+     *
+     * @return
+     *     The entries, or null if the file does not exist, is of another
+     *     version or configuration, or is corrupt.
+     *
+     * @throws IOException
+     *     If the file cannot be read.
+     */
+    public static List<LDAPEntry> read(File file, String key) throws IOException {
+
+        if (!file.isFile() || file.length() < HEADER_SIZE) return null;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // Header
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+            long checksum = buffer.getLong();
+            int length = buffer.getInt();
+            if (length < 0 || length != buffer.remaining()) return null;
+            if (checksum(buffer.slice()) != checksum) return null;
+
+            // Body
+            if (!key.equals(readString(buffer))) return null;
+            int count = buffer.getInt();
+            List<LDAPEntry> entries = new ArrayList<LDAPEntry>(count);
+            for (int i = 0; i < count; i++) {
+                String dn = readString(buffer);
+                LDAPAttributeSet attributes = new LDAPAttributeSet();
+                int attributeCount = buffer.getInt();
+                for (int j = 0; j < attributeCount; j++) {
+                    String name = readString(buffer);
+                    String[] values = new String[buffer.getInt()];
+                    for (int k = 0; k < values.length; k++) values[k] = readString(buffer);
+                    attributes.add(new LDAPAttribute(name, values));
+                }
+                entries.add(new LDAPEntry(dn, attributes));
+            }
+            return entries;
+        }
+        catch (BufferUnderflowException e) { // Truncated despite the checksum
+            return null;
+        }
+        finally {
+            randomAccessFile.close();
+        }
+
+    }
+
+    /**
+     * Returns the CRC32 of the remaining bytes of the given buffer.
+     */
+    private static long checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+}
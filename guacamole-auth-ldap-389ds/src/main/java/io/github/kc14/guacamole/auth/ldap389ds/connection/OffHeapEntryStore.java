@@ -0,0 +1,274 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+
+/**
+ * Immutable store of LDAP entries by ID in a direct ByteBuffer outside of
+ * the Java heap, for very large numbers of guacConfigGroups: only the offset
+ * and length of each entry stay on the heap, and an entry is decoded into an
+ * LDAPEntry only when requested.
+ * <p>
+ * Each entry is stored as one self-contained byte range: its DN, the number
+ * of attributes and, per attribute, its name, the number of values and the
+ * values, each string as length and UTF-8 bytes. A new store is created by
+ * a Builder, which encodes new or changed entries and copies the byte
+ * ranges of unchanged entries from the previous store, without decoding
+ * them.
+ *
+ * @author Frank Kemmer
+ */
+public class OffHeapEntryStore {
+
+    /**
+     * The charset of all strings.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The encoded entries.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The offsets of the entries in the buffer by ID, -1 if there is no
+     * entry with that ID.
+     */
+    private final int[] entryOffsets;
+
+    /**
+     * The lengths of the entries in the buffer by ID.
+     */
+    private final int[] entryLengths;
+
+    /**
+     * The number of entries.
+     */
+    private final int size;
+
+    private OffHeapEntryStore(ByteBuffer buffer, int[] entryOffsets, int[] entryLengths, int size) {
+        this.buffer = buffer;
+        this.entryOffsets = entryOffsets;
+        this.entryLengths = entryLengths;
+        this.size = size;
+    }
+
+    /**
+     * Collects the entries of a new store. New entries are encoded on the
+     * heap until build, entries copied from the previous store stay off heap.
+     */
+    public static class Builder {
+
+        /**
+         * The store the entries are copied from, or null.
+         */
+        private final OffHeapEntryStore previous;
+
+        /**
+         * The encoded new entries by ID, null for copied or unused IDs.
+         */
+        private final byte[][] encodedEntries;
+
+        /**
+         * The IDs in the previous store of the copied entries by ID, -1 for
+         * new or unused IDs.
+         */
+        private final int[] previousIds;
+
+        /**
+         * Reused buffer for encoding one entry.
+         */
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(1024);
+
+        /**
+         * Creates a builder of a store with IDs from 0 to capacity - 1.
+         *
+         * @param capacity
+         *     The number of IDs of the new store.
+         *
+         * @param previous
+         *     The store the entries are copied from, or null if none are
+         *     copied.
+         */
+        public Builder(int capacity, OffHeapEntryStore previous) {
+            this.previous = previous;
+            this.encodedEntries = new byte[capacity][];
+            this.previousIds = new int[capacity];
+            Arrays.fill(previousIds, -1);
+        }
+
+        /**
+         * Adds the given entry, encoding it.
+         *
+         * @param id
+         *     The ID of the entry in the new store.
+         *
+         * @param entry
+         *     The entry.
+         */
+        public void add(int id, LDAPEntry entry) {
+            encoded.reset();
+            DataOutputStream out = new DataOutputStream(encoded);
+            try {
+                LDAPAttributeSet attributes = entry.getAttributeSet();
+                writeString(out, entry.getDN());
+                out.writeInt(attributes.size());
+                for (Iterator<?> iter = attributes.iterator(); iter.hasNext();) {
+                    LDAPAttribute attribute = (LDAPAttribute) iter.next();
+                    String[] values = attribute.getStringValueArray();
+                    writeString(out, attribute.getName());
+                    out.writeInt(values.length);
+                    for (String value : values) writeString(out, value);
+                }
+                out.flush();
+            }
+            catch (IOException e) { // Not thrown by ByteArrayOutputStream
+                throw new IllegalStateException(e);
+            }
+            encodedEntries[id] = encoded.toByteArray();
+            previousIds[id] = -1;
+        }
+
+        /**
+         * Copies the encoded entry with the given ID of the previous store.
+         *
+         * @param id
+         *     The ID of the entry in the new store.
+         *
+         * @param previousId
+         *     The ID of the entry in the previous store.
+         */
+        public void copy(int id, int previousId) {
+            if (previous == null || !previous.contains(previousId))
+                throw new IllegalArgumentException("No entry with ID " + previousId + " in the previous store.");
+            previousIds[id] = previousId;
+            encodedEntries[id] = null;
+        }
+
+        /**
+         * Writes the collected entries into a new direct buffer.
+         *
+         * @return
+         *     The new store.
+         */
+        public OffHeapEntryStore build() {
+            int capacity = encodedEntries.length;
+            int[] entryLengths = new int[capacity];
+            long bytes = 0;
+            for (int id = 0; id < capacity; id++) {
+                if (encodedEntries[id] != null) entryLengths[id] = encodedEntries[id].length;
+                else if (previousIds[id] >= 0) entryLengths[id] = previous.entryLengths[previousIds[id]];
+                bytes += entryLengths[id];
+            }
+            if (bytes > Integer.MAX_VALUE) throw new IllegalStateException("Entries exceed " + Integer.MAX_VALUE + " bytes.");
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) bytes);
+            ByteBuffer source = previous == null ? null : previous.buffer.duplicate(); // Own position => thread safe
+            int[] entryOffsets = new int[capacity];
+            Arrays.fill(entryOffsets, -1);
+            int size = 0;
+            for (int id = 0; id < capacity; id++) {
+                if (encodedEntries[id] != null) {
+                    entryOffsets[id] = buffer.position();
+                    buffer.put(encodedEntries[id]);
+                    encodedEntries[id] = null; // Garbage as soon as written
+                }
+                else if (previousIds[id] >= 0) {
+                    int offset = previous.entryOffsets[previousIds[id]];
+                    source.limit(offset + entryLengths[id]);
+                    source.position(offset);
+                    entryOffsets[id] = buffer.position();
+                    buffer.put(source);
+                    source.limit(source.capacity());
+                }
+                else continue;
+                size++;
+            }
+            return new OffHeapEntryStore(buffer, entryOffsets, entryLengths, size);
+        }
+
+        private static void writeString(DataOutputStream out, String string) throws IOException {
+            byte[] bytes = string.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+    }
+
+    /**
+     * Returns whether there is an entry with the given ID.
+     *
+     * @param id
+     *     The ID of the entry.
+     *
+     * @return
+     *     true, if there is an entry with the given ID.
+     */
+    public boolean contains(int id) {
+        return id >= 0 && id < entryOffsets.length && entryOffsets[id] >= 0;
+    }
+
+    /**
+     * Decodes the entry with the given ID.
+     *
+     * @param id
+     *     The ID of the entry.
+     *
+     * @return
+     *     A new LDAPEntry, or null if there is no entry with the given ID.
+     */
+    public LDAPEntry get(int id) {
+        if (!contains(id)) return null;
+        ByteBuffer view = buffer.duplicate(); // Own position => thread safe
+        view.position(entryOffsets[id]);
+        String dn = readString(view);
+        int attributeCount = view.getInt();
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        for (int i = 0; i < attributeCount; i++) {
+            String name = readString(view);
+            String[] values = new String[view.getInt()];
+            for (int j = 0; j < values.length; j++) values[j] = readString(view);
+            attributes.add(new LDAPAttribute(name, values));
+        }
+        return new LDAPEntry(dn, attributes);
+    }
+
+    /**
+     * Decodes the string at the position of the given view.
+     */
+    private static String readString(ByteBuffer view) {
+        byte[] bytes = new byte[view.getInt()];
+        view.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return
+     *     The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the size of the encoded entries outside of the heap.
+     *
+     * @return
+     *     The size of the buffer in bytes.
+     */
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+}
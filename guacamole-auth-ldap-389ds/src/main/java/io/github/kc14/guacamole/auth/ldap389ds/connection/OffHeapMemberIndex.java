@@ -0,0 +1,263 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.kc14.guacamole.auth.ldap389ds.utils.CompressedBitSet;
+
+/**
+ * Immutable index of the group IDs by normalized member DN in a direct
+ * ByteBuffer outside of the Java heap, the counterpart of OffHeapEntryStore
+ * for the memberships: only the offset of each record stays on the heap.
+ * <p>
+ * The records are sorted by the UTF-8 bytes of the member DN, so a lookup is
+ * a binary search. Each record holds the member DN (length and UTF-8 bytes),
+ * the number of group IDs and the IDs in ascending order. A new index is
+ * merged in one pass from the records of the previous index and the
+ * memberships of the new or changed groups only.
+ *
+ * @author Frank Kemmer
+ */
+public class OffHeapMemberIndex {
+
+    /**
+     * The charset of the member DNs.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The index without any memberships.
+     */
+    public static final OffHeapMemberIndex EMPTY = new OffHeapMemberIndex(ByteBuffer.allocateDirect(0), new int[0], 0);
+
+    /**
+     * The records, up to the limit of the buffer.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The offsets of the records in the buffer in the order of their member
+     * DNs.
+     */
+    private final int[] recordOffsets;
+
+    /**
+     * The number of records.
+     */
+    private final int size;
+
+    private OffHeapMemberIndex(ByteBuffer buffer, int[] recordOffsets, int size) {
+        this.buffer = buffer;
+        this.recordOffsets = recordOffsets;
+        this.size = size;
+    }
+
+    /**
+     * The membership of a member DN in a new or changed group, to be merged
+     * into the index.
+     */
+    public static class Membership implements Comparable<Membership> {
+
+        /**
+         * The UTF-8 bytes of the normalized member DN.
+         */
+        private final byte[] memberDN;
+
+        /**
+         * The ID of the group.
+         */
+        private final int groupId;
+
+        /**
+         * Creates the membership of the given member in the given group.
+         *
+         * @param normalizedMemberDN
+         *     The normalized DN of the member.
+         *
+         * @param groupId
+         *     The ID of the group (see GroupIdRegistry).
+         */
+        public Membership(String normalizedMemberDN, int groupId) {
+            this.memberDN = normalizedMemberDN.getBytes(UTF8);
+            this.groupId = groupId;
+        }
+
+        @Override
+        public int compareTo(Membership other) {
+            int result = compare(memberDN, other.memberDN);
+            if (result != 0) return result;
+            return groupId < other.groupId ? -1 : groupId == other.groupId ? 0 : 1;
+        }
+
+    }
+
+    /**
+     * Returns the IDs of the groups of the given member.
+     *
+     * @param normalizedMemberDN
+     *     The normalized DN of the member.
+     *
+     * @return
+     *     The IDs of the groups having the given member, may be empty.
+     */
+    public CompressedBitSet get(String normalizedMemberDN) {
+        byte[] key = normalizedMemberDN.getBytes(UTF8);
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compare(buffer, recordOffsets[middle], key);
+            if (result < 0) low = middle + 1;
+            else if (result > 0) high = middle - 1;
+            else {
+                int offset = recordOffsets[middle];
+                int idsOffset = offset + 4 + buffer.getInt(offset);
+                int count = buffer.getInt(idsOffset);
+                CompressedBitSet.Builder groupIds = new CompressedBitSet.Builder();
+                for (int i = 0; i < count; i++) groupIds.add(buffer.getInt(idsOffset + 4 + 4 * i));
+                return groupIds.build();
+            }
+        }
+        return CompressedBitSet.EMPTY;
+    }
+
+    /**
+     * Returns the number of member DNs.
+     *
+     * @return
+     *     The number of member DNs having at least one group.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the size of the records outside of the heap.
+     *
+     * @return
+     *     The size of the buffer in bytes.
+     */
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Merges the given memberships into a copy of the given index.
+     *
+     * @param previous
+     *     The index to start from, EMPTY for a new index.
+     *
+     * @param removedGroupIds
+     *     The IDs of the deleted and changed groups, which are dropped from
+     *     the records of the previous index.
+     *
+     * @param added
+     *     The memberships of the new and changed groups (sorted by this
+     *     method).
+     *
+     * @return
+     *     The new index.
+     */
+    public static OffHeapMemberIndex merge(OffHeapMemberIndex previous, CompressedBitSet removedGroupIds, List<Membership> added) {
+
+        Collections.sort(added);
+        long bytes = previous.buffer.limit();
+        for (Membership membership : added) bytes += 12 + membership.memberDN.length; // At worst a record of its own
+        if (bytes > Integer.MAX_VALUE) throw new IllegalStateException("Member index exceeds " + Integer.MAX_VALUE + " bytes.");
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) bytes);
+        ByteBuffer source = previous.buffer.duplicate(); // Own position => thread safe
+        int[] recordOffsets = new int[Math.max(16, previous.size)];
+        int size = 0;
+        int[] ids = new int[16];
+        int i = 0, j = 0;
+        while (i < previous.size || j < added.size()) {
+
+            int result;
+            if (i == previous.size) result = 1;
+            else if (j == added.size()) result = -1;
+            else result = compare(previous.buffer, previous.recordOffsets[i], added.get(j).memberDN);
+
+            // Collect the IDs of the record with the smallest member DN
+            int count = 0;
+            int previousOffset = -1;
+            byte[] memberDN = null;
+            if (result <= 0) {
+                previousOffset = previous.recordOffsets[i++];
+                int idsOffset = previousOffset + 4 + previous.buffer.getInt(previousOffset);
+                int previousCount = previous.buffer.getInt(idsOffset);
+                if (ids.length < previousCount) ids = new int[Math.max(previousCount, ids.length * 2)];
+                for (int k = 0; k < previousCount; k++) {
+                    int groupId = previous.buffer.getInt(idsOffset + 4 + 4 * k);
+                    if (!removedGroupIds.contains(groupId)) ids[count++] = groupId;
+                }
+            }
+            if (result >= 0) {
+                memberDN = added.get(j).memberDN;
+                for (; j < added.size() && Arrays.equals(added.get(j).memberDN, memberDN); j++) {
+                    if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                    ids[count++] = added.get(j).groupId;
+                }
+            }
+            if (count == 0) continue; // Member of deleted groups only
+
+            // Write the record, copying the member DN from the previous index if there
+            Arrays.sort(ids, 0, count);
+            if (size == recordOffsets.length) recordOffsets = Arrays.copyOf(recordOffsets, size * 2);
+            recordOffsets[size++] = buffer.position();
+            if (previousOffset >= 0) {
+                int length = previous.buffer.getInt(previousOffset);
+                source.limit(previousOffset + 4 + length);
+                source.position(previousOffset);
+                buffer.put(source);
+                source.limit(previous.buffer.limit());
+            }
+            else {
+                buffer.putInt(memberDN.length);
+                buffer.put(memberDN);
+            }
+            int countOffset = buffer.position();
+            buffer.putInt(0);
+            int written = 0;
+            for (int k = 0; k < count; k++) {
+                if (k > 0 && ids[k] == ids[k - 1]) continue;
+                buffer.putInt(ids[k]);
+                written++;
+            }
+            buffer.putInt(countOffset, written);
+
+        }
+        buffer.limit(buffer.position());
+        return new OffHeapMemberIndex(buffer, size == recordOffsets.length ? recordOffsets : Arrays.copyOf(recordOffsets, size), size);
+
+    }
+
+    /**
+     * Compares the member DN of the record at the given offset with the
+     * given member DN, byte by byte (unsigned).
+     */
+    private static int compare(ByteBuffer buffer, int offset, byte[] memberDN) {
+        int length = buffer.getInt(offset);
+        int common = Math.min(length, memberDN.length);
+        for (int k = 0; k < common; k++) {
+            int result = (buffer.get(offset + 4 + k) & 0xff) - (memberDN[k] & 0xff);
+            if (result != 0) return result;
+        }
+        return length - memberDN.length;
+    }
+
+    /**
+     * Compares the given member DNs byte by byte (unsigned).
+     */
+    private static int compare(byte[] memberDN, byte[] other) {
+        int common = Math.min(memberDN.length, other.length);
+        for (int k = 0; k < common; k++) {
+            int result = (memberDN[k] & 0xff) - (other[k] & 0xff);
+            if (result != 0) return result;
+        }
+        return memberDN.length - other.length;
+    }
+
+}
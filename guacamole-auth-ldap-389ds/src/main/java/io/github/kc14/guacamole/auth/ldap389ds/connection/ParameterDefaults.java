@@ -0,0 +1,245 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.util.DN;
+
+import io.github.kc14.com.novell.ldap.util.DNHelper;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.client.DirectoryClient;
+
+/**
+ * The guacConfigParameter values guac config groups inherit from the folders
+ * above them (see ldap-parameter-inheritance): each folder up to and
+ * including the config base may carry the auxiliary object class
+ * guacConfigDefaults, and the values of a nearer folder override those of a
+ * farther one with the same parameter name.
+ * <p>
+ * All guacConfigDefaults entries are read with one search (or from the
+ * LDIF file of ldap-config-ldif-file) and kept for
+ * ldap-parameter-defaults-ttl seconds. The merged values of a folder are
+ * resolved once per load and then shared by all guac config groups in it.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class ParameterDefaults {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ParameterDefaults.class);
+
+    /**
+     * The inherited values of a guac config group if nothing is inherited.
+     */
+    public static final String[] NO_PARAMETERS = new String[0];
+
+    /**
+     * The attributes read of the guacConfigDefaults entries.
+     */
+    private static final String[] DEFAULTS_ATTRIBUTES = { "guacConfigParameter" };
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Client for reading the guacConfigDefaults entries.
+     */
+    @Inject
+    private DirectoryClient directoryClient;
+
+    /**
+     * The current defaults, or null if not loaded yet.
+     */
+    private volatile Defaults defaults;
+
+    /**
+     * The guacConfigDefaults entries of one load with the folders resolved
+     * so far.
+     */
+    private static class Defaults {
+
+        /**
+         * The normalized config base DN the entries were read from.
+         */
+        final String baseDN;
+
+        /**
+         * The own guacConfigParameter values by normalized folder DN.
+         */
+        final Map<String, String[]> parameters;
+
+        /**
+         * The merged values (own and inherited) by normalized folder DN.
+         */
+        final ConcurrentMap<String, String[]> resolved = new ConcurrentHashMap<String, String[]>();
+
+        /**
+         * The time of the load in milliseconds.
+         */
+        final long loaded;
+
+        Defaults(String baseDN, Map<String, String[]> parameters, long loaded) {
+            this.baseDN = baseDN;
+            this.parameters = parameters;
+            this.loaded = loaded;
+        }
+
+        /**
+         * Returns the merged values of the given folder.
+         */
+        String[] resolve(String folderDN) {
+            String[] values = resolved.get(folderDN);
+            if (values != null) return values;
+
+            if (!folderDN.equals(baseDN) && !folderDN.endsWith("," + baseDN)) return NO_PARAMETERS; // Above the config base
+            String[] own = parameters.get(folderDN);
+            String[] inherited = folderDN.equals(baseDN) ? NO_PARAMETERS : resolve(getParent(folderDN));
+            values = merge(inherited, own == null ? NO_PARAMETERS : own);
+            resolved.put(folderDN, values);
+            return values;
+        }
+
+    }
+
+    /**
+     * Returns the guacConfigParameter values the given guac config group
+     * inherits from its folders, to be applied before its own values.
+     *
+     * @param guacConfigGroupDN
+     *     The DN of the guac config group.
+     *
+     * @return
+     *     The inherited values (name=value), empty if inheritance is
+     *     disabled or no folder defines defaults.
+     *
+     * @throws GuacamoleException
+     *     If the guacConfigDefaults entries cannot be read for the first
+     *     time.
+     */
+    public String[] getInheritedParameters(String guacConfigGroupDN) throws GuacamoleException {
+        if (!confService.getParameterInheritance()) return NO_PARAMETERS;
+        Defaults current = getDefaults();
+        if (current.parameters.isEmpty()) return NO_PARAMETERS;
+        return current.resolve(getParent(DNHelper.normalize(guacConfigGroupDN)));
+    }
+
+    /**
+     * Returns the current defaults, reading them again if older than the
+     * configured time to live. If they cannot be read again, the previous
+     * ones are kept until the next attempt.
+     */
+    private Defaults getDefaults() throws GuacamoleException {
+        long ttl = confService.getParameterDefaultsTTL() * 1000L;
+        Defaults current = defaults;
+        if (current != null && System.currentTimeMillis() - current.loaded < ttl) return current;
+        synchronized (this) {
+            current = defaults;
+            long now = System.currentTimeMillis();
+            if (current != null && now - current.loaded < ttl) return current;
+            try {
+                current = load(now);
+            }
+            catch (GuacamoleException e) {
+                if (current == null) throw e;
+                logger.warn("Cannot read guacConfigDefaults, keeping the previous ones: {}", e.getMessage());
+                current = new Defaults(current.baseDN, current.parameters, now);
+            }
+            defaults = current;
+            return current;
+        }
+    }
+
+    /**
+     * Reads all guacConfigDefaults entries below the config base.
+     */
+    private Defaults load(long now) throws GuacamoleException {
+        String baseDN = confService.getGuacConfigGroupsBaseDN();
+        String ldifPath = confService.getConfigLdifFile();
+        List<LDAPEntry> entries;
+        if (ldifPath != null) {
+            try {
+                entries = ConfigGroupLdifFile.read(new File(ldifPath), "guacConfigDefaults", DEFAULTS_ATTRIBUTES);
+            }
+            catch (IOException e) {
+                throw new GuacamoleServerException("Cannot read guacConfigDefaults from [" + ldifPath + "].", e);
+            }
+        }
+        else {
+            entries = directoryClient.search(baseDN, LDAPConnection.SCOPE_SUB, "(objectClass=guacConfigDefaults)", DEFAULTS_ATTRIBUTES);
+        }
+
+        Map<String, String[]> parameters = new HashMap<String, String[]>();
+        for (LDAPEntry entry : entries) {
+            LDAPAttribute attribute = entry.getAttribute("guacConfigParameter");
+            if (attribute != null) parameters.put(DNHelper.normalize(entry.getDN()), attribute.getStringValueArray());
+        }
+        logger.debug("{} guacConfigDefaults read in {} ms.", parameters.size(), System.currentTimeMillis() - now);
+        return new Defaults(DNHelper.normalize(baseDN), Collections.unmodifiableMap(parameters), now);
+    }
+
+    /**
+     * Returns the values of the given arrays, keeping only the last value of
+     * each parameter name at the position of its first occurrence.
+     *
+     * @param inherited
+     *     The values to override.
+     *
+     * @param own
+     *     The overriding values.
+     *
+     * @return
+     *     The merged values (name=value).
+     */
+    public static String[] merge(String[] inherited, String[] own) {
+        if (inherited.length == 0) return own;
+        if (own.length == 0) return inherited;
+        Map<String, String> merged = new LinkedHashMap<String, String>();
+        for (String value : inherited) merged.put(getName(value), value);
+        for (String value : own) merged.put(getName(value), value);
+        return merged.values().toArray(new String[merged.size()]);
+    }
+
+    /**
+     * Returns the name of the given parameter (name=value).
+     */
+    private static String getName(String parameter) {
+        int equals = parameter.indexOf('=');
+        return equals == -1 ? parameter : parameter.substring(0, equals);
+    }
+
+    /**
+     * Returns the normalized DN of the parent of the given normalized DN.
+     */
+    private static String getParent(String normalizedDN) {
+        try {
+            return new DN(normalizedDN).getParent().toString().toLowerCase();
+        }
+        catch (IllegalArgumentException e) { // Not a parsable DN => no parent
+            return "";
+        }
+    }
+
+}
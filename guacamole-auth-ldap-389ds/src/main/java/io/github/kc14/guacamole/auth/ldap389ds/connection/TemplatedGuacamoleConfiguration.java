@@ -0,0 +1,174 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.protocol.GuacamoleConfiguration;
+import org.glyptodon.guacamole.token.TokenFilter;
+
+import io.github.kc14.guacamole.auth.ldap389ds.utils.ParameterTemplate;
+
+/**
+ * A GuacamoleConfiguration of one user on top of a shared, immutable
+ * ConfigurationTemplate: the tokens of the user are applied when a
+ * parameter is read, so building the connections at login does not touch
+ * any parameter value.
+ * <p>
+ * The template is copied into this configuration (copy on write) as soon
+ * as the parameters are modified or the modifiable parameter map is
+ * requested; from then on this behaves like a plain GuacamoleConfiguration.
+ *
+ * @author Frank Kemmer
+ */
+public class TemplatedGuacamoleConfiguration extends GuacamoleConfiguration {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The shared template, or null if provided by the base configuration or
+     * by getTemplate of a subclass.
+     */
+    private final transient ConfigurationTemplate template;
+
+    /**
+     * The shared configuration providing the template, or null.
+     */
+    private final transient TemplatedGuacamoleConfiguration base;
+
+    /**
+     * The filter holding the tokens of the user, or null.
+     */
+    private transient TokenFilter tokenFilter;
+
+    /**
+     * Whether the parameters were copied into this configuration.
+     */
+    private boolean copied;
+
+    /**
+     * Creates a configuration of the given template.
+     *
+     * @param template
+     *     The shared template.
+     */
+    public TemplatedGuacamoleConfiguration(ConfigurationTemplate template) {
+        this(template.getProtocol(), template, null);
+    }
+
+    /**
+     * Creates a configuration of one user on top of a configuration shared
+     * by many users, e.g. a lazily loaded one, whose template is used.
+     *
+     * @param base
+     *     The shared configuration, which must not be modified.
+     */
+    public TemplatedGuacamoleConfiguration(TemplatedGuacamoleConfiguration base) {
+        this(base.getProtocol(), null, base);
+    }
+
+    /**
+     * Creates a configuration of the given protocol, whose template is
+     * provided by getTemplate.
+     *
+     * @param protocol
+     *     The protocol of the configuration.
+     */
+    protected TemplatedGuacamoleConfiguration(String protocol) {
+        this(protocol, null, null);
+    }
+
+    private TemplatedGuacamoleConfiguration(String protocol, ConfigurationTemplate template, TemplatedGuacamoleConfiguration base) {
+        this.template = template;
+        this.base = base;
+        setProtocol(protocol);
+    }
+
+    /**
+     * Returns the template of this configuration.
+     *
+     * @return
+     *     The shared template.
+     */
+    protected ConfigurationTemplate getTemplate() {
+        return base != null ? base.getTemplate() : template;
+    }
+
+    /**
+     * Makes sure the template is available, i.e. loads lazily loaded
+     * parameters (see LazyGuacamoleConfiguration). Called before connecting,
+     * so a failed load fails the connection instead of connecting without
+     * parameters.
+     *
+     * @throws GuacamoleException
+     *     If the parameters cannot be loaded.
+     */
+    public void load() throws GuacamoleException {
+        if (base != null) base.load();
+    }
+
+    /**
+     * Sets the filter holding the tokens of the user, which are applied to
+     * the parameter values when read.
+     *
+     * @param tokenFilter
+     *     The filter holding the tokens of the user.
+     */
+    public synchronized void setTokenFilter(TokenFilter tokenFilter) {
+        if (copied) tokenFilter.filterValues(super.getParameters());
+        else this.tokenFilter = tokenFilter;
+    }
+
+    /**
+     * Copies the parameters of the template with the tokens applied into
+     * this configuration, if not done yet.
+     */
+    private synchronized void copy() {
+        if (copied) return;
+        ConfigurationTemplate current = getTemplate();
+        for (String name : current.getParameterNames()) {
+            super.setParameter(name, current.getParameter(name).apply(tokenFilter));
+        }
+        tokenFilter = null;
+        copied = true;
+    }
+
+    @Override
+    public synchronized String getParameter(String name) {
+        if (copied) return super.getParameter(name);
+        ParameterTemplate parameter = getTemplate().getParameter(name);
+        return parameter == null ? null : parameter.apply(tokenFilter);
+    }
+
+    @Override
+    public synchronized Set<String> getParameterNames() {
+        if (copied) return super.getParameterNames();
+        return getTemplate().getParameterNames();
+    }
+
+    @Override
+    public Map<String, String> getParameters() {
+        copy();
+        return super.getParameters();
+    }
+
+    @Override
+    public void setParameter(String name, String value) {
+        copy();
+        super.setParameter(name, value);
+    }
+
+    @Override
+    public void unsetParameter(String name) {
+        copy();
+        super.unsetParameter(name);
+    }
+
+    @Override
+    public synchronized void setParameters(Map<String, String> parameters) {
+        super.setParameters(parameters);
+        tokenFilter = null;
+        copied = true;
+    }
+
+}
@@ -0,0 +1,155 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.net.GuacamoleTunnel;
+import org.glyptodon.guacamole.net.auth.simple.SimpleConnection;
+import org.glyptodon.guacamole.protocol.GuacamoleClientInformation;
+import org.glyptodon.guacamole.protocol.GuacamoleConfiguration;
+
+/**
+ * A connection which registers its open tunnels in the
+ * ActiveConnectionRegistry, so the number of active connections is known
+ * across all users, and which is admitted only within the limits of its
+ * guac config group.
+ *
+ * @author Frank Kemmer
+ */
+public class TrackedConnection extends SimpleConnection {
+
+    /**
+     * The registry of the active connections.
+     */
+    private final ActiveConnectionRegistry activeConnectionRegistry;
+
+    /**
+     * Whether this connection is a member of the balancing connection group
+     * of its parent folder (guacConfigBalancing).
+     */
+    private final boolean balancing;
+
+    /**
+     * The maximum number of active connections (guacConfigMaxConnections),
+     * 0 for no limit.
+     */
+    private final int maxConnections;
+
+    /**
+     * The maximum number of active connections of one user
+     * (guacConfigMaxConnectionsPerUser), 0 for no limit.
+     */
+    private final int maxConnectionsPerUser;
+
+    /**
+     * The user this connection belongs to, or null if it is shared.
+     */
+    private String username;
+
+    /**
+     * Creates a tracked connection.
+     *
+     * @param name
+     *     The name of the connection (the cn of the guac config group).
+     *
+     * @param identifier
+     *     The identifier of the connection (see IdentifierService).
+     *
+     * @param config
+     *     The configuration of the connection.
+     *
+     * @param activeConnectionRegistry
+     *     The registry of the active connections.
+     *
+     * @param balancing
+     *     Whether the parent folder of the connection is a balancing
+     *     connection group.
+     *
+     * @param maxConnections
+     *     The maximum number of active connections, 0 for no limit.
+     *
+     * @param maxConnectionsPerUser
+     *     The maximum number of active connections of one user, 0 for no
+     *     limit.
+     *
+     * @param username
+     *     The user the connection belongs to, or null if it is shared.
+     */
+    public TrackedConnection(String name, String identifier, GuacamoleConfiguration config,
+            ActiveConnectionRegistry activeConnectionRegistry, boolean balancing,
+            int maxConnections, int maxConnectionsPerUser, String username) {
+        super(name, identifier, config);
+        this.activeConnectionRegistry = activeConnectionRegistry;
+        this.balancing = balancing;
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerUser = maxConnectionsPerUser;
+        this.username = username;
+    }
+
+    /**
+     * Creates a copy of the given connection for a user with another
+     * configuration (the one with the tokens of the user), tracked by the
+     * same registry with the same limits.
+     *
+     * @param connection
+     *     The connection to copy.
+     *
+     * @param config
+     *     The configuration of the copy.
+     *
+     * @param username
+     *     The user the copy belongs to.
+     */
+    public TrackedConnection(TrackedConnection connection, GuacamoleConfiguration config, String username) {
+        this(connection.getName(), connection.getIdentifier(), config, connection.activeConnectionRegistry,
+                connection.balancing, connection.maxConnections, connection.maxConnectionsPerUser, username);
+        setParentIdentifier(connection.getParentIdentifier());
+    }
+
+    /**
+     * Returns whether this connection is a member of the balancing
+     * connection group of its parent folder.
+     *
+     * @return
+     *     true, if the parent folder is a balancing connection group.
+     */
+    public boolean isBalancing() {
+        return balancing;
+    }
+
+    /**
+     * Sets the user this connection belongs to, whose active connections
+     * are counted and limited.
+     *
+     * @param username
+     *     The name of the user.
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public GuacamoleTunnel connect(GuacamoleClientInformation info) throws GuacamoleException {
+        GuacamoleConfiguration config = getConfiguration();
+        if (config instanceof TemplatedGuacamoleConfiguration) ((TemplatedGuacamoleConfiguration) config).load(); // Fails if parameters cannot be loaded
+        String host = config.getParameter("hostname");
+        ActiveConnectionRegistry.Admission admission = activeConnectionRegistry.admit(getIdentifier(), username, host, maxConnections, maxConnectionsPerUser);
+        GuacamoleTunnel tunnel;
+        try {
+            tunnel = super.connect(info);
+        }
+        catch (GuacamoleException e) {
+            admission.release();
+            throw e;
+        }
+        catch (RuntimeException e) {
+            admission.release();
+            throw e;
+        }
+        return admission.register(tunnel);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnectionRegistry.getActiveConnections(getIdentifier());
+    }
+
+}
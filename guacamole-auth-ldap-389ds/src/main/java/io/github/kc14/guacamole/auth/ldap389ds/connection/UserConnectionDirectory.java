@@ -0,0 +1,108 @@
+package io.github.kc14.guacamole.auth.ldap389ds.connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.net.auth.Connection;
+import org.glyptodon.guacamole.net.auth.simple.SimpleConnection;
+import org.glyptodon.guacamole.net.auth.simple.SimpleDirectory;
+import org.glyptodon.guacamole.protocol.GuacamoleConfiguration;
+import org.glyptodon.guacamole.token.TokenFilter;
+
+/**
+ * The read-only view of one user on the connections of a shared connection
+ * tree: a connection is wrapped into a connection with the tokens of the user
+ * when it is requested for the first time, so the shared connections are
+ * never modified.
+ *
+ * @author Frank Kemmer
+ */
+public class UserConnectionDirectory extends SimpleDirectory<Connection> {
+
+    /**
+     * The shared connections.
+     */
+    private final Map<String, Connection> sharedConnections;
+
+    /**
+     * The filter holding the tokens of the user.
+     */
+    private final TokenFilter tokenFilter;
+
+    /**
+     * The name of the user.
+     */
+    private final String username;
+
+    /**
+     * The connections of the user wrapped so far.
+     */
+    private final Map<String, Connection> userConnections = new HashMap<String, Connection>();
+
+    /**
+     * Creates the view of a user on the given shared connections.
+     *
+     * @param sharedConnections
+     *     The shared connections by identifier.
+     *
+     * @param tokenFilter
+     *     The filter holding the tokens of the user.
+     *
+     * @param username
+     *     The name of the user.
+     */
+    public UserConnectionDirectory(Map<String, Connection> sharedConnections, TokenFilter tokenFilter, String username) {
+        super(sharedConnections);
+        this.sharedConnections = sharedConnections;
+        this.tokenFilter = tokenFilter;
+        this.username = username;
+    }
+
+    @Override
+    public synchronized Connection get(String identifier) throws GuacamoleException {
+        Connection userConnection = userConnections.get(identifier);
+        if (userConnection != null) return userConnection;
+        Connection sharedConnection = sharedConnections.get(identifier);
+        if (sharedConnection == null) return null;
+        userConnection = wrap(sharedConnection);
+        userConnections.put(identifier, userConnection);
+        return userConnection;
+    }
+
+    @Override
+    public Collection<Connection> getAll(Collection<String> identifiers) throws GuacamoleException {
+        List<Connection> connections = new ArrayList<Connection>(identifiers.size());
+        for (String identifier : identifiers) {
+            Connection connection = get(identifier);
+            if (connection != null) connections.add(connection);
+        }
+        return connections;
+    }
+
+    /**
+     * Creates the connection of the user for the given shared connection.
+     */
+    private Connection wrap(Connection sharedConnection) {
+        GuacamoleConfiguration sharedConfig = sharedConnection.getConfiguration();
+        GuacamoleConfiguration config;
+        if (sharedConfig instanceof TemplatedGuacamoleConfiguration) {
+            TemplatedGuacamoleConfiguration templatedConfig = new TemplatedGuacamoleConfiguration((TemplatedGuacamoleConfiguration) sharedConfig);
+            templatedConfig.setTokenFilter(tokenFilter);
+            config = templatedConfig;
+        }
+        else {
+            config = new GuacamoleConfiguration(sharedConfig);
+            tokenFilter.filterValues(config.getParameters());
+        }
+        if (sharedConnection instanceof TrackedConnection)
+            return new TrackedConnection((TrackedConnection) sharedConnection, config, username);
+        Connection userConnection = new SimpleConnection(sharedConnection.getName(), sharedConnection.getIdentifier(), config);
+        userConnection.setParentIdentifier(sharedConnection.getParentIdentifier());
+        return userConnection;
+    }
+
+}
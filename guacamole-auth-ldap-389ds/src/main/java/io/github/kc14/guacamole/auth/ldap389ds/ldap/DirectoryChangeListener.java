@@ -0,0 +1,22 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap;
+
+/**
+ * Listener notified by the DirectoryChangeMonitor about changed LDAP entries.
+ *
+ * @author Frank Kemmer
+ */
+public interface DirectoryChangeListener {
+
+    /**
+     * Called for each entry which was added or modified since the last poll.
+     *
+     * @param dn
+     *     The DN of the changed entry.
+     *
+     * @param usernames
+     *     The values of the username attribute (ldap-username-attribute) of
+     *     the changed entry, empty if it has none.
+     */
+    void entryChanged(String dn, String[] usernames);
+
+}
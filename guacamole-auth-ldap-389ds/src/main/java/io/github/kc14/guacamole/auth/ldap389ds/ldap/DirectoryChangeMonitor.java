@@ -0,0 +1,217 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+
+import io.github.kc14.guacamole.auth.ldap389ds.Lifecycle;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.client.DirectoryClient;
+
+/**
+ * Polls the user base DN for entries changed since the last poll (by their
+ * modifyTimestamp) and notifies the registered listeners, so that cached
+ * data of changed users (e.g. after a password change) can be dropped.
+ * <p>
+ * The monitor is started by the first cache which needs it and only runs if
+ * ldap-user-base-dn is configured. Once stopped, it is not started again.
+ * The first poll only takes the current time of the LDAP server as the
+ * watermark, instead of scanning the whole user base.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class DirectoryChangeMonitor implements Lifecycle {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(DirectoryChangeMonitor.class);
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Client for the searches of the user base.
+     */
+    @Inject
+    private DirectoryClient directoryClient;
+
+    /**
+     * The listeners to notify about changed entries.
+     */
+    private final List<DirectoryChangeListener> listeners = new CopyOnWriteArrayList<DirectoryChangeListener>();
+
+    /**
+     * Executor running the periodic poll, or null if not started yet.
+     */
+    private ScheduledExecutorService poller;
+
+    /**
+     * Whether the monitor was stopped.
+     */
+    private boolean stopped;
+
+    /**
+     * The newest modifyTimestamp (generalized time) seen so far, or null
+     * before the first poll.
+     */
+    private String watermark;
+
+    /**
+     * The DNs of the entries already reported with a modifyTimestamp equal
+     * to the watermark (these are returned again by the next poll).
+     */
+    private Set<String> reportedAtWatermark = new HashSet<String>();
+
+    /**
+     * How far the watermark taken from the local clock is set back, to cover
+     * a clock skew to the LDAP server (in milliseconds).
+     */
+    private static final long CLOCK_SKEW = 5 * 60 * 1000L;
+
+    /**
+     * Registers a listener to be notified about changed entries.
+     *
+     * @param listener
+     *     The listener to register.
+     */
+    public void addListener(DirectoryChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts polling for changes, if not already started, if a listener is
+     * registered and if a user base DN is configured.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    @Override
+    public synchronized void start() throws GuacamoleException {
+        if (stopped || poller != null || listeners.isEmpty()) return;
+        final String userBaseDN = confService.getUserBaseDN();
+        int interval = confService.getChangeMonitorInterval();
+        if (userBaseDN == null || userBaseDN.isEmpty() || interval <= 0) {
+            logger.debug("No ldap-user-base-dn configured => changes of users are not monitored.");
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ldap389ds-change-monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll(userBaseDN);
+                }
+                catch (GuacamoleException e) { // Retry with the next run
+                    logger.warn("Polling for changed LDAP entries failed: {}", e.getMessage());
+                    logger.debug("Polling for changed LDAP entries failed.", e);
+                }
+                catch (RuntimeException e) { // Never let the poller die
+                    logger.error("Unexpected error while polling for changed LDAP entries.", e);
+                }
+            }
+        }, 0, interval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopped = true;
+        if (poller != null) poller.shutdownNow();
+    }
+
+    /**
+     * Searches the entries below the given base changed since the last poll
+     * and notifies the listeners. The first poll only determines the
+     * watermark.
+     */
+    private synchronized void poll(String baseDN) throws GuacamoleException {
+
+        if (watermark == null) {
+            watermark = getServerTime();
+            logger.debug("Changes of LDAP entries are monitored from [{}] on.", watermark);
+            return;
+        }
+
+        String filter = "(modifyTimestamp>=" + watermark + ")";
+        String usernameAttribute = confService.getUsernameAttribute();
+        List<LDAPEntry> results = directoryClient.search(baseDN, LDAPConnection.SCOPE_SUB, filter, new String[] { "modifyTimestamp", usernameAttribute });
+        String newWatermark = watermark;
+        Set<String> changedAtNewWatermark = new HashSet<String>();
+        for (LDAPEntry entry : results) {
+            LDAPAttribute modifyTimestampAttribute = entry.getAttribute("modifyTimestamp");
+            if (modifyTimestampAttribute == null) continue;
+            String modifyTimestamp = modifyTimestampAttribute.getStringValue();
+            String dn = entry.getDN();
+            if (modifyTimestamp.compareTo(newWatermark) > 0) {
+                newWatermark = modifyTimestamp;
+                changedAtNewWatermark.clear();
+            }
+            if (modifyTimestamp.equals(newWatermark)) changedAtNewWatermark.add(dn);
+            if (modifyTimestamp.equals(watermark) && reportedAtWatermark.contains(dn)) continue; // Already reported
+            LDAPAttribute usernameValues = entry.getAttribute(usernameAttribute);
+            String[] usernames = usernameValues == null ? new String[0] : usernameValues.getStringValueArray();
+            for (DirectoryChangeListener listener : listeners) {
+                listener.entryChanged(dn, usernames);
+            }
+        }
+        if (newWatermark.equals(watermark)) changedAtNewWatermark.addAll(reportedAtWatermark);
+        watermark = newWatermark;
+        reportedAtWatermark = changedAtNewWatermark;
+
+    }
+
+    /**
+     * Returns the current time of the LDAP server (generalized time), from
+     * the currentTime attribute of the root DSE or, where 389-ds keeps it, of
+     * cn=monitor. If the server does not tell, the local clock set back by
+     * CLOCK_SKEW is used (changes reported twice only drop cached data once
+     * more).
+     */
+    private String getServerTime() {
+        for (String dn : new String[] { "", "cn=monitor" }) {
+            try {
+                for (LDAPEntry entry : directoryClient.search(dn, LDAPConnection.SCOPE_BASE, "(objectClass=*)", new String[] { "currentTime" })) {
+                    LDAPAttribute currentTime = entry.getAttribute("currentTime");
+                    if (currentTime != null && currentTime.getStringValue() != null) return currentTime.getStringValue();
+                }
+            }
+            catch (GuacamoleException e) { // Try the next source
+                logger.debug("Cannot read the currentTime of [" + dn + "].", e);
+            }
+        }
+        logger.info("The LDAP server does not provide its currentTime => monitoring changes from the local time.");
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(System.currentTimeMillis() - CLOCK_SKEW));
+    }
+
+}
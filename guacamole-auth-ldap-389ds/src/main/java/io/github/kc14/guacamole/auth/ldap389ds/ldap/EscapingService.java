@@ -22,11 +22,14 @@
 
 package io.github.kc14.guacamole.auth.ldap389ds.ldap;
 
+import com.google.inject.Singleton;
+
 /**
  * Service for escaping LDAP filters, distinguished names (DN's), etc.
  *
  * @author Michael Jumper
  */
+@Singleton
 public class EscapingService {
 
     /**
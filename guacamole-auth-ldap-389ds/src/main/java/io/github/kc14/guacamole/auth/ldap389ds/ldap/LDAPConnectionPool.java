@@ -0,0 +1,214 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+import io.github.kc14.guacamole.auth.ldap389ds.Lifecycle;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+
+/**
+ * Pool of idle LDAP connections bound with the default bindDN.
+ * <p>
+ * The LDAPConnectionService takes a connection from the pool in
+ * bindDefaultDN and gives it back in disconnect, so the callers keep their
+ * usual bind/disconnect pattern. Connections which were not taken from the
+ * pool (e.g. user binds by bindAs) are never pooled.
+ * <p>
+ * Connections used for user binds (see LDAPConnectionService.bindUser) are
+ * kept apart in a second list of the same size: they are rebound by every
+ * use, so they never get back to the connections of the default bindDN.
+ * <p>
+ * At stop all idle connections are disconnected and connections given back
+ * afterwards are no longer pooled.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class LDAPConnectionPool implements Lifecycle {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(LDAPConnectionPool.class);
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * The idle connections, the most recently used first.
+     */
+    private final LinkedList<LDAPConnection> idle = new LinkedList<LDAPConnection>();
+
+    /**
+     * The connections which are managed by the pool and currently in use.
+     */
+    private final Set<LDAPConnection> borrowed = Collections.newSetFromMap(new IdentityHashMap<LDAPConnection, Boolean>());
+
+    /**
+     * The idle connections for user binds, the most recently used first.
+     */
+    private final LinkedList<LDAPConnection> idleUserBind = new LinkedList<LDAPConnection>();
+
+    /**
+     * The connections for user binds which are currently in use.
+     */
+    private final Set<LDAPConnection> borrowedUserBind = Collections.newSetFromMap(new IdentityHashMap<LDAPConnection, Boolean>());
+
+    /**
+     * Whether the pool was stopped.
+     */
+    private boolean stopped;
+
+    /**
+     * Returns whether pooling is enabled.
+     *
+     * @return
+     *     true, if ldap-connection-pool-size is greater than 0.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean isEnabled() throws GuacamoleException {
+        return confService.getConnectionPoolSize() > 0;
+    }
+
+    /**
+     * Takes an idle connection out of the pool. Connections which were
+     * closed meanwhile (e.g. by an idle timeout of the server) are dropped.
+     *
+     * @return
+     *     An idle connection bound with the default bindDN, or null if
+     *     there is none.
+     */
+    public synchronized LDAPConnection borrow() {
+        return borrow(idle, borrowed);
+    }
+
+    /**
+     * Takes an idle connection for a user bind out of the pool.
+     *
+     * @return
+     *     An idle connection for user binds (bound as the last user), or
+     *     null if there is none.
+     */
+    public synchronized LDAPConnection borrowForUserBind() {
+        return borrow(idleUserBind, borrowedUserBind);
+    }
+
+    private static LDAPConnection borrow(LinkedList<LDAPConnection> idle, Set<LDAPConnection> borrowed) {
+        while (!idle.isEmpty()) {
+            LDAPConnection ldapConnection = idle.removeFirst();
+            if (ldapConnection.isConnectionAlive()) {
+                borrowed.add(ldapConnection);
+                return ldapConnection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks a newly bound connection of the default bindDN as managed by the
+     * pool, so it is pooled when given back.
+     *
+     * @param ldapConnection
+     *     The connection bound with the default bindDN.
+     */
+    public synchronized void track(LDAPConnection ldapConnection) {
+        borrowed.add(ldapConnection);
+    }
+
+    /**
+     * Marks a newly opened connection for user binds as managed by the pool,
+     * so it is pooled when given back.
+     *
+     * @param ldapConnection
+     *     The connection opened for a user bind.
+     */
+    public synchronized void trackForUserBind(LDAPConnection ldapConnection) {
+        borrowedUserBind.add(ldapConnection);
+    }
+
+    /**
+     * Gives a connection back to the pool.
+     *
+     * @param ldapConnection
+     *     The connection which is no longer used.
+     *
+     * @return
+     *     true, if the connection was taken into the pool, false if it is not
+     *     managed by the pool, not alive anymore or the pool is full, i.e. the
+     *     caller has to disconnect it.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean giveBack(LDAPConnection ldapConnection) throws GuacamoleException {
+        int size = confService.getConnectionPoolSize();
+        synchronized (this) {
+            if (stopped) return false;
+            if (borrowed.remove(ldapConnection)) return giveBack(ldapConnection, idle, size);
+            if (borrowedUserBind.remove(ldapConnection)) return giveBack(ldapConnection, idleUserBind, size);
+            return false;
+        }
+    }
+
+    private static boolean giveBack(LDAPConnection ldapConnection, LinkedList<LDAPConnection> idle, int size) {
+        if (idle.size() >= size || !ldapConnection.isConnected()) return false;
+        idle.addFirst(ldapConnection);
+        return true;
+    }
+
+    @Override
+    public void start() {
+        // The pool is filled by the warm up (see LDAPConnectionService.fillPool) or on use
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopped = true;
+        int closed = disconnect(idle) + disconnect(idleUserBind);
+        borrowed.clear();
+        borrowedUserBind.clear();
+        if (closed > 0) logger.info("{} pooled LDAP connections closed.", closed);
+    }
+
+    private int disconnect(LinkedList<LDAPConnection> idle) {
+        int closed = 0;
+        while (!idle.isEmpty()) {
+            LDAPConnection ldapConnection = idle.removeFirst();
+            try {
+                ldapConnection.disconnect();
+                closed++;
+            }
+            catch (LDAPException e) {
+                logger.debug("Disconnecting a pooled LDAP connection failed.", e);
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Returns the number of idle connections in the pool.
+     *
+     * @return
+     *     The number of idle connections.
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+}
@@ -23,16 +23,22 @@
 package io.github.kc14.guacamole.auth.ldap389ds.ldap;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPControl;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPJSSESecureSocketFactory;
 import com.novell.ldap.LDAPJSSEStartTLSFactory;
+import com.novell.ldap.LDAPSearchConstraints;
 
 import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
 import io.github.kc14.guacamole.auth.ldap389ds.config.EncryptionMethod;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
 import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
 import org.glyptodon.guacamole.GuacamoleUnsupportedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +48,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Michael Jumper
  */
+@Singleton
 public class LDAPConnectionService {
 
     /**
@@ -49,12 +56,29 @@ public class LDAPConnectionService {
      */
     private final Logger logger = LoggerFactory.getLogger(LDAPConnectionService.class);
 
+    /**
+     * The OID of the Proxied Authorization control (RFC 4370).
+     */
+    public static final String PROXIED_AUTHORIZATION_OID = "2.16.840.1.113730.3.4.18";
+
     /**
      * Service for retrieving LDAP server configuration information.
      */
     @Inject
     private ConfigurationService confService;
 
+    /**
+     * Pool of idle connections bound with the default bindDN.
+     */
+    @Inject
+    private LDAPConnectionPool connectionPool;
+
+    /**
+     * Provider of the SSLContext shared by all encrypted connections.
+     */
+    @Inject
+    private TLSContextService tlsContextService;
+
     /**
      * Creates a new instance of LDAPConnection, configured as required to use
      * whichever encryption method is requested within guacamole.properties.
@@ -81,12 +105,12 @@ public class LDAPConnectionService {
             // LDAP over SSL (LDAPS)
             case SSL:
                 logger.info("Connecting to LDAP server using SSL/TLS.");
-                return new LDAPConnection(new LDAPJSSESecureSocketFactory());
+                return new LDAPConnection(new LDAPJSSESecureSocketFactory(tlsContextService.getSocketFactory()));
 
             // LDAP + STARTTLS
             case STARTTLS:
                 logger.debug("Connecting to LDAP server using STARTTLS.");
-                return new LDAPConnection(new LDAPJSSEStartTLSFactory());
+                return new LDAPConnection(new LDAPJSSEStartTLSFactory(tlsContextService.getSocketFactory()));
 
             // The encryption method, though known, is not actually
             // implemented. If encountered, this would be a bug.
@@ -117,6 +141,48 @@ public class LDAPConnectionService {
     public LDAPConnection bindAs(String userDN, String password)
             throws GuacamoleException {
 
+        // Obtain appropriately-configured and connected LDAPConnection instance
+        LDAPConnection ldapConnection = connect();
+        if (ldapConnection == null) return null;
+
+        // Bind using provided credentials
+        try {
+
+            byte[] passwordBytes = getPasswordBytes(password);
+            if (passwordBytes == null && password != null) {
+                disconnect(ldapConnection);
+                return null;
+            }
+
+            // Bind as user
+            ldapConnection.bind(LDAPConnection.LDAP_V3, userDN, passwordBytes);
+
+        }
+
+        // Disconnect if an error occurs during bind
+        catch (LDAPException e) {
+            logger.debug("LDAP bind failed.", e);
+            disconnect(ldapConnection);
+            return null;
+        }
+
+        return ldapConnection;
+
+    }
+
+    /**
+     * Creates a new LDAPConnection and connects it to the LDAP server,
+     * starting TLS if requested.
+     *
+     * @return
+     *     The connected (not bound) LDAP connection, or null if the server
+     *     could not be reached.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private LDAPConnection connect() throws GuacamoleException {
+
         // Obtain appropriately-configured LDAPConnection instance
         LDAPConnection ldapConnection = createLDAPConnection();
 
@@ -139,40 +205,81 @@ public class LDAPConnectionService {
             return null;
         }
 
-        // Bind using provided credentials
+        return ldapConnection;
+
+    }
+
+    /**
+     * Converts the given password into its UTF-8 bytes.
+     *
+     * @return
+     *     The bytes, or null if the password is null or UTF-8 is not
+     *     supported (logged).
+     */
+    private byte[] getPasswordBytes(String password) {
+        if (password == null) return null;
         try {
+            return password.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            logger.error("Unexpected lack of support for UTF-8: {}", e.getMessage());
+            logger.debug("Support for UTF-8 (as required by Java spec) not found.", e);
+            return null;
+        }
+    }
 
-            byte[] passwordBytes;
-            try {
+    /**
+     * Binds as the given user on a pooled connection, if pooling is enabled,
+     * so verifying the password of a user needs only the bind operation.
+     * Otherwise the same as bindAs.
+     * <p>
+     * The connection must be given back by disconnect; it is only pooled
+     * for further user binds, never for the default bindDN.
+     *
+     * @param userDN
+     *     The DN of the user to bind as.
+     *
+     * @param password
+     *     The password of the user.
+     *
+     * @return
+     *     A connection bound as the user, or null if the connection could
+     *     not be bound (e.g. wrong or empty password).
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while binding to the LDAP server.
+     */
+    public LDAPConnection bindUser(String userDN, String password)
+            throws GuacamoleException {
 
-                // Convert password into corresponding byte array
-                if (password != null)
-                    passwordBytes = password.getBytes("UTF-8");
-                else
-                    passwordBytes = null;
+        // An empty password would be an unauthenticated bind, which succeeds
+        if (password == null || password.isEmpty()) return null;
 
-            }
-            catch (UnsupportedEncodingException e) {
-                logger.error("Unexpected lack of support for UTF-8: {}", e.getMessage());
-                logger.debug("Support for UTF-8 (as required by Java spec) not found.", e);
-                disconnect(ldapConnection);
-                return null;
-            }
+        if (!connectionPool.isEnabled()) return bindAs(userDN, password);
 
-            // Bind as user
-            ldapConnection.bind(LDAPConnection.LDAP_V3, userDN, passwordBytes);
+        LDAPConnection ldapConnection = connectionPool.borrowForUserBind();
+        if (ldapConnection == null) {
+            ldapConnection = connect();
+            if (ldapConnection == null) return null;
+            connectionPool.trackForUserBind(ldapConnection);
+        }
 
+        byte[] passwordBytes = getPasswordBytes(password);
+        if (passwordBytes == null) {
+            disconnect(ldapConnection);
+            return null;
         }
 
-        // Disconnect if an error occurs during bind
+        try {
+            ldapConnection.bind(LDAPConnection.LDAP_V3, userDN, passwordBytes);
+            return ldapConnection;
+        }
         catch (LDAPException e) {
             logger.debug("LDAP bind failed.", e);
-            disconnect(ldapConnection);
+            disconnect(ldapConnection); // The failed bind leaves it anonymous => reusable
             return null;
         }
 
-        return ldapConnection;
-
     }
 
     /**
@@ -192,6 +299,13 @@ public class LDAPConnectionService {
      */
     public LDAPConnection bindDefaultDN()
             throws GuacamoleException {
+
+        // Reuse an idle connection, if pooled
+        boolean pooled = connectionPool.isEnabled();
+        if (pooled) {
+            LDAPConnection ldapConnection = connectionPool.borrow();
+            if (ldapConnection != null) return ldapConnection;
+        }
     	
         // We allow empty, i.e. anonymous, bindDN ... but in most cases this will fail
         String bindDN = confService.getDefaultBindDN();
@@ -209,8 +323,93 @@ public class LDAPConnectionService {
             authtok = "";
         }
         
-        return bindAs(bindDN, authtok);
+        LDAPConnection ldapConnection = bindAs(bindDN, authtok);
+        if (pooled && ldapConnection != null) connectionPool.track(ldapConnection);
+        return ldapConnection;
+
+    }
+
+    /**
+     * Binds to the LDAP server using the default bindDN (see bindDefaultDN),
+     * sending all operations with the Proxied Authorization control for the
+     * given user, so the server applies the ACIs of the user. The connection
+     * is pooled as usual; disconnect removes the control.
+     *
+     * @param userDN
+     *     The DN of the user to act for.
+     *
+     * @return
+     *     A bound LDAP connection acting for the user, or null if the
+     *     connection could not be bound.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while binding to the LDAP server.
+     */
+    public LDAPConnection bindDefaultDNFor(String userDN)
+            throws GuacamoleException {
+
+        LDAPConnection ldapConnection = bindDefaultDN();
+        if (ldapConnection == null) return null;
+
+        byte[] authzId;
+        try {
+            authzId = ("dn:" + userDN).getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            disconnect(ldapConnection);
+            throw new GuacamoleServerException("Unexpected lack of support for UTF-8.", e);
+        }
+
+        LDAPSearchConstraints constraints = ldapConnection.getSearchConstraints();
+        constraints.setControls(new LDAPControl(PROXIED_AUTHORIZATION_OID, true, authzId));
+        ldapConnection.setConstraints(constraints);
+        return ldapConnection;
+
+    }
+
+    /**
+     * Removes the Proxied Authorization control set by bindDefaultDNFor, so
+     * the connection acts as the default bindDN again.
+     *
+     * @param ldapConnection
+     *     The LDAP connection.
+     */
+    private void resetProxiedAuthorization(LDAPConnection ldapConnection) {
+        LDAPSearchConstraints constraints = ldapConnection.getSearchConstraints();
+        LDAPControl[] controls = constraints.getControls();
+        if (controls == null) return;
+        List<LDAPControl> keptControls = new ArrayList<LDAPControl>(controls.length);
+        for (LDAPControl control : controls) {
+            if (!PROXIED_AUTHORIZATION_OID.equals(control.getID())) keptControls.add(control);
+        }
+        if (keptControls.size() == controls.length) return;
+        constraints.setControls(keptControls.toArray(new LDAPControl[keptControls.size()]));
+        ldapConnection.setConstraints(constraints);
+    }
 
+    /**
+     * Opens connections bound with the default bindDN until the pool holds
+     * ldap-connection-pool-size idle connections.
+     *
+     * @return
+     *     The number of idle connections in the pool.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while binding to the LDAP server.
+     */
+    public int fillPool() throws GuacamoleException {
+        List<LDAPConnection> ldapConnections = new ArrayList<LDAPConnection>();
+        try {
+            for (int i = connectionPool.getIdleCount(); i < confService.getConnectionPoolSize(); i++) {
+                LDAPConnection ldapConnection = bindDefaultDN();
+                if (ldapConnection == null) break;
+                ldapConnections.add(ldapConnection);
+            }
+        }
+        finally { // Give all back to the pool
+            for (LDAPConnection ldapConnection : ldapConnections) disconnect(ldapConnection);
+        }
+        return connectionPool.getIdleCount();
     }
     
     /**
@@ -224,6 +423,9 @@ public class LDAPConnectionService {
 
         // Attempt disconnect
         try {
+            resetProxiedAuthorization(ldapConnection); // Never pool a connection acting for a user
+            if (connectionPool.giveBack(ldapConnection)) return; // Pooled => keep it open
+
             ldapConnection.disconnect();
         }
 
@@ -232,6 +434,10 @@ public class LDAPConnectionService {
             logger.warn("Unable to disconnect from LDAP server: {}", e.getMessage());
             logger.debug("LDAP disconnect failed.", e);
         }
+        catch (GuacamoleException e) {
+            logger.warn("Unable to give the connection back to the pool: {}", e.getMessage());
+            logger.debug("Giving back the connection to the pool failed.", e);
+        }
 
     }
 
@@ -0,0 +1,315 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.glyptodon.guacamole.GuacamoleClientTooManyException;
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerBusyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.TokenBucket;
+
+/**
+ * Limits the LDAP bound operations (logins and user context creations) sent
+ * to the LDAP server, so that a login storm cannot saturate the directory:
+ * <ul>
+ * <li>a global and a per user token bucket limit the rate of operations</li>
+ * <li>a global bulkhead limits the number of concurrent operations</li>
+ * <li>a per user limit caps the concurrent operations of one user</li>
+ * </ul>
+ * An operation waits at most ldap-max-wait milliseconds for the global
+ * rate limit and a free slot; it is then rejected with a
+ * GuacamoleServerBusyException. Exceeding a per user limit is rejected at
+ * once with a GuacamoleClientTooManyException. The per user limits also
+ * cover the logins answered from the credential cache (see acquireUser).
+ * The per user rate is charged once per login, by acquireUser; the
+ * creation of the user context following it (see acquire) only takes a
+ * concurrency slot of the user.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class LDAPOperationLimiter {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(LDAPOperationLimiter.class);
+
+    /**
+     * The maximum number of users whose rate is tracked.
+     */
+    private static final int MAX_TRACKED_USERS = 10000;
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Whether the limits were read from the configuration.
+     */
+    private boolean initialized;
+
+    /**
+     * The global rate limit, or null if unlimited.
+     */
+    private TokenBucket globalRate;
+
+    /**
+     * The global bulkhead, or null if unlimited.
+     */
+    private Semaphore globalSlots;
+
+    /**
+     * The rate limit per user and minute, 0 if unlimited.
+     */
+    private int userRateLimit;
+
+    /**
+     * The maximum number of concurrent operations per user, 0 if unlimited.
+     */
+    private int userMaxConcurrentOperations;
+
+    /**
+     * The maximum wait in milliseconds.
+     */
+    private long maxWait;
+
+    /**
+     * The rate limits of the recently seen users (least recently used are evicted).
+     */
+    private final Map<String, TokenBucket> userRates = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+            return size() > MAX_TRACKED_USERS;
+        }
+
+    };
+
+    /**
+     * The number of running operations of each user having one.
+     */
+    private final Map<String, Integer> userOperations = new HashMap<String, Integer>();
+
+    /**
+     * A granted permission to run an LDAP bound operation. Must be released
+     * when the operation is done.
+     */
+    public interface Permit {
+
+        /**
+         * Releases this permit.
+         */
+        void release();
+
+    }
+
+    /**
+     * Acquires a permit to run an LDAP bound operation for the given user
+     * as part of a login whose per user rate was already charged by
+     * acquireUser, waiting at most ldap-max-wait milliseconds for the global
+     * limits.
+     *
+     * @param username
+     *     The user on behalf of whom the operation runs.
+     *
+     * @return
+     *     The permit, which must be released when the operation is done.
+     *
+     * @throws GuacamoleException
+     *     GuacamoleClientTooManyException if a per user limit is exceeded,
+     *     GuacamoleServerBusyException if no global permit could be acquired
+     *     in time, or if guacamole.properties cannot be parsed.
+     */
+    public Permit acquire(String username) throws GuacamoleException {
+        final Permit userPermit = acquireUser(username, false);
+        boolean acquired = false;
+        try {
+            final Permit globalPermit = acquireGlobal(username);
+            acquired = true;
+            return new Permit() {
+
+                @Override
+                public void release() {
+                    globalPermit.release();
+                    userPermit.release();
+                }
+
+            };
+        }
+        finally {
+            if (!acquired) userPermit.release();
+        }
+    }
+
+    /**
+     * Acquires a permit of the per user limits only, charging one token of
+     * the per user rate, once per login: it also covers operations which do
+     * not touch LDAP but are expensive anyway (e.g. verifying a password
+     * against the credential cache). Rejects at once if a limit is exceeded.
+     *
+     * @param username
+     *     The user on behalf of whom the operation runs.
+     *
+     * @return
+     *     The permit, which must be released when the operation is done.
+     *
+     * @throws GuacamoleException
+     *     GuacamoleClientTooManyException if a per user limit is exceeded,
+     *     or if guacamole.properties cannot be parsed.
+     */
+    public Permit acquireUser(String username) throws GuacamoleException {
+        return acquireUser(username, true);
+    }
+
+    /**
+     * Acquires a permit of the per user limits, charging the per user rate
+     * only if requested. Rejects at once if a limit is exceeded.
+     */
+    private Permit acquireUser(final String username, boolean chargeRate) throws GuacamoleException {
+
+        init();
+
+        // Per user limits reject at once
+        if (chargeRate && !tryAcquireUserRate(username)) {
+            logger.info("Rate limit of user [{}] exceeded => rejected.", username);
+            throw new GuacamoleClientTooManyException("Too many login attempts. Please try again later.");
+        }
+        if (!tryEnterUserOperation(username)) {
+            logger.info("Concurrent operations of user [{}] exceeded => rejected.", username);
+            throw new GuacamoleClientTooManyException("Too many concurrent logins. Please try again later.");
+        }
+
+        return new Permit() {
+
+            private boolean released;
+
+            @Override
+            public synchronized void release() {
+                if (released) return;
+                released = true;
+                leaveUserOperation(username);
+            }
+
+        };
+
+    }
+
+    /**
+     * Acquires a permit of the global limits, waiting at most ldap-max-wait
+     * milliseconds. Together with a permit of acquireUser, this is what
+     * acquire grants.
+     *
+     * @param username
+     *     The user on behalf of whom the operation runs (for logging).
+     *
+     * @return
+     *     The permit, which must be released when the operation is done.
+     *
+     * @throws GuacamoleException
+     *     GuacamoleServerBusyException if no global permit could be acquired
+     *     in time, or if guacamole.properties cannot be parsed.
+     */
+    public Permit acquireGlobal(String username) throws GuacamoleException {
+
+        init();
+
+        // Global limits with bounded wait
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+            if (globalRate != null && !globalRate.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                logger.warn("Global rate limit exceeded => operation of user [{}] rejected.", username);
+                throw new GuacamoleServerBusyException("The directory is busy. Please try again later.");
+            }
+            if (globalSlots != null && !globalSlots.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                logger.warn("No free slot for LDAP operations within {} ms => operation of user [{}] rejected.", maxWait, username);
+                throw new GuacamoleServerBusyException("The directory is busy. Please try again later.");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuacamoleServerBusyException("Interrupted while waiting for the directory.", e);
+        }
+
+        return new Permit() {
+
+            private boolean released;
+
+            @Override
+            public synchronized void release() {
+                if (released) return;
+                released = true;
+                if (globalSlots != null) globalSlots.release();
+            }
+
+        };
+
+    }
+
+    /**
+     * Reads the limits from the configuration, once.
+     */
+    private synchronized void init() throws GuacamoleException {
+        if (initialized) return;
+        int rateLimit = confService.getRateLimit();
+        if (rateLimit > 0) globalRate = new TokenBucket(rateLimit, confService.getRateLimitBurst());
+        int maxConcurrentOperations = confService.getMaxConcurrentOperations();
+        if (maxConcurrentOperations > 0) globalSlots = new Semaphore(maxConcurrentOperations, true);
+        userRateLimit = confService.getUserRateLimit();
+        userMaxConcurrentOperations = confService.getUserMaxConcurrentOperations();
+        maxWait = confService.getMaxWait();
+        initialized = true;
+    }
+
+    private boolean tryAcquireUserRate(String username) {
+        if (userRateLimit <= 0) return true;
+        TokenBucket userRate;
+        synchronized (userRates) {
+            userRate = userRates.get(username);
+            if (userRate == null) {
+                userRate = new TokenBucket(userRateLimit, Math.max(1, userRateLimit / 10));
+                userRates.put(username, userRate);
+            }
+        }
+        try {
+            return userRate.tryAcquire(0, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) { // Cannot happen without waiting
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean tryEnterUserOperation(String username) {
+        synchronized (userOperations) {
+            Integer running = userOperations.get(username);
+            int count = running == null ? 0 : running;
+            if (userMaxConcurrentOperations > 0 && count >= userMaxConcurrentOperations) return false;
+            userOperations.put(username, count + 1);
+            return true;
+        }
+    }
+
+    private void leaveUserOperation(String username) {
+        synchronized (userOperations) {
+            Integer running = userOperations.get(username);
+            if (running == null || running <= 1) userOperations.remove(username);
+            else userOperations.put(username, running - 1);
+        }
+    }
+
+}
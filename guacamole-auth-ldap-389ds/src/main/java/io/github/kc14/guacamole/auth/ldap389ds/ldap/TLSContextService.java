@@ -0,0 +1,238 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.metrics.MetricsService;
+
+/**
+ * Provides the one SSLContext shared by all LDAPS and STARTTLS connections.
+ * <p>
+ * As all connections use the same client session cache, most handshakes
+ * after the first one resume the cached session (abbreviated handshake)
+ * instead of running the full key exchange. The enabled protocols and
+ * cipher suites (in the order of preference) are configurable. The client
+ * certificate is taken from the keystore of the javax.net.ssl.keyStore*
+ * system properties and the trusted certificates from the default trust
+ * store, as with the default socket factory of the JRE.
+ * <p>
+ * Handshakes are counted in the metrics as tlsHandshakes, tlsResumedHandshakes
+ * and tlsResumptionRate.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class TLSContextService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(TLSContextService.class);
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * The metrics of this provider.
+     */
+    @Inject
+    private MetricsService metrics;
+
+    /**
+     * The socket factory of the shared SSLContext, or null if not created yet.
+     */
+    private SSLSocketFactory socketFactory;
+
+    /**
+     * Returns the socket factory of the shared SSLContext, creating the
+     * context on first use.
+     *
+     * @return
+     *     The socket factory to use for all LDAPS and STARTTLS connections.
+     *
+     * @throws GuacamoleException
+     *     If the SSLContext cannot be created, or if guacamole.properties
+     *     cannot be parsed.
+     */
+    public synchronized SSLSocketFactory getSocketFactory() throws GuacamoleException {
+        if (socketFactory != null) return socketFactory;
+
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(getDefaultKeyManagers(), null, null); // The default trust managers read javax.net.ssl.trustStore*
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            sessionContext.setSessionCacheSize(confService.getTLSSessionCacheSize());
+            sessionContext.setSessionTimeout(confService.getTLSSessionTimeout());
+
+            String[] protocols = confService.getTLSProtocols();
+            String[] cipherSuites = confService.getTLSCipherSuites();
+            final AtomicLong handshakes = metrics.counter("tlsHandshakes");
+            final AtomicLong resumedHandshakes = metrics.counter("tlsResumedHandshakes");
+            metrics.gauge("tlsResumptionRate", new MetricsService.Gauge() {
+                @Override
+                public Number getValue() {
+                    long total = handshakes.get();
+                    return total == 0 ? 0.0 : (double) resumedHandshakes.get() / total;
+                }
+            });
+
+            socketFactory = new ConfiguringSocketFactory(sslContext.getSocketFactory(), protocols, cipherSuites, handshakes, resumedHandshakes);
+            logger.info("Shared SSL context created (protocols: {}, cipher suites: {}).",
+                    protocols == null ? "default" : Arrays.toString(protocols),
+                    cipherSuites == null ? "default" : Arrays.toString(cipherSuites));
+            return socketFactory;
+        }
+        catch (GeneralSecurityException e) {
+            throw new GuacamoleServerException("Unable to create the SSL context for LDAP connections.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to read the keystore for LDAP connections.", e);
+        }
+    }
+
+    /**
+     * Returns the key managers of the keystore given by the system properties
+     * javax.net.ssl.keyStore, keyStoreType, keyStoreProvider and
+     * keyStorePassword, as the default SSLContext of the JRE does (an
+     * SSLContext initialized without key managers has none at all).
+     *
+     * @return
+     *     The key managers, or null if no keystore is configured.
+     */
+    private static KeyManager[] getDefaultKeyManagers() throws GeneralSecurityException, IOException {
+        String path = System.getProperty("javax.net.ssl.keyStore", "");
+        String type = System.getProperty("javax.net.ssl.keyStoreType", KeyStore.getDefaultType());
+        String provider = System.getProperty("javax.net.ssl.keyStoreProvider", "");
+        String password = System.getProperty("javax.net.ssl.keyStorePassword");
+        if (path.isEmpty() && provider.isEmpty()) return null;
+
+        KeyStore keyStore = provider.isEmpty() ? KeyStore.getInstance(type) : KeyStore.getInstance(type, provider);
+        char[] passwordChars = password == null ? null : password.toCharArray();
+        InputStream in = path.isEmpty() || "NONE".equals(path) ? null : new FileInputStream(path);
+        try {
+            keyStore.load(in, passwordChars);
+        }
+        finally {
+            if (in != null) in.close();
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, passwordChars);
+        return keyManagerFactory.getKeyManagers();
+    }
+
+    /**
+     * Socket factory applying the configured protocols and cipher suites to
+     * each socket and counting the (resumed) handshakes.
+     */
+    private static class ConfiguringSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+
+        private final String[] protocols;
+
+        private final String[] cipherSuites;
+
+        private final AtomicLong handshakes;
+
+        private final AtomicLong resumedHandshakes;
+
+        ConfiguringSocketFactory(SSLSocketFactory delegate, String[] protocols, String[] cipherSuites,
+                AtomicLong handshakes, AtomicLong resumedHandshakes) {
+            this.delegate = delegate;
+            this.protocols = protocols;
+            this.cipherSuites = cipherSuites;
+            this.handshakes = handshakes;
+            this.resumedHandshakes = resumedHandshakes;
+        }
+
+        /**
+         * Configures the given socket. A handshake is counted as resumed, if
+         * its session was created before the socket.
+         */
+        private Socket configure(Socket socket) {
+            if (!(socket instanceof SSLSocket)) return socket;
+            SSLSocket sslSocket = (SSLSocket) socket;
+            if (protocols != null) sslSocket.setEnabledProtocols(protocols);
+            if (cipherSuites != null) sslSocket.setEnabledCipherSuites(cipherSuites);
+            final long created = System.currentTimeMillis();
+            sslSocket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                @Override
+                public void handshakeCompleted(HandshakeCompletedEvent event) {
+                    handshakes.incrementAndGet();
+                    if (event.getSession().getCreationTime() < created) resumedHandshakes.incrementAndGet();
+                }
+            });
+            return sslSocket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return cipherSuites != null ? cipherSuites.clone() : delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return configure(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return configure(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return configure(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return configure(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap.client;
+
+import java.util.List;
+
+import org.glyptodon.guacamole.GuacamoleException;
+
+import com.novell.ldap.LDAPEntry;
+
+/**
+ * Library independent access to the LDAP server for the searches run as the
+ * default bindDN (member index, change monitor, lazy parameters), so the
+ * client library can be chosen by ldap-client-backend.
+ * <p>
+ * Results are returned as JLDAP LDAPEntry objects, the data model of the
+ * caches and indexes of this provider, regardless of the library used.
+ *
+ * @author Frank Kemmer
+ */
+public interface DirectoryClient {
+
+    /**
+     * Searches the LDAP server as the default bindDN and returns all
+     * results. The search is not limited in size by the client and is paged
+     * with the Simple Paged Results control, so scans of whole subtrees are
+     * not cut off by the size limit of the server.
+     *
+     * @param baseDN
+     *     The base DN of the search.
+     *
+     * @param scope
+     *     The scope of the search (LDAPConnection.SCOPE_BASE, SCOPE_ONE or
+     *     SCOPE_SUB).
+     *
+     * @param filter
+     *     The search filter.
+     *
+     * @param attributes
+     *     The attributes to return, or null for all user attributes.
+     *
+     * @return
+     *     The entries found, may be empty.
+     *
+     * @throws GuacamoleException
+     *     If the LDAP server cannot be reached or the search fails.
+     */
+    List<LDAPEntry> search(String baseDN, int scope, String filter, String[] attributes) throws GuacamoleException;
+
+    /**
+     * Closes all connections held by this client.
+     */
+    void close();
+
+}
@@ -0,0 +1,60 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap.client;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+import io.github.kc14.guacamole.auth.ldap389ds.config.ClientBackend;
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+
+/**
+ * Provides the DirectoryClient of the library chosen by ldap-client-backend.
+ * If guacamole.properties cannot be parsed, JLDAP is used.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class DirectoryClientProvider implements Provider<DirectoryClient> {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(DirectoryClientProvider.class);
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Provider of the JLDAP based client.
+     */
+    @Inject
+    private Provider<JLDAPDirectoryClient> jldapClientProvider;
+
+    /**
+     * Provider of the UnboundID based client.
+     */
+    @Inject
+    private Provider<UnboundIDDirectoryClient> unboundIDClientProvider;
+
+    @Override
+    public DirectoryClient get() {
+        ClientBackend clientBackend;
+        try {
+            clientBackend = confService.getClientBackend();
+        }
+        catch (GuacamoleException e) {
+            logger.error("Cannot read ldap-client-backend => using JLDAP: {}", e.getMessage());
+            clientBackend = ClientBackend.JLDAP;
+        }
+        if (clientBackend == ClientBackend.UNBOUNDID) return unboundIDClientProvider.get();
+        return jldapClientProvider.get();
+    }
+
+}
@@ -0,0 +1,56 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap.client;
+
+import java.util.List;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.LDAPConnectionService;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.searches.LDAPSearch;
+
+/**
+ * DirectoryClient based on Novell JLDAP, using the (pooled) connections of
+ * LDAPConnectionService. Searches are paged (see LDAPSearch.searchAll).
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class JLDAPDirectoryClient implements DirectoryClient {
+
+    /**
+     * Service for creating and managing connections to LDAP servers.
+     */
+    @Inject
+    private LDAPConnectionService ldapService;
+
+    @Override
+    public List<LDAPEntry> search(String baseDN, int scope, String filter, String[] attributes) throws GuacamoleException {
+
+        LDAPConnection ldapConnection = ldapService.bindDefaultDN();
+        if (ldapConnection == null)
+            throw new GuacamoleServerException("No ldap connection => cannot search [" + baseDN + "].");
+
+        try {
+            return LDAPSearch.searchAll(ldapConnection, baseDN, scope, filter, attributes);
+        }
+        catch (LDAPException e) {
+            throw new GuacamoleServerException("Error while searching [" + baseDN + "] with filter [" + filter + "].", e);
+        }
+        finally { // Always disconnect
+            ldapService.disconnect(ldapConnection);
+        }
+
+    }
+
+    @Override
+    public void close() {
+        // The connections belong to LDAPConnectionService
+    }
+
+}
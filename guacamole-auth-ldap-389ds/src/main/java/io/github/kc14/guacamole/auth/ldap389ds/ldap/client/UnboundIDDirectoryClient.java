@@ -0,0 +1,159 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.glyptodon.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.GuacamoleUnsupportedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.PostConnectProcessor;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.ldap.sdk.ServerSet;
+import com.unboundid.ldap.sdk.SimpleBindRequest;
+import com.unboundid.ldap.sdk.SingleServerSet;
+import com.unboundid.ldap.sdk.StartTLSPostConnectProcessor;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+
+import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
+import io.github.kc14.guacamole.auth.ldap389ds.config.EncryptionMethod;
+import io.github.kc14.guacamole.auth.ldap389ds.ldap.TLSContextService;
+
+/**
+ * DirectoryClient based on the UnboundID LDAP SDK, with its own pool of
+ * connections bound as the default bindDN. The pool is created on first use
+ * with the server, encryption and TLS settings of guacamole.properties and
+ * ldap-connection-pool-size connections (at least one). Searches are not
+ * limited in size and are paged with the Simple Paged Results control, all
+ * pages on the same connection (the cookie is bound to it).
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class UnboundIDDirectoryClient implements DirectoryClient {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(UnboundIDDirectoryClient.class);
+
+    /**
+     * Service for retrieving LDAP server configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Provider of the configured SSL socket factory.
+     */
+    @Inject
+    private TLSContextService tlsContextService;
+
+    /**
+     * The connection pool, or null if not created yet.
+     */
+    private LDAPConnectionPool pool;
+
+    /**
+     * The number of entries requested per page.
+     */
+    private static final int PAGE_SIZE = 500;
+
+    @Override
+    public List<LDAPEntry> search(String baseDN, int scope, String filter, String[] attributes) throws GuacamoleException {
+        LDAPConnectionPool current = null;
+        LDAPConnection connection = null;
+        try {
+            SearchRequest request = new SearchRequest(baseDN, SearchScope.valueOf(scope), filter,
+                    attributes == null ? new String[0] : attributes);
+            request.setSizeLimit(0);
+            current = getPool();
+            connection = current.getConnection();
+            List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+            ASN1OctetString cookie = null;
+            SimplePagedResultsControl response;
+            do {
+                request.setControls(new SimplePagedResultsControl(PAGE_SIZE, cookie));
+                SearchResult result = connection.search(request);
+                for (SearchResultEntry entry : result.getSearchEntries()) entries.add(toLDAPEntry(entry));
+                response = SimplePagedResultsControl.get(result);
+                cookie = response == null ? null : response.getCookie();
+            } while (response != null && response.moreResultsToReturn());
+            current.releaseConnection(connection);
+            return entries;
+        }
+        catch (LDAPException e) {
+            if (connection != null) current.releaseConnectionAfterException(connection, e);
+            throw new GuacamoleServerException("Error while searching [" + baseDN + "] with filter [" + filter + "].", e);
+        }
+    }
+
+    /**
+     * Converts the given search result into a JLDAP entry.
+     */
+    private static LDAPEntry toLDAPEntry(SearchResultEntry result) {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        for (Attribute attribute : result.getAttributes()) {
+            attributes.add(new LDAPAttribute(attribute.getName(), attribute.getValues()));
+        }
+        return new LDAPEntry(result.getDN(), attributes);
+    }
+
+    /**
+     * Returns the connection pool, creating it on first use.
+     */
+    private synchronized LDAPConnectionPool getPool() throws GuacamoleException, LDAPException {
+        if (pool != null) return pool;
+
+        String host = confService.getServerHostname();
+        int port = confService.getServerPort();
+        ServerSet serverSet;
+        PostConnectProcessor postConnectProcessor = null;
+        EncryptionMethod encryptionMethod = confService.getEncryptionMethod();
+        switch (encryptionMethod) {
+            case NONE:
+                serverSet = new SingleServerSet(host, port);
+                break;
+            case SSL:
+                serverSet = new SingleServerSet(host, port, tlsContextService.getSocketFactory());
+                break;
+            case STARTTLS:
+                serverSet = new SingleServerSet(host, port);
+                postConnectProcessor = new StartTLSPostConnectProcessor(tlsContextService.getSocketFactory());
+                break;
+            default:
+                throw new GuacamoleUnsupportedException("Unimplemented encryption method: " + encryptionMethod);
+        }
+
+        String bindDN = confService.getDefaultBindDN();
+        String authtok = confService.getDefaultAuthtok();
+        int size = Math.max(1, confService.getConnectionPoolSize());
+        pool = new LDAPConnectionPool(serverSet, new SimpleBindRequest(bindDN == null ? "" : bindDN, authtok == null ? "" : authtok),
+                1, size, postConnectProcessor);
+        logger.info("UnboundID connection pool to [{}:{}] created with up to {} connections.", new Object[] { host, port, size });
+        return pool;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (pool == null) return;
+        pool.close();
+        pool = null;
+    }
+
+}
@@ -1,6 +1,10 @@
 package io.github.kc14.guacamole.auth.ldap389ds.ldap.searches;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPSearchConstraints;
 import com.novell.ldap.LDAPSearchResults;
@@ -8,6 +12,11 @@ import com.novell.ldap.LDAPUrl;
 
 public class LDAPSearch {
 
+    /**
+     * The number of entries requested per page by searchAll.
+     */
+    private static final int PAGE_SIZE = 500;
+
     public static LDAPSearchResults search(LDAPConnection ldapConnection, LDAPUrl ldapUrl) throws LDAPException {
         LDAPSearchResults ldapSearchResults = null;
         if (ldapUrl.getHost().isEmpty()) { // Use given ldap connection
@@ -20,17 +29,52 @@ public class LDAPSearch {
     }
 
     private static LDAPSearchResults searchLocal(LDAPConnection ldapConnection, LDAPUrl ldapUrl) throws LDAPException {
+        return search(ldapConnection, ldapUrl.getDN(), ldapUrl.getScope(), ldapUrl.getFilter(), ldapUrl.getAttributeArray());
+    }
+
+    public static LDAPSearchResults search(LDAPConnection ldapConnection, String base, int scope, String filter, String[] attrs) throws LDAPException {
         LDAPSearchConstraints constraints = ldapConnection.getSearchConstraints();
         constraints.setBatchSize(0); // Must wait until all results arrive
         boolean typesOnlyIsFalse = false;
         LDAPSearchResults ldapSearchResults = ldapConnection.search(
-                ldapUrl.getDN(),
-                ldapUrl.getScope(),
-                ldapUrl.getFilter(),
-                ldapUrl.getAttributeArray(),
+                base,
+                scope,
+                filter,
+                attrs,
                 typesOnlyIsFalse,
                 constraints);
         return ldapSearchResults;
     }
 
+    /**
+     * Searches all entries below the given base, without limiting the number
+     * of results on the client (maxResults) and requesting them in pages (see
+     * PagedResultsControl), so scans of whole subtrees are not cut off by
+     * the size limit of the server either (389-ds applies
+     * nsslapd-pagedsizelimit, or the nsPagedSizeLimit of the bindDN, to paged
+     * searches instead).
+     *
+     * @return
+     *     All entries found, may be empty.
+     *
+     * @throws LDAPException
+     *     If the search fails.
+     */
+    public static List<LDAPEntry> searchAll(LDAPConnection ldapConnection, String base, int scope, String filter, String[] attrs) throws LDAPException {
+        List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+        byte[] cookie = new byte[0];
+        do {
+            LDAPSearchConstraints constraints = ldapConnection.getSearchConstraints();
+            constraints.setBatchSize(0); // Must wait until all results of the page arrive
+            constraints.setMaxResults(0);
+            constraints.setControls(PagedResultsControl.request(PAGE_SIZE, cookie));
+            LDAPSearchResults results = ldapConnection.search(base, scope, filter, attrs, false, constraints);
+            while (results.hasMore()) {
+                entries.add(results.next());
+            }
+            cookie = PagedResultsControl.getCookie(results.getResponseControls());
+        } while (cookie != null && cookie.length > 0);
+        return entries;
+    }
+
 }
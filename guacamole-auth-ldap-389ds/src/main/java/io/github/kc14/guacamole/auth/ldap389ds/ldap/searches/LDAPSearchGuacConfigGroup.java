@@ -9,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPSearchResults;
@@ -18,6 +19,7 @@ import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.EscapingService;
 import io.github.kc14.guacamole.auth.ldap389ds.utils.MacroPreProcessor;
 
+@Singleton
 public class LDAPSearchGuacConfigGroup {
     
     /**
@@ -58,12 +60,37 @@ public class LDAPSearchGuacConfigGroup {
      * @throws LDAPException 
      */
     public LDAPSearchResults ldapsearchGuacConfigGroup(LDAPConnection ldapConnection, String guacConfigGroup) throws GuacamoleException, MalformedURLException, LDAPException {
+        return ldapsearchGuacConfigGroup(ldapConnection, guacConfigGroup, null);
+    }
+
+    /**
+     * LDAP search for the guac configuration group given as DN in guacConfigGroup,
+     * retrieving the given attributes instead of the attributes of the LDAP url
+     * @param ldapConnection
+     *     The LDAP connection to use, bind with the default bind DN,
+     *     i.e. the technical user to query the LDAP directory service
+     * @param guacConfigGroup
+     *     The DN of a guacConfigGroup as given in the memberOf-Attribute
+     *     of the posixAccount of the authenticated user
+     * @param attributes
+     *     The attributes to retrieve, or null for the attributes given in the LDAP url
+     * @return
+     *     The LDAP search result containing the base entry for the given guac config group
+     * @throws GuacamoleException
+     * @throws MalformedURLException 
+     * @throws LDAPException 
+     */
+    public LDAPSearchResults ldapsearchGuacConfigGroup(LDAPConnection ldapConnection, String guacConfigGroup, String[] attributes) throws GuacamoleException, MalformedURLException, LDAPException {
         String ldapUrlAsString = confService.getLdapUrlSearchGuacConfigGroup();
         Map<String, String> tokens = new HashMap<String, String>(1);
         tokens.put(GUAC_CONFIG_GROUP_TOKEN, guacConfigGroup);
         String ldapUrlAsStringWithMacrosExpanded = MacroPreProcessor.expandTokens(tokens, ldapUrlAsString);
         logger.info("ldap url expanded: [" + ldapUrlAsStringWithMacrosExpanded + "]");
         LDAPUrl ldapUrl = new LDAPUrl(ldapUrlAsStringWithMacrosExpanded);
+        if (attributes != null) {
+            ldapUrl = new LDAPUrl(ldapUrl.getHost(), ldapUrl.getPort(), ldapUrl.getDN(), attributes,
+                    ldapUrl.getScope(), ldapUrl.getFilter(), ldapUrl.getExtensions());
+        }
         LDAPSearchResults ldapSearchResults = LDAPSearch.search(ldapConnection, ldapUrl);
         return ldapSearchResults;        
     }
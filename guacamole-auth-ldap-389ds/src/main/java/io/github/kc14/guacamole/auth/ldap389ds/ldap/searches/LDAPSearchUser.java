@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPSearchResults;
@@ -17,7 +18,9 @@ import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.EscapingService;
 
 import io.github.kc14.guacamole.auth.ldap389ds.utils.MacroPreProcessor;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.UserAttributeTokens;
 
+@Singleton
 public class LDAPSearchUser {
 
     /**
@@ -39,10 +42,19 @@ public class LDAPSearchUser {
     
     // Example LDAP URL: ldap:///uid=${username},ou=People,dc=vuvufone,dc=localdomain?base?uid?(objectClass=posixAccount)
     public LDAPSearchResults searchUserByCredentials(LDAPConnection ldapConnection, Credentials credentials) throws GuacamoleException, LDAPException, MalformedURLException {
+        return searchUserByCredentials(ldapConnection, credentials, new String[0]);
+    }
+
+    /**
+     * Search for the user entry by the given credentials, requesting the
+     * given attributes in addition to those of the LDAP URL (e.g. the
+     * attributes of user attribute tokens)
+     */
+    public LDAPSearchResults searchUserByCredentials(LDAPConnection ldapConnection, Credentials credentials, String[] additionalAttributes) throws GuacamoleException, LDAPException, MalformedURLException {
         String ldapUrlAsString = confService.getLdapUrlUserByCredentials();
         String ldapUrlAsStringWithMacrosExpanded = MacroPreProcessor.expandStandardTokens(credentials, ldapUrlAsString);
         logger.info("ldap url expanded: [" + ldapUrlAsStringWithMacrosExpanded + "]");
-        LDAPUrl ldapUrl = new LDAPUrl(ldapUrlAsStringWithMacrosExpanded);
+        LDAPUrl ldapUrl = UserAttributeTokens.addAttributes(new LDAPUrl(ldapUrlAsStringWithMacrosExpanded), additionalAttributes);
         LDAPSearchResults ldapSearchResults = LDAPSearch.search(ldapConnection, ldapUrl);
         return ldapSearchResults;
 	}
@@ -9,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPSearchResults;
@@ -17,7 +18,9 @@ import com.novell.ldap.LDAPUrl;
 import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
 import io.github.kc14.guacamole.auth.ldap389ds.ldap.EscapingService;
 import io.github.kc14.guacamole.auth.ldap389ds.utils.MacroPreProcessor;
+import io.github.kc14.guacamole.auth.ldap389ds.utils.UserAttributeTokens;
 
+@Singleton
 public class LDAPSearchUsersGroups {
     
     /**
@@ -51,12 +54,41 @@ public class LDAPSearchUsersGroups {
      * @throws LDAPException 
      */
     public LDAPSearchResults searchUsersGroups(LDAPConnection ldapConnection, AuthenticatedUser user) throws GuacamoleException, MalformedURLException, LDAPException {
-        String ldapUrlAsString = confService.getLdapUrlUsersGroups();
-        String ldapUrlAsStringWithMacrosExpanded = MacroPreProcessor.expandStandardTokens(user.getCredentials(), ldapUrlAsString);
-        logger.info("ldap url expanded: [" + ldapUrlAsStringWithMacrosExpanded + "]");
-        LDAPUrl ldapUrl = new LDAPUrl(ldapUrlAsStringWithMacrosExpanded);
+        return searchUsersGroups(ldapConnection, user, new String[0]);
+    }
+
+    /**
+     * Search for the authenticated user entry, requesting the given
+     * attributes in addition to those of the LDAP URL (e.g. the attributes
+     * of user attribute tokens)
+     */
+    public LDAPSearchResults searchUsersGroups(LDAPConnection ldapConnection, AuthenticatedUser user, String[] additionalAttributes) throws GuacamoleException, MalformedURLException, LDAPException {
+        LDAPUrl ldapUrl = UserAttributeTokens.addAttributes(getLdapUrl(user), additionalAttributes);
+        logger.info("ldap url expanded: [" + ldapUrl + "]");
         LDAPSearchResults ldapSearchResults = LDAPSearch.search(ldapConnection, ldapUrl);
         return ldapSearchResults;
     }
 
+    /**
+     * Returns the attributes requested by the LDAP URL for the given user,
+     * i.e. the attributes holding the user's groups
+     * 
+     * @param user
+     *     The authenticated user
+     * @return
+     *     The attributes, empty for all attributes
+     * @throws GuacamoleException
+     * @throws MalformedURLException 
+     */
+    public String[] getAttributes(AuthenticatedUser user) throws GuacamoleException, MalformedURLException {
+        String[] attributes = getLdapUrl(user).getAttributeArray();
+        return attributes == null ? new String[0] : attributes;
+    }
+
+    private LDAPUrl getLdapUrl(AuthenticatedUser user) throws GuacamoleException, MalformedURLException {
+        String ldapUrlAsString = confService.getLdapUrlUsersGroups();
+        String ldapUrlAsStringWithMacrosExpanded = MacroPreProcessor.expandStandardTokens(user.getCredentials(), ldapUrlAsString);
+        return new LDAPUrl(ldapUrlAsStringWithMacrosExpanded);
+    }
+
 }
@@ -0,0 +1,81 @@
+package io.github.kc14.guacamole.auth.ldap389ds.ldap.searches;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.asn1.ASN1Integer;
+import com.novell.ldap.asn1.ASN1Object;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+
+/**
+ * The Simple Paged Results control (RFC 2696), which JLDAP does not provide:
+ * the value of both request and response is the BER sequence
+ * { size INTEGER, cookie OCTET STRING }. The request is not critical, so
+ * servers without paging return all results at once.
+ *
+ * @author Frank Kemmer
+ */
+public class PagedResultsControl {
+
+    /**
+     * The OID of the Simple Paged Results control.
+     */
+    public static final String OID = "1.2.840.113556.1.4.319";
+
+    private PagedResultsControl() {
+    }
+
+    /**
+     * Returns the request control for the next page.
+     *
+     * @param pageSize
+     *     The maximum number of entries of the page.
+     *
+     * @param cookie
+     *     The cookie of the previous response, empty for the first page.
+     *
+     * @return
+     *     The (non-critical) request control.
+     */
+    public static LDAPControl request(int pageSize, byte[] cookie) {
+        ASN1Sequence value = new ASN1Sequence(2);
+        value.add(new ASN1Integer(pageSize));
+        value.add(new ASN1OctetString(cookie));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            value.encode(new LBEREncoder(), out);
+        }
+        catch (IOException e) { // Not thrown by ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return new LDAPControl(OID, false, out.toByteArray());
+    }
+
+    /**
+     * Returns the cookie of the paged results response among the given
+     * response controls.
+     *
+     * @param controls
+     *     The response controls of a search, may be null.
+     *
+     * @return
+     *     The cookie requesting the next page, empty after the last page, or
+     *     null if the server did not page the results.
+     */
+    public static byte[] getCookie(LDAPControl[] controls) {
+        if (controls == null) return null;
+        for (LDAPControl control : controls) {
+            if (!OID.equals(control.getID()) || control.getValue() == null) continue;
+            ASN1Object value = new LBERDecoder().decode(control.getValue());
+            if (!(value instanceof ASN1Sequence) || ((ASN1Sequence) value).size() < 2) return null;
+            ASN1Object cookie = ((ASN1Sequence) value).get(1);
+            return cookie instanceof ASN1OctetString ? ((ASN1OctetString) cookie).byteValue() : null;
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,224 @@
+package io.github.kc14.guacamole.auth.ldap389ds.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Singleton;
+
+import io.github.kc14.guacamole.auth.ldap389ds.Lifecycle;
+
+/**
+ * Counters and gauges of the LDAP authentication provider, exposed as
+ * read-only attributes of the JMX MBean
+ * io.github.kc14.guacamole.auth.ldap389ds:type=Metrics.
+ * <p>
+ * Counters and gauges are created on first use by name, so each service
+ * simply asks for the metrics it updates. The MBean is registered at start
+ * and unregistered at stop.
+ *
+ * @author Frank Kemmer
+ */
+@Singleton
+public class MetricsService implements Lifecycle {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(MetricsService.class);
+
+    /**
+     * The name of the MBean exposing the metrics.
+     */
+    public static final String OBJECT_NAME = "io.github.kc14.guacamole.auth.ldap389ds:type=Metrics";
+
+    /**
+     * A value computed when read.
+     */
+    public interface Gauge {
+
+        /**
+         * Returns the current value.
+         *
+         * @return
+         *     The current value.
+         */
+        Number getValue();
+
+    }
+
+    /**
+     * The counters by name.
+     */
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * The gauges by name.
+     */
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    /**
+     * Whether the MBean is registered.
+     */
+    private boolean registered;
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     *
+     * @param name
+     *     The name of the counter (the attribute name in JMX).
+     *
+     * @return
+     *     The counter.
+     */
+    public AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) counter = created;
+            register();
+        }
+        return counter;
+    }
+
+    /**
+     * Registers a gauge under the given name, replacing any previous gauge
+     * of that name.
+     *
+     * @param name
+     *     The name of the gauge (the attribute name in JMX).
+     *
+     * @param gauge
+     *     The gauge.
+     */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+        register();
+    }
+
+    /**
+     * Returns the current value of the metric with the given name.
+     *
+     * @param name
+     *     The name of a counter or gauge.
+     *
+     * @return
+     *     The current value, or null if there is no such metric.
+     */
+    public Number getValue(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter != null) return counter.get();
+        Gauge gauge = gauges.get(name);
+        return gauge == null ? null : gauge.getValue();
+    }
+
+    @Override
+    public void start() {
+        register();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!registered) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        }
+        catch (JMException e) {
+            logger.warn("Unable to unregister the metrics MBean: {}", e.getMessage());
+            logger.debug("Unregistering the metrics MBean failed.", e);
+        }
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server, once. An MBean left
+     * over by a previous deployment is replaced.
+     */
+    private synchronized void register() {
+        if (registered) return;
+        registered = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(new MetricsMBean(), name);
+        }
+        catch (JMException e) {
+            logger.warn("Unable to register the metrics MBean: {}", e.getMessage());
+            logger.debug("Registering the metrics MBean failed.", e);
+        }
+    }
+
+    /**
+     * The MBean exposing all counters and gauges as read-only attributes.
+     */
+    private class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = getValue(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = getValue(attribute);
+                if (value != null) list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations: " + actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (String name : counters.keySet())
+                attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), "Counter " + name, true, false, false));
+            for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+                Number value = gauge.getValue().getValue();
+                String type = value == null ? Number.class.getName() : value.getClass().getName();
+                attributes.add(new MBeanAttributeInfo(gauge.getKey(), type, "Gauge " + gauge.getKey(), true, false, false));
+            }
+            return new MBeanInfo(MetricsService.class.getName(), "Metrics of the LDAP authentication provider",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+        }
+
+    }
+
+}
@@ -22,6 +22,9 @@
 
 package io.github.kc14.guacamole.auth.ldap389ds.user;
 
+import java.util.Collection;
+import java.util.Map;
+
 import com.google.inject.Inject;
 import org.glyptodon.guacamole.net.auth.AbstractAuthenticatedUser;
 import org.glyptodon.guacamole.net.auth.AuthenticationProvider;
@@ -47,6 +50,23 @@ public class AuthenticatedUser extends AbstractAuthenticatedUser {
      */
     private Credentials credentials;
 
+    /**
+     * The DN of the LDAP entry of this user, or null if unknown.
+     */
+    private String dn;
+
+    /**
+     * The DNs of the groups of this user read at authentication, or null if
+     * not read.
+     */
+    private Collection<String> groupDNs;
+
+    /**
+     * The values of the user attribute tokens read from the entry of this
+     * user by name, or null if not read (see UserAttributeTokens).
+     */
+    private Map<String, String> attributeTokens;
+
     /**
      * Initializes this AuthenticatedUser using the given credentials.
      *
@@ -58,6 +78,75 @@ public class AuthenticatedUser extends AbstractAuthenticatedUser {
         setIdentifier(credentials.getUsername());
     }
 
+    /**
+     * Initializes this AuthenticatedUser using the given credentials and
+     * the DN of the LDAP entry found for them.
+     *
+     * @param credentials
+     *     The credentials provided when this user was authenticated.
+     *
+     * @param dn
+     *     The DN of the LDAP entry of the user, or null if unknown.
+     */
+    public void init(Credentials credentials, String dn) {
+        init(credentials);
+        this.dn = dn;
+    }
+
+    /**
+     * Returns the DN of the LDAP entry of this user.
+     *
+     * @return
+     *     The DN of the user entry, or null if unknown.
+     */
+    public String getDN() {
+        return dn;
+    }
+
+    /**
+     * Returns the DNs of the groups of this user, if they were read at
+     * authentication (see ldap-direct-bind-group-attribute).
+     *
+     * @return
+     *     The DNs of the groups of the user, or null if not read.
+     */
+    public Collection<String> getGroupDNs() {
+        return groupDNs;
+    }
+
+    /**
+     * Sets the DNs of the groups of this user read at authentication.
+     *
+     * @param groupDNs
+     *     The DNs of the groups of the user.
+     */
+    public void setGroupDNs(Collection<String> groupDNs) {
+        this.groupDNs = groupDNs;
+    }
+
+    /**
+     * Returns the values of the user attribute tokens read from the entry of
+     * this user.
+     *
+     * @return
+     *     The token values by name (null for attributes the user does not
+     *     have), or null if not read.
+     */
+    public Map<String, String> getAttributeTokens() {
+        return attributeTokens;
+    }
+
+    /**
+     * Sets the values of the user attribute tokens read from the entry of
+     * this user.
+     *
+     * @param attributeTokens
+     *     The token values by name, or null if not read.
+     */
+    public void setAttributeTokens(Map<String, String> attributeTokens) {
+        this.attributeTokens = attributeTokens;
+    }
+
     @Override
     public AuthenticationProvider getAuthenticationProvider() {
         return authProvider;
@@ -24,6 +24,7 @@ package io.github.kc14.guacamole.auth.ldap389ds.user;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
 
@@ -46,12 +47,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.util.DN;
 import com.novell.ldap.util.RDN;
 
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ActiveConnectionRegistry;
 import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionService;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionTreeCache;
 import io.github.kc14.guacamole.auth.ldap389ds.connection.ConnectionTreeContext;
+import io.github.kc14.guacamole.auth.ldap389ds.connection.TrackedConnection;
 import io.github.kc14.guacamole.auth.ldap389ds.utils.MacroPreProcessor;
 import net.sourceforge.guacamole.net.auth.ldap389ds.LDAP389dsAuthenticationProvider;
 
@@ -90,6 +95,24 @@ public class UserContext implements org.glyptodon.guacamole.net.auth.UserContext
     @Inject
     private ConnectionTreeContext folderTreeContext;
 
+    /**
+     * Cache of the connection trees shared by users with the same groups.
+     */
+    @Inject
+    private ConnectionTreeCache connectionTreeCache;
+
+    /**
+     * Provider for ConnectionTreeContext objects.
+     */
+    @Inject
+    private Provider<ConnectionTreeContext> connectionTreeContextProvider;
+
+    /**
+     * Registry of the active connections of all users.
+     */
+    @Inject
+    private ActiveConnectionRegistry activeConnectionRegistry;
+
     /**
      * Reference to a User object representing the user whose access level
      * dictates the users and connections visible through this UserContext.
@@ -102,6 +125,12 @@ public class UserContext implements org.glyptodon.guacamole.net.auth.UserContext
      */
     private Directory<User> userDirectory;
 
+    /**
+     * The tree of the connections of this user without user tokens, to be
+     * kept as last known good (see LastKnownGoodStore).
+     */
+    private ConnectionTreeContext lastKnownGoodTree;
+
     /**
      * Initializes this UserContext using the provided AuthenticatedUser and
      * LDAPConnection.
@@ -127,17 +156,79 @@ public class UserContext implements org.glyptodon.guacamole.net.auth.UserContext
         );
 
         // Query all accessible connections
-        Map<String, Connection> connections = connectionService.getConnections(ldapConnection, user);
-        
-        MacroPreProcessor.expandStandardTokens(user, connections);
-        
-        folderTreeContext.putConnections (connections);
+        if (connectionTreeCache.isEnabled()) {
+            putSharedConnections(user, ldapConnection);
+        }
+        else {
+            Map<String, Connection> connections = connectionService.getConnections(ldapConnection, user);
+
+            connectionService.readAttributeTokens(ldapConnection, user); // Only if not read at login
+            MacroPreProcessor.expandStandardTokens(user, connections);
+
+            // Count and limit the active connections of the user
+            for (Connection connection : connections.values()) {
+                if (connection instanceof TrackedConnection)
+                    ((TrackedConnection) connection).setUsername(user.getIdentifier());
+            }
+
+            folderTreeContext.putConnections (connections);
+            lastKnownGoodTree = folderTreeContext; // Templates are shared, tokens are applied per user
+        }
         
         // Init self with basic permissions
         createSimpleUser(user);
 
     }
 
+    /**
+     * Initializes this UserContext with the last known good tree of the
+     * given user, without querying the LDAP server (degraded mode).
+     *
+     * @param user
+     *     The AuthenticatedUser representing the user that authenticated.
+     *
+     * @param tree
+     *     The last known good tree of the user (see LastKnownGoodStore).
+     *
+     * @throws GuacamoleException
+     *     If the tree cannot be used.
+     */
+    public void initDegraded(AuthenticatedUser user, ConnectionTreeContext tree) throws GuacamoleException {
+        userDirectory = new SimpleDirectory<User>(new HashMap<String, User>()); // No LDAP => no other users
+        folderTreeContext.putSharedTree(tree, MacroPreProcessor.createStandardTokenFilter(user), user.getIdentifier());
+        lastKnownGoodTree = tree;
+        createSimpleUser(user);
+    }
+
+    /**
+     * Returns the tree of the connections of this user to keep as last known
+     * good.
+     *
+     * @return
+     *     The tree, whose connections must not be modified anymore.
+     */
+    public ConnectionTreeContext getLastKnownGoodTree() {
+        return lastKnownGoodTree;
+    }
+
+    /**
+     * Use the connection tree shared by all users with the same guac config
+     * groups, building and sharing it if not cached yet.
+     */
+    private void putSharedConnections(AuthenticatedUser user, LDAPConnection ldapConnection) throws GuacamoleException {
+        Collection<String> guacConfigGroupDNs = connectionService.getGuacConfigGroupDNs(ldapConnection, user);
+        Object key = connectionTreeCache.getKey(guacConfigGroupDNs);
+        ConnectionTreeContext sharedTree = connectionTreeCache.get(key);
+        if (sharedTree == null) {
+            sharedTree = connectionTreeContextProvider.get();
+            sharedTree.putConnections(connectionService.getConnections(ldapConnection, user, guacConfigGroupDNs));
+            connectionTreeCache.put(key, sharedTree);
+        }
+        lastKnownGoodTree = sharedTree;
+        connectionService.readAttributeTokens(ldapConnection, user); // Only if not read at login
+        folderTreeContext.putSharedTree(sharedTree, MacroPreProcessor.createStandardTokenFilter(user), user.getIdentifier());
+    }
+
 	private void createSimpleUser(AuthenticatedUser user) throws GuacamoleException {
 		self = new SimpleUser(
             user.getIdentifier(),
@@ -180,7 +271,7 @@ public class UserContext implements org.glyptodon.guacamole.net.auth.UserContext
     @Override
     public Directory<ActiveConnection> getActiveConnectionDirectory()
             throws GuacamoleException {
-        return new SimpleDirectory<ActiveConnection>();
+        return new SimpleDirectory<ActiveConnection>(activeConnectionRegistry.getActiveConnectionsOfUser(self.getIdentifier()));
     }
 
     @Override
@@ -31,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.novell.ldap.LDAPConnection;
 
 import io.github.kc14.guacamole.auth.ldap389ds.config.ConfigurationService;
@@ -43,6 +44,7 @@ import io.github.kc14.guacamole.auth.ldap389ds.ldap.EscapingService;
  * @author Michael Jumper
  * @author Frank Kemmer
  */
+@Singleton
 public class UserService {
 
     /**
@@ -0,0 +1,141 @@
+package io.github.kc14.guacamole.auth.ldap389ds.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact, immutable map of strings to values: the keys are kept sorted in
+ * one array and the values in another, so a map costs two arrays instead of
+ * one entry object per mapping (as with HashMap). Lookups are binary
+ * searches, which is as fast as hashing for the small maps of connection
+ * parameters.
+ *
+ * @param <V> The type of the values
+ *
+ * @author Frank Kemmer
+ */
+public final class ArrayMap<V> extends AbstractMap<String, V> {
+
+    /**
+     * The sorted keys.
+     */
+    private final String[] keys;
+
+    /**
+     * The values, in the order of the keys.
+     */
+    private final Object[] values;
+
+    /**
+     * The cached hash code, 0 if not computed yet.
+     */
+    private int hash;
+
+    private ArrayMap(String[] keys, Object[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Creates a compact copy of the given map.
+     *
+     * @param <V> The type of the values
+     *
+     * @param map
+     *     The map to copy, must not contain null keys.
+     *
+     * @return
+     *     The immutable copy.
+     */
+    public static <V> ArrayMap<V> copyOf(Map<String, ? extends V> map) {
+        String[] keys = map.keySet().toArray(new String[map.size()]);
+        Arrays.sort(keys);
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++) values[i] = map.get(keys[i]);
+        return new ArrayMap<V>(keys, values);
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && Arrays.binarySearch(keys, key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (!(key instanceof String)) return null;
+        int index = Arrays.binarySearch(keys, key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                return new Iterator<Map.Entry<String, V>>() {
+
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Map.Entry<String, V> next() {
+                        if (index >= keys.length) throw new NoSuchElementException();
+                        Map.Entry<String, V> entry = new AbstractMap.SimpleImmutableEntry<String, V>(keys[index], (V) values[index]);
+                        index++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException("ArrayMap is immutable");
+                    }
+
+                };
+            }
+
+        };
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = super.hashCode();
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) return true;
+        if (other instanceof ArrayMap) {
+            ArrayMap<?> map = (ArrayMap<?>) other;
+            return hashCode() == map.hashCode() && Arrays.equals(keys, map.keys) && Arrays.equals(values, map.values);
+        }
+        return super.equals(other);
+    }
+
+}
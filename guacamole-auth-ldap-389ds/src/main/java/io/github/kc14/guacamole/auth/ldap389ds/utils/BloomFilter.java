@@ -0,0 +1,87 @@
+package io.github.kc14.guacamole.auth.ldap389ds.utils;
+
+/**
+ * A simple Bloom filter for strings: {@link #mightContain(String)} never
+ * returns false for an added string, and returns true for a string which was
+ * not added only with the configured false positive probability.
+ * <p>
+ * Not thread safe for concurrent adds; build it completely and then publish
+ * it (safely) to the readers.
+ *
+ * @author Frank Kemmer
+ */
+public class BloomFilter {
+
+    /**
+     * The bit array.
+     */
+    private final long[] bits;
+
+    /**
+     * The number of bits in the bit array.
+     */
+    private final int size;
+
+    /**
+     * The number of hash functions.
+     */
+    private final int hashes;
+
+    /**
+     * Creates a Bloom filter sized for the expected number of strings and
+     * the given false positive probability.
+     *
+     * @param expectedInsertions The expected number of strings to add
+     * @param falsePositiveProbability The wanted probability of false positives (0 &lt; p &lt; 1)
+     */
+    public BloomFilter(int expectedInsertions, double falsePositiveProbability) {
+        int n = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        this.size = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        this.hashes = Math.max(1, (int) Math.round((double) size / n * Math.log(2)));
+        this.bits = new long[(size + 63) / 64];
+    }
+
+    /**
+     * Adds the given string.
+     *
+     * @param s The string to add
+     */
+    public void add(String s) {
+        int h1 = s.hashCode();
+        int h2 = fnv1a(s);
+        for (int i = 0; i < hashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+            bits[bit >>> 6] |= 1L << (bit & 63);
+        }
+    }
+
+    /**
+     * Tests whether the given string might have been added.
+     *
+     * @param s The string to test
+     * @return false if the string was definitely not added, true otherwise
+     */
+    public boolean mightContain(String s) {
+        int h1 = s.hashCode();
+        int h2 = fnv1a(s);
+        for (int i = 0; i < hashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+            if ((bits[bit >>> 6] & (1L << (bit & 63))) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Second, independent hash (FNV-1a over the chars) for double hashing.
+     */
+    private static int fnv1a(String s) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1; // Odd, so all bits are reachable
+    }
+
+}
@@ -0,0 +1,527 @@
+package io.github.kc14.guacamole.auth.ldap389ds.utils;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative ints (roaring style): the values are
+ * split by their upper 16 bits into chunks, and each chunk is stored as a
+ * sorted char array while sparse (up to 4096 values) or as a bitmap of 1024
+ * longs when dense. Small sets of dense IDs therefore take a few bytes, and
+ * union, intersection and membership tests work on primitive arrays.
+ * <p>
+ * A set is immutable once created (see Builder), so it can be shared
+ * between threads and used as a map key.
+ *
+ * @author Frank Kemmer
+ */
+public final class CompressedBitSet {
+
+    /**
+     * The maximum number of values of a chunk stored as array.
+     */
+    private static final int ARRAY_MAX = 4096;
+
+    /**
+     * The empty set.
+     */
+    public static final CompressedBitSet EMPTY = new CompressedBitSet();
+
+    /**
+     * The upper 16 bits of the chunks, sorted.
+     */
+    private char[] keys = new char[0];
+
+    /**
+     * The chunks, in the order of the keys.
+     */
+    private Chunk[] chunks = new Chunk[0];
+
+    /**
+     * The number of chunks in use.
+     */
+    private int size;
+
+    /**
+     * Creates an empty set, filled by add before it is published.
+     */
+    private CompressedBitSet() {
+    }
+
+    /**
+     * Collects the values of a new set. A builder builds one set only.
+     */
+    public static final class Builder {
+
+        /**
+         * The set being built, or null once built.
+         */
+        private CompressedBitSet set = new CompressedBitSet();
+
+        /**
+         * Adds the given value.
+         *
+         * @param value
+         *     The value to add, must not be negative.
+         *
+         * @return
+         *     This builder.
+         */
+        public Builder add(int value) {
+            if (set == null) throw new IllegalStateException("Set already built.");
+            set.add(value);
+            return this;
+        }
+
+        /**
+         * Returns the set of the added values.
+         *
+         * @return
+         *     The immutable set.
+         */
+        public CompressedBitSet build() {
+            if (set == null) throw new IllegalStateException("Set already built.");
+            CompressedBitSet result = set;
+            set = null;
+            return result;
+        }
+
+    }
+
+    /**
+     * Creates a set of the given values.
+     *
+     * @param values
+     *     The values, must not be negative.
+     *
+     * @return
+     *     The set of the given values.
+     */
+    public static CompressedBitSet of(int... values) {
+        CompressedBitSet set = new CompressedBitSet();
+        for (int value : values) set.add(value);
+        return set;
+    }
+
+    /**
+     * Adds the given value, while the set is being created.
+     */
+    private void add(int value) {
+        if (value < 0) throw new IllegalArgumentException("Negative value: " + value);
+        char high = (char) (value >>> 16);
+        int index = Arrays.binarySearch(keys, 0, size, high);
+        if (index >= 0) {
+            chunks[index] = chunks[index].add((char) value);
+            return;
+        }
+        index = -index - 1;
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            chunks = Arrays.copyOf(chunks, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(chunks, index, chunks, index + 1, size - index);
+        keys[index] = high;
+        chunks[index] = new ArrayChunk().add((char) value);
+        size++;
+    }
+
+    /**
+     * Returns whether the given value is in this set.
+     *
+     * @param value
+     *     The value to test.
+     *
+     * @return
+     *     true, if the value is in this set.
+     */
+    public boolean contains(int value) {
+        if (value < 0) return false;
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return index >= 0 && chunks[index].contains((char) value);
+    }
+
+    /**
+     * Returns the number of values in this set.
+     *
+     * @return
+     *     The number of values.
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) cardinality += chunks[i].cardinality();
+        return cardinality;
+    }
+
+    /**
+     * Returns whether this set is empty.
+     *
+     * @return
+     *     true, if this set has no values.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the union of this and the given set.
+     *
+     * @param other
+     *     The other set.
+     *
+     * @return
+     *     A new set holding the values of both sets.
+     */
+    public CompressedBitSet or(CompressedBitSet other) {
+        CompressedBitSet result = new CompressedBitSet();
+        result.keys = new char[size + other.size];
+        result.chunks = new Chunk[size + other.size];
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], chunks[i].copy());
+                i++;
+            }
+            else if (i >= size || other.keys[j] < keys[i]) {
+                result.append(other.keys[j], other.chunks[j].copy());
+                j++;
+            }
+            else {
+                result.append(keys[i], chunks[i].or(other.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the intersection of this and the given set.
+     *
+     * @param other
+     *     The other set.
+     *
+     * @return
+     *     A new set holding the values contained in both sets.
+     */
+    public CompressedBitSet and(CompressedBitSet other) {
+        CompressedBitSet result = new CompressedBitSet();
+        result.keys = new char[Math.min(size, other.size)];
+        result.chunks = new Chunk[Math.min(size, other.size)];
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (other.keys[j] < keys[i]) j++;
+            else {
+                Chunk chunk = chunks[i].and(other.chunks[j]);
+                if (chunk.cardinality() > 0) result.append(keys[i], chunk);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether this and the given set have a value in common.
+     *
+     * @param other
+     *     The other set.
+     *
+     * @return
+     *     true, if the sets intersect.
+     */
+    public boolean intersects(CompressedBitSet other) {
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (other.keys[j] < keys[i]) j++;
+            else if (chunks[i].and(other.chunks[j]).cardinality() > 0) return true;
+            else {
+                i++;
+                j++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the values of this set in ascending order.
+     *
+     * @return
+     *     The values.
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int offset = 0;
+        for (int i = 0; i < size; i++) offset = chunks[i].toArray(keys[i] << 16, values, offset);
+        return values;
+    }
+
+    private void append(char key, Chunk chunk) {
+        keys[size] = key;
+        chunks[size] = chunk;
+        size++;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < size; i++) hash = 31 * (31 * hash + keys[i]) + chunks[i].hashCode();
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) return true;
+        if (!(other instanceof CompressedBitSet)) return false;
+        CompressedBitSet set = (CompressedBitSet) other;
+        if (size != set.size) return false;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != set.keys[i] || !chunks[i].equals(set.chunks[i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /**
+     * The lower 16 bits of the values of one chunk.
+     */
+    private abstract static class Chunk {
+
+        abstract boolean contains(char value);
+
+        /**
+         * Adds the given value, returning this or a converted chunk.
+         */
+        abstract Chunk add(char value);
+
+        abstract int cardinality();
+
+        abstract Chunk copy();
+
+        abstract int toArray(int high, int[] values, int offset);
+
+        abstract BitmapChunk toBitmap();
+
+        Chunk or(Chunk other) {
+            if (this instanceof ArrayChunk && other instanceof ArrayChunk) {
+                ArrayChunk a = (ArrayChunk) this, b = (ArrayChunk) other;
+                if (a.cardinality + b.cardinality <= ARRAY_MAX) return a.union(b);
+            }
+            BitmapChunk result = toBitmap();
+            result.orInPlace(other);
+            return result.cardinality <= ARRAY_MAX ? result.toArrayChunk() : result;
+        }
+
+        Chunk and(Chunk other) {
+            if (this instanceof ArrayChunk) return ((ArrayChunk) this).filter(other);
+            if (other instanceof ArrayChunk) return ((ArrayChunk) other).filter(this);
+            BitmapChunk result = toBitmap();
+            result.andInPlace((BitmapChunk) other);
+            return result.cardinality <= ARRAY_MAX ? result.toArrayChunk() : result;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 1;
+            int[] values = new int[cardinality()];
+            toArray(0, values, 0);
+            for (int value : values) hash = 31 * hash + value;
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Chunk)) return false;
+            Chunk chunk = (Chunk) other;
+            if (cardinality() != chunk.cardinality()) return false;
+            int[] values = new int[cardinality()];
+            int[] otherValues = new int[cardinality()];
+            toArray(0, values, 0);
+            chunk.toArray(0, otherValues, 0);
+            return Arrays.equals(values, otherValues);
+        }
+
+    }
+
+    /**
+     * A sparse chunk: the sorted values.
+     */
+    private static final class ArrayChunk extends Chunk {
+
+        char[] values = new char[4];
+
+        int cardinality;
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        Chunk add(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) return this;
+            if (cardinality >= ARRAY_MAX) {
+                BitmapChunk bitmap = toBitmap();
+                return bitmap.add(value);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Chunk copy() {
+            ArrayChunk copy = new ArrayChunk();
+            copy.values = Arrays.copyOf(values, Math.max(1, cardinality));
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        int toArray(int high, int[] result, int offset) {
+            for (int i = 0; i < cardinality; i++) result[offset++] = high | values[i];
+            return offset;
+        }
+
+        @Override
+        BitmapChunk toBitmap() {
+            BitmapChunk bitmap = new BitmapChunk();
+            for (int i = 0; i < cardinality; i++) bitmap.words[values[i] >>> 6] |= 1L << values[i];
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+
+        ArrayChunk union(ArrayChunk other) {
+            ArrayChunk result = new ArrayChunk();
+            result.values = new char[Math.max(1, cardinality + other.cardinality)];
+            int i = 0, j = 0, k = 0;
+            while (i < cardinality || j < other.cardinality) {
+                char value;
+                if (j >= other.cardinality || (i < cardinality && values[i] < other.values[j])) value = values[i++];
+                else if (i >= cardinality || other.values[j] < values[i]) value = other.values[j++];
+                else {
+                    value = values[i++];
+                    j++;
+                }
+                result.values[k++] = value;
+            }
+            result.cardinality = k;
+            return result;
+        }
+
+        ArrayChunk filter(Chunk other) {
+            ArrayChunk result = new ArrayChunk();
+            result.values = new char[Math.max(1, cardinality)];
+            for (int i = 0; i < cardinality; i++) {
+                if (other.contains(values[i])) result.values[result.cardinality++] = values[i];
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * A dense chunk: one bit per value.
+     */
+    private static final class BitmapChunk extends Chunk {
+
+        final long[] words = new long[1024];
+
+        int cardinality;
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Chunk add(char value) {
+            long word = words[value >>> 6];
+            long bit = 1L << value;
+            if ((word & bit) == 0) {
+                words[value >>> 6] = word | bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Chunk copy() {
+            BitmapChunk copy = new BitmapChunk();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        int toArray(int high, int[] result, int offset) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    result[offset++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+
+        @Override
+        BitmapChunk toBitmap() {
+            return (BitmapChunk) copy();
+        }
+
+        void orInPlace(Chunk other) {
+            if (other instanceof BitmapChunk) {
+                long[] otherWords = ((BitmapChunk) other).words;
+                for (int i = 0; i < words.length; i++) words[i] |= otherWords[i];
+                recount();
+            }
+            else {
+                ArrayChunk array = (ArrayChunk) other;
+                for (int i = 0; i < array.cardinality; i++) add(array.values[i]);
+            }
+        }
+
+        void andInPlace(BitmapChunk other) {
+            for (int i = 0; i < words.length; i++) words[i] &= other.words[i];
+            recount();
+        }
+
+        ArrayChunk toArrayChunk() {
+            ArrayChunk array = new ArrayChunk();
+            array.values = new char[Math.max(1, cardinality)];
+            int[] values = new int[cardinality];
+            toArray(0, values, 0);
+            for (int value : values) array.values[array.cardinality++] = (char) value;
+            return array;
+        }
+
+        private void recount() {
+            int count = 0;
+            for (long word : words) count += Long.bitCount(word);
+            cardinality = count;
+        }
+
+    }
+
+}
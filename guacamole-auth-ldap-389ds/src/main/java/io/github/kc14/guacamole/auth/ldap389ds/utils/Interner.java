@@ -0,0 +1,55 @@
+package io.github.kc14.guacamole.auth.ldap389ds.utils;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Canonicalizing store (flyweight): returns one shared instance for all
+ * equal values. Instances are held weakly, so values no longer used
+ * anywhere else are dropped by the garbage collector.
+ * <p>
+ * Values must be immutable and implement equals and hashCode.
+ *
+ * @param <T> The type of the values
+ *
+ * @author Frank Kemmer
+ */
+public class Interner<T> {
+
+    /**
+     * The canonical instances by themselves.
+     */
+    private final Map<T, WeakReference<T>> canonicals = new WeakHashMap<T, WeakReference<T>>();
+
+    /**
+     * Returns the canonical instance equal to the given value, which becomes
+     * the canonical instance if there is none.
+     *
+     * @param value
+     *     The value, may be null.
+     *
+     * @return
+     *     The canonical instance, or null if the value is null.
+     */
+    public synchronized T intern(T value) {
+        if (value == null) return null;
+        WeakReference<T> reference = canonicals.get(value);
+        T canonical = reference == null ? null : reference.get();
+        if (canonical != null) return canonical;
+        canonicals.put(value, new WeakReference<T>(value));
+        return value;
+    }
+
+    /**
+     * Returns the number of canonical instances.
+     *
+     * @return
+     *     The number of canonical instances (including collected ones not yet
+     *     removed).
+     */
+    public synchronized int size() {
+        return canonicals.size();
+    }
+
+}
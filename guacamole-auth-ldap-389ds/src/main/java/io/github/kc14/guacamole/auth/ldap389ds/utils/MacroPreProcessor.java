@@ -5,19 +5,34 @@ import java.util.Map;
 import org.glyptodon.guacamole.net.auth.AuthenticatedUser;
 import org.glyptodon.guacamole.net.auth.Connection;
 import org.glyptodon.guacamole.net.auth.Credentials;
+import org.glyptodon.guacamole.protocol.GuacamoleConfiguration;
 import org.glyptodon.guacamole.token.StandardTokens;
 import org.glyptodon.guacamole.token.TokenFilter;
 
+import io.github.kc14.guacamole.auth.ldap389ds.connection.TemplatedGuacamoleConfiguration;
+
 public class MacroPreProcessor {
 
-	public static void expandStandardTokens(AuthenticatedUser user, Map<String, Connection> connections) {
+	public static TokenFilter createStandardTokenFilter(AuthenticatedUser user) {
 		// Build credential TokenFilter
 	    TokenFilter tokenFilter = new TokenFilter();
 	    StandardTokens.addStandardTokens(tokenFilter, user.getCredentials());
+	    // Add the ${LDAP_<attr>} tokens read at login, if any
+	    if (user instanceof io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser)
+	    	UserAttributeTokens.addTokens(tokenFilter, ((io.github.kc14.guacamole.auth.ldap389ds.user.AuthenticatedUser) user).getAttributeTokens());
+	    return tokenFilter;
+	}
+
+	public static void expandStandardTokens(AuthenticatedUser user, Map<String, Connection> connections) {
+	    TokenFilter tokenFilter = createStandardTokenFilter(user);
 	
 	    // Filter each configuration
 	    for (Connection connection : connections.values()) {
-	    	tokenFilter.filterValues(connection.getConfiguration().getParameters());
+	    	GuacamoleConfiguration config = connection.getConfiguration();
+	    	if (config instanceof TemplatedGuacamoleConfiguration) // Filter when used
+	    		((TemplatedGuacamoleConfiguration) config).setTokenFilter(tokenFilter);
+	    	else
+	    		tokenFilter.filterValues(config.getParameters());
 	    }
 	}
 
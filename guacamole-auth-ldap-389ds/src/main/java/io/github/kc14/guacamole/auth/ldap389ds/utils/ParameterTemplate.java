@@ -0,0 +1,179 @@
+package io.github.kc14.guacamole.auth.ldap389ds.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.glyptodon.guacamole.token.TokenFilter;
+
+/**
+ * A parameter value precompiled for token substitution: the value is parsed
+ * once into literal text and token references, so applying the tokens of a
+ * user needs no regular expression matching, and values without tokens are
+ * returned as they are.
+ * <p>
+ * The result of apply is the same as TokenFilter.filter: ${NAME} is replaced
+ * by the value of the token NAME, unknown tokens are kept, and $${NAME} is
+ * an escaped, literal ${NAME}.
+ * <p>
+ * Instances are immutable and can be shared between users.
+ *
+ * @author Frank Kemmer
+ */
+public final class ParameterTemplate {
+
+    /**
+     * The token pattern of TokenFilter: leading text, escape character,
+     * token and token name.
+     */
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("(.*?)(^|.)(\\$\\{([A-Za-z0-9_]*)\\})");
+
+    /**
+     * The template of the empty value.
+     */
+    private static final ParameterTemplate EMPTY = new ParameterTemplate("", "", null, null, null);
+
+    /**
+     * The value as given.
+     */
+    private final String value;
+
+    /**
+     * The value with all escapes resolved, if the value has no token
+     * references, otherwise null.
+     */
+    private final String constant;
+
+    /**
+     * The literal text before each token reference, plus the trailing text.
+     */
+    private final String[] literals;
+
+    /**
+     * The names of the referenced tokens.
+     */
+    private final String[] tokenNames;
+
+    /**
+     * The references as given (used for unknown tokens).
+     */
+    private final String[] references;
+
+    private ParameterTemplate(String value, String constant, String[] literals, String[] tokenNames, String[] references) {
+        this.value = value;
+        this.constant = constant;
+        this.literals = literals;
+        this.tokenNames = tokenNames;
+        this.references = references;
+    }
+
+    /**
+     * Compiles the given parameter value.
+     *
+     * @param value
+     *     The parameter value, may contain token references.
+     *
+     * @return
+     *     The compiled template, or null if the value is null.
+     */
+    public static ParameterTemplate compile(String value) {
+        if (value == null) return null;
+        if (value.isEmpty()) return EMPTY;
+        if (value.indexOf("${") < 0) return new ParameterTemplate(value, value, null, null, null);
+
+        List<String> literals = new ArrayList<String>();
+        List<String> tokenNames = new ArrayList<String>();
+        List<String> references = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
+        Matcher matcher = TOKEN_PATTERN.matcher(value);
+        int endOfLastMatch = 0;
+        while (matcher.find()) {
+            literal.append(matcher.group(1));
+            if ("$".equals(matcher.group(2))) { // Escaped => literal
+                literal.append(matcher.group(3));
+            }
+            else {
+                literal.append(matcher.group(2));
+                literals.add(literal.toString());
+                tokenNames.add(matcher.group(4));
+                references.add(matcher.group(3));
+                literal.setLength(0);
+            }
+            endOfLastMatch = matcher.end();
+        }
+        literal.append(value.substring(endOfLastMatch));
+
+        if (tokenNames.isEmpty()) return new ParameterTemplate(value, literal.toString(), null, null, null);
+        literals.add(literal.toString());
+        return new ParameterTemplate(value,
+                null,
+                literals.toArray(new String[literals.size()]),
+                tokenNames.toArray(new String[tokenNames.size()]),
+                references.toArray(new String[references.size()]));
+    }
+
+    /**
+     * Returns whether the value references any token.
+     *
+     * @return
+     *     true, if the value references tokens.
+     */
+    public boolean hasTokens() {
+        return constant == null;
+    }
+
+    /**
+     * Returns the names of the referenced tokens.
+     *
+     * @return
+     *     A copy of the token names in order of reference, empty if the
+     *     value references no token.
+     */
+    public String[] getTokenNames() {
+        return tokenNames == null ? new String[0] : tokenNames.clone();
+    }
+
+    /**
+     * Returns the value as given, without tokens applied.
+     *
+     * @return
+     *     The value as given.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Applies the tokens of the given filter.
+     *
+     * @param tokenFilter
+     *     The filter holding the token values, or null to get the value as given.
+     *
+     * @return
+     *     The value with all tokens applied.
+     */
+    public String apply(TokenFilter tokenFilter) {
+        if (tokenFilter == null) return value;
+        if (constant != null) return constant;
+        StringBuilder result = new StringBuilder(value.length() + 32);
+        for (int i = 0; i < tokenNames.length; i++) {
+            result.append(literals[i]);
+            String tokenValue = tokenFilter.getToken(tokenNames[i]);
+            result.append(tokenValue == null ? references[i] : tokenValue);
+        }
+        result.append(literals[tokenNames.length]);
+        return result.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ParameterTemplate && value.equals(((ParameterTemplate) other).value);
+    }
+
+}
@@ -0,0 +1,137 @@
+package io.github.kc14.guacamole.auth.ldap389ds.utils;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Memory-hard password hashing with scrypt (RFC 7914).
+ * <p>
+ * The JRE does not ship a memory-hard key derivation function, so this is a
+ * compact implementation on top of HmacSHA256. Memory use per hash is
+ * 128 * r * N bytes (e.g. 16 MiB for N=16384, r=8).
+ *
+ * @author Frank Kemmer
+ */
+public abstract class SCrypt {
+
+    /**
+     * Derives a key of the given length from the password and salt.
+     *
+     * @param password The password (must not be empty)
+     * @param salt The salt
+     * @param n The CPU/memory cost (a power of 2 greater than 1)
+     * @param r The block size
+     * @param p The parallelization
+     * @param length The length of the derived key in bytes
+     * @return The derived key
+     * @throws GeneralSecurityException If HmacSHA256 is not available
+     */
+    public static byte[] scrypt(byte[] password, byte[] salt, int n, int r, int p, int length) throws GeneralSecurityException {
+        if (password.length == 0) throw new IllegalArgumentException("The password must not be empty");
+        if (n < 2 || (n & (n - 1)) != 0) throw new IllegalArgumentException("N must be a power of 2 greater than 1");
+        if (n > Integer.MAX_VALUE / 128 / r) throw new IllegalArgumentException("Parameter N is too large");
+        if (r > Integer.MAX_VALUE / 128 / p) throw new IllegalArgumentException("Parameter r is too large");
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(password, "HmacSHA256"));
+
+        byte[] b = pbkdf2(mac, salt, 128 * r * p);
+        int[] xy = new int[64 * r];
+        int[] v = new int[32 * r * n];
+        for (int i = 0; i < p; i++) {
+            smix(b, i * 128 * r, r, n, v, xy);
+        }
+        return pbkdf2(mac, b, length);
+    }
+
+    /**
+     * PBKDF2 with one iteration, as used twice by scrypt.
+     */
+    private static byte[] pbkdf2(Mac mac, byte[] salt, int length) {
+        byte[] derived = new byte[length];
+        byte[] block = new byte[salt.length + 4];
+        System.arraycopy(salt, 0, block, 0, salt.length);
+        int hashLength = mac.getMacLength();
+        for (int i = 1, offset = 0; offset < length; i++, offset += hashLength) {
+            block[salt.length] = (byte) (i >>> 24);
+            block[salt.length + 1] = (byte) (i >>> 16);
+            block[salt.length + 2] = (byte) (i >>> 8);
+            block[salt.length + 3] = (byte) i;
+            byte[] u = mac.doFinal(block);
+            System.arraycopy(u, 0, derived, offset, Math.min(hashLength, length - offset));
+        }
+        return derived;
+    }
+
+    /**
+     * ROMix: fills v with N successive BlockMix results and mixes them back
+     * in a data dependent order (this is the memory-hard part).
+     */
+    private static void smix(byte[] b, int offset, int r, int n, int[] v, int[] xy) {
+        int blockInts = 32 * r;
+        int[] x = new int[blockInts];
+        for (int k = 0; k < blockInts; k++) {
+            int i = offset + k * 4;
+            x[k] = (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * blockInts, blockInts);
+            blockMix(x, r, xy);
+        }
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1);
+            for (int k = 0; k < blockInts; k++) x[k] ^= v[j * blockInts + k];
+            blockMix(x, r, xy);
+        }
+        for (int k = 0; k < blockInts; k++) {
+            int i = offset + k * 4;
+            b[i] = (byte) x[k];
+            b[i + 1] = (byte) (x[k] >>> 8);
+            b[i + 2] = (byte) (x[k] >>> 16);
+            b[i + 3] = (byte) (x[k] >>> 24);
+        }
+    }
+
+    /**
+     * BlockMix with Salsa20/8 over the 2 * r blocks of 64 bytes in b.
+     */
+    private static void blockMix(int[] b, int r, int[] y) {
+        int[] x = new int[16];
+        System.arraycopy(b, (2 * r - 1) * 16, x, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) x[k] ^= b[i * 16 + k];
+            salsa208(x);
+            // Even blocks go to the first half, odd blocks to the second half
+            System.arraycopy(x, 0, y, ((i & 1) * r + (i >>> 1)) * 16, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa208(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);   x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);  x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);    x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);  x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);  x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);  x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);  x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);  x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);    x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);   x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);    x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);   x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);  x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);  x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7); x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+
+}
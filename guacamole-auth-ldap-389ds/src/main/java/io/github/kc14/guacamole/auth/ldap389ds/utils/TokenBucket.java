@@ -0,0 +1,78 @@
+package io.github.kc14.guacamole.auth.ldap389ds.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limiter: tokens are refilled continuously at a fixed
+ * rate up to the capacity of the bucket (the allowed burst), and each
+ * operation takes one token.
+ *
+ * @author Frank Kemmer
+ */
+public class TokenBucket {
+
+    /**
+     * The maximum number of tokens in the bucket.
+     */
+    private final double capacity;
+
+    /**
+     * The number of tokens refilled per nanosecond.
+     */
+    private final double tokensPerNano;
+
+    /**
+     * The current number of tokens (may become negative by reservations).
+     */
+    private double tokens;
+
+    /**
+     * The time of the last refill in nanoseconds.
+     */
+    private long lastRefill;
+
+    /**
+     * Creates a full token bucket.
+     *
+     * @param tokensPerMinute The refill rate in tokens per minute
+     * @param capacity The maximum number of tokens (burst)
+     */
+    public TokenBucket(int tokensPerMinute, int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = tokensPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, waiting at most the given time for a token to become
+     * available. If the wait would be longer, no token is taken.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return true if a token was taken, false otherwise
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            waitNanos = (long) Math.ceil((1 - tokens) / tokensPerNano);
+            if (tokensPerNano <= 0 || waitNanos > unit.toNanos(timeout)) return false;
+            tokens -= 1; // Reserve the token, it will be refilled while we wait
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+
+}
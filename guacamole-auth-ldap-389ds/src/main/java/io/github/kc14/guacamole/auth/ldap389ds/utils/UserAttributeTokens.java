@@ -0,0 +1,223 @@
+package io.github.kc14.guacamole.auth.ldap389ds.utils;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.glyptodon.guacamole.token.TokenFilter;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPUrl;
+
+/**
+ * The ${LDAP_&lt;attr&gt;} tokens: the value of the token LDAP_HOMESERVER is
+ * the (first) value of the attribute homeServer of the user's entry, the
+ * value of LDAP_PREFERRED_LANGUAGE that of preferred-language (attribute
+ * names cannot contain underscores, so each underscore stands for a hyphen;
+ * case does not matter).
+ * <p>
+ * Every token referenced by a compiled ConfigurationTemplate is registered
+ * here, so the searches of the user's entry at login (by credentials, of the
+ * user's groups or of a direct bind) request the attributes of all known
+ * tokens together with their own attributes, and the tokens need no extra
+ * round trip.
+ *
+ * @author Frank Kemmer
+ */
+public class UserAttributeTokens {
+
+    /**
+     * The prefix of the names of user attribute tokens.
+     */
+    public static final String PREFIX = "LDAP_";
+
+    /**
+     * The attribute names by name of all referenced user attribute tokens.
+     */
+    private static final ConcurrentMap<String, String> ATTRIBUTES = new ConcurrentHashMap<String, String>();
+
+    private UserAttributeTokens() {
+    }
+
+    /**
+     * Registers the given token, if it is a user attribute token.
+     *
+     * @param tokenName
+     *     The name of a token referenced by a parameter value.
+     */
+    public static void register(String tokenName) {
+        if (tokenName.length() > PREFIX.length() && tokenName.startsWith(PREFIX) && !ATTRIBUTES.containsKey(tokenName))
+            ATTRIBUTES.putIfAbsent(tokenName, tokenName.substring(PREFIX.length()).replace('_', '-'));
+    }
+
+    /**
+     * Returns the names of all registered user attribute tokens.
+     *
+     * @return
+     *     The token names, may be empty.
+     */
+    public static Collection<String> getTokenNames() {
+        return new ArrayList<String>(ATTRIBUTES.keySet());
+    }
+
+    /**
+     * Returns the attributes of the given user attribute tokens.
+     *
+     * @param tokenNames
+     *     The names of registered tokens.
+     *
+     * @return
+     *     The attribute names, without duplicates.
+     */
+    public static String[] getAttributeNames(Collection<String> tokenNames) {
+        List<String> attributes = new ArrayList<String>(tokenNames.size());
+        for (String tokenName : tokenNames) {
+            String attribute = ATTRIBUTES.get(tokenName);
+            if (attribute != null && !containsIgnoreCase(attributes, attribute)) attributes.add(attribute);
+        }
+        return attributes.toArray(new String[attributes.size()]);
+    }
+
+    /**
+     * Returns the given attributes plus the given additional ones, unless
+     * all attributes are requested anyway (none given).
+     *
+     * @param attributes
+     *     The attributes of a search, null or empty for all attributes.
+     *
+     * @param additionalAttributes
+     *     The attributes to add.
+     *
+     * @return
+     *     The attributes of the search with the additional ones.
+     */
+    public static String[] addAttributes(String[] attributes, String[] additionalAttributes) {
+        if (attributes == null || attributes.length == 0 || additionalAttributes.length == 0) return attributes;
+        List<String> merged = new ArrayList<String>(Arrays.asList(attributes));
+        for (String attribute : additionalAttributes) {
+            if (!containsIgnoreCase(merged, attribute)) merged.add(attribute);
+        }
+        return merged.toArray(new String[merged.size()]);
+    }
+
+    /**
+     * Returns the given LDAP URL requesting the given additional attributes,
+     * unless it requests all attributes anyway.
+     *
+     * @param ldapUrl
+     *     The LDAP URL of a search.
+     *
+     * @param additionalAttributes
+     *     The attributes to add.
+     *
+     * @return
+     *     The LDAP URL requesting the additional attributes.
+     *
+     * @throws MalformedURLException
+     *     If the resulting URL cannot be parsed.
+     */
+    public static LDAPUrl addAttributes(LDAPUrl ldapUrl, String[] additionalAttributes) throws MalformedURLException {
+        String[] attributes = ldapUrl.getAttributeArray();
+        String[] merged = addAttributes(attributes, additionalAttributes);
+        if (merged == attributes) return ldapUrl;
+        String[] extensions = ldapUrl.getExtensions(); // Must not be null
+        return new LDAPUrl(ldapUrl.getHost(), ldapUrl.getPort(), ldapUrl.getDN(), merged, ldapUrl.getScope(), ldapUrl.getFilter(),
+                extensions == null ? new String[0] : extensions, ldapUrl.isSecure());
+    }
+
+    /**
+     * Returns the additional attributes which the given attributes of a
+     * search do not request themselves, i.e. which have to be removed from
+     * the results (see removeAttributes).
+     *
+     * @param attributes
+     *     The attributes of a search, null or empty for all attributes.
+     *
+     * @param additionalAttributes
+     *     The attributes added.
+     *
+     * @return
+     *     The attributes added to the search.
+     */
+    public static String[] getAddedAttributes(String[] attributes, String[] additionalAttributes) {
+        if (attributes == null || attributes.length == 0) return new String[0];
+        List<String> requested = Arrays.asList(attributes);
+        List<String> added = new ArrayList<String>();
+        for (String attribute : additionalAttributes) {
+            if (!containsIgnoreCase(requested, attribute)) added.add(attribute);
+        }
+        return added.toArray(new String[added.size()]);
+    }
+
+    /**
+     * Removes the given attributes from the given entry.
+     *
+     * @param entry
+     *     The entry to modify.
+     *
+     * @param attributes
+     *     The names of the attributes to remove.
+     */
+    public static void removeAttributes(LDAPEntry entry, String[] attributes) {
+        for (String attribute : attributes) {
+            LDAPAttribute found = entry.getAttribute(attribute);
+            if (found != null) entry.getAttributeSet().remove(found);
+        }
+    }
+
+    /**
+     * Returns the values of the given user attribute tokens read from the
+     * given entry.
+     *
+     * @param entry
+     *     The entry of the user.
+     *
+     * @param tokenNames
+     *     The names of the tokens whose attributes were requested.
+     *
+     * @return
+     *     The token values by name, null for attributes the user does not
+     *     have.
+     */
+    public static Map<String, String> read(LDAPEntry entry, Collection<String> tokenNames) {
+        Map<String, String> tokens = new HashMap<String, String>(tokenNames.size() * 4 / 3 + 1);
+        for (String tokenName : tokenNames) {
+            String attributeName = ATTRIBUTES.get(tokenName);
+            if (attributeName == null) continue;
+            LDAPAttribute attribute = entry.getAttribute(attributeName);
+            tokens.put(tokenName, attribute == null ? null : attribute.getStringValue());
+        }
+        return tokens;
+    }
+
+    /**
+     * Adds the given token values to the given filter.
+     *
+     * @param tokenFilter
+     *     The filter of a user.
+     *
+     * @param tokens
+     *     The token values by name (see read), may be null.
+     */
+    public static void addTokens(TokenFilter tokenFilter, Map<String, String> tokens) {
+        if (tokens == null) return;
+        for (Map.Entry<String, String> token : tokens.entrySet()) {
+            if (token.getValue() != null) tokenFilter.setToken(token.getKey(), token.getValue());
+        }
+    }
+
+    private static boolean containsIgnoreCase(Collection<String> names, String name) {
+        for (String candidate : names) {
+            if (candidate.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+}
@@ -29,6 +29,8 @@ import com.google.inject.Injector;
 
 import io.github.kc14.guacamole.auth.ldap389ds.AuthenticationProviderService;
 import io.github.kc14.guacamole.auth.ldap389ds.LDAP389dsAuthenticationProviderModule;
+import io.github.kc14.guacamole.auth.ldap389ds.LifecycleService;
+import io.github.kc14.guacamole.auth.ldap389ds.WarmUpService;
 
 import org.glyptodon.guacamole.GuacamoleException;
 import org.glyptodon.guacamole.net.auth.AuthenticatedUser;
@@ -67,6 +69,11 @@ public class LDAP389dsAuthenticationProvider implements AuthenticationProvider {
      */
     private final Injector injector;
 
+    /**
+     * The (singleton) service authenticating the users of this provider.
+     */
+    private final AuthenticationProviderService authProviderService;
+
     /**
      * Creates a new LDAPAuthenticationProvider that authenticates users
      * against an LDAP directory.
@@ -82,6 +89,15 @@ public class LDAP389dsAuthenticationProvider implements AuthenticationProvider {
             new LDAP389dsAuthenticationProviderModule(this)
         );
 
+        authProviderService = injector.getInstance(AuthenticationProviderService.class);
+
+        // Open the long-lived resources and close them when the JVM shuts
+        // down (guacamole-ext has no shutdown hook for providers)
+        injector.getInstance(LifecycleService.class).start();
+
+        // Warm up the login path in the background (if configured)
+        injector.getInstance(WarmUpService.class).warmUp();
+
     }
 
     @Override
@@ -92,7 +108,6 @@ public class LDAP389dsAuthenticationProvider implements AuthenticationProvider {
     @Override
     public AuthenticatedUser authenticateUser(Credentials credentials) throws GuacamoleException {
 
-        AuthenticationProviderService authProviderService = injector.getInstance(AuthenticationProviderService.class);
         return authProviderService.authenticateUser(credentials);
 
     }
@@ -107,7 +122,6 @@ public class LDAP389dsAuthenticationProvider implements AuthenticationProvider {
     public UserContext getUserContext(AuthenticatedUser authenticatedUser)
             throws GuacamoleException {
 
-        AuthenticationProviderService authProviderService = injector.getInstance(AuthenticationProviderService.class);
         return authProviderService.getUserContext(authenticatedUser);
 
     }